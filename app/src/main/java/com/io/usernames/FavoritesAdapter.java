@@ -0,0 +1,92 @@
+package com.io.usernames;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import com.io.usernames.storage.FavoritesStore;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Suggests kept usernames as the user types, matched by prefix in the {@link FavoritesStore}.
+ */
+public class FavoritesAdapter extends BaseAdapter implements Filterable {
+
+    private static final int MAX_SUGGESTIONS = 20;
+
+    private final LayoutInflater inflater;
+    private final FavoritesStore favoritesStore;
+    private List<FavoritesStore.Favorite> favorites = Collections.emptyList();
+
+    public FavoritesAdapter(Context context, FavoritesStore favoritesStore) {
+        this.inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        this.favoritesStore = favoritesStore;
+    }
+
+    @Override
+    public int getCount() {
+        return favorites.size();
+    }
+
+    @Override
+    public FavoritesStore.Favorite getItem(int position) {
+        return favorites.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView text = (TextView) convertView;
+        if(text==null) {
+            text = (TextView) inflater.inflate(android.R.layout.simple_dropdown_item_1line, parent, false);
+        }
+        text.setText(getItem(position).getUsername());
+        return text;
+    }
+
+    @Override
+    public Filter getFilter() {
+        return filter;
+    }
+
+    private final Filter filter = new Filter() {
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            // Runs on the filter thread, the store is synchronized and searches in well under a millisecond
+            FilterResults results = new FilterResults();
+            List<FavoritesStore.Favorite> matches = constraint!=null
+                    ? favoritesStore.search(constraint.toString().trim(), MAX_SUGGESTIONS)
+                    : Collections.<FavoritesStore.Favorite>emptyList();
+            results.values = matches;
+            results.count = matches.size();
+            return results;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            favorites = (List<FavoritesStore.Favorite>) results.values;
+            if(results.count>0) {
+                notifyDataSetChanged();
+            } else {
+                notifyDataSetInvalidated();
+            }
+        }
+
+        @Override
+        public CharSequence convertResultToString(Object resultValue) {
+            return ((FavoritesStore.Favorite) resultValue).getUsername();
+        }
+    };
+}
@@ -8,6 +8,8 @@ import android.view.LayoutInflater;
 import android.view.View;
 
 import com.google.android.gms.analytics.GoogleAnalytics;
+import com.io.usernames.api.UsernamesApi;
+import com.io.usernames.util.PerfStats;
 
 import de.keyboardsurfer.android.widget.crouton.Crouton;
 
@@ -27,12 +29,15 @@ public class UsernamesActivity extends ActionBarActivity {
      */
     public static String SWIPE_LEFT_EVENT = "Swiped Left";
     public static String SWIPE_RIGHT_EVENT = "Swiped Right";
+    public static String EXPORT_EVENT = "Exported";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-
-        ((UsernamesApplication) getApplication()).getTracker(UsernamesApplication.TrackerName.APP_TRACKER);
+        // A rotation is not a start, the retained fragment still has its usernames
+        if (getLastCustomNonConfigurationInstance() == null) {
+            PerfStats.markActivityStart();
+        }
 
         setContentView(R.layout.activity_usernames);
 
@@ -52,6 +57,14 @@ public class UsernamesActivity extends ActionBarActivity {
         }
     }
 
+    /**
+     * Only there so the next instance can tell a configuration change from a start.
+     */
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return Boolean.TRUE;
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -67,5 +80,18 @@ public class UsernamesActivity extends ActionBarActivity {
     public void onStop() {
         super.onStop();
         GoogleAnalytics.getInstance(this).reportActivityStop(this);
+        UsernamesApplication application = (UsernamesApplication) getApplication();
+        // Nothing to flush if the API was never built, and flushing writes to disk
+        final UsernamesApi usernamesApi = application.peekUsernamesApi();
+        if (usernamesApi != null) {
+            application.getBackgroundExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    usernamesApi.flush();
+                }
+            });
+        }
+        // The process may be killed any time from here on
+        application.getEventQueue().flush();
     }
 }
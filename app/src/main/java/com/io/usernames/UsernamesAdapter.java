@@ -2,27 +2,30 @@ package com.io.usernames;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Paint;
 import android.net.Uri;
+import android.os.Debug;
 import android.support.v4.view.PagerAdapter;
-import android.text.SpannableString;
-import android.text.style.UnderlineSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.io.usernames.models.ServiceRegistry;
 import com.io.usernames.models.UsernameModel;
+import com.io.usernames.util.MemoryPressure;
+import com.io.usernames.util.PerfStats;
+import com.io.usernames.util.Pool;
 
+import java.util.ArrayList;
 import java.util.List;
 
-import butterknife.ButterKnife;
-import butterknife.InjectView;
-
 /**
  * Created by michaudm3 on 10/23/2014.
  */
-public class UsernamesAdapter extends PagerAdapter {
+public class UsernamesAdapter extends PagerAdapter implements MemoryPressure.Trimmable {
 
     private final String TAG = "UsernamesAdapter";
 
@@ -30,10 +33,34 @@ public class UsernamesAdapter extends PagerAdapter {
     private int resource;
     private List<UsernameModel> items;
 
+    /*
+     * The pager keeps at most three pages attached, a small pool covers every page it
+     * destroys before instantiating the next one
+     */
+    private static final int MAX_POOL_SIZE = 4;
+    private final LayoutInflater inflater;
+    private final Pool<View> viewPool = new Pool<View>(MAX_POOL_SIZE);
+    private final List<ViewHolder> boundHolders = new ArrayList<ViewHolder>(MAX_POOL_SIZE);
+    private int inflateCount;
+    private boolean pooling = true;
+    private boolean countAllocations;
+    private long allocationCount;
+    private int countedPages;
+    private OnUsernameLongClickListener longClickListener;
+
+    public interface OnUsernameLongClickListener {
+        boolean onUsernameLongClick(UsernameModel usernameModel);
+    }
+
     public UsernamesAdapter(Context context, int resource, List<UsernameModel> items) {
         this.context = context;
         this.items = items;
         this.resource = resource;
+        this.inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+    }
+
+    public void setOnUsernameLongClickListener(OnUsernameLongClickListener longClickListener) {
+        this.longClickListener = longClickListener;
     }
 
     public List<UsernameModel> getItems() {
@@ -46,128 +73,283 @@ public class UsernamesAdapter extends PagerAdapter {
 
     @Override
     public Object instantiateItem(ViewGroup container, int position) {
-        LayoutInflater inflater = (LayoutInflater) context
-                .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View root=null;
+        // Null when a paged out username could not be read back, the page says so
         final UsernameModel item = items.get(position);
-        if(item!=null) {
+        long start = System.nanoTime();
+        int allocationStart = countAllocations ? Debug.getThreadAllocCount() : 0;
+        View root = viewPool.poll();
+        if(root==null) {
             root = inflater.inflate(resource, container, false);
-            TextView textView = (TextView) root.findViewById(R.id.text_username);
-            textView.setText(item.getUsername());
-
-            /*
-             *  URL
-             */
-            ImageView urlStatus = (ImageView) root.findViewById(R.id.url_status);
-            TextView urlText = (TextView) root.findViewById(R.id.url_text);
-            SpannableString urlContent = new SpannableString(item.getUsername()+".com");
-            urlContent.setSpan(new UnderlineSpan(), 0, urlContent.length(), 0);
-            urlText.setText(urlContent);
-            urlText.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    launchLink(v, "http://www.namecheap.com/?aff=72210");
-                }
-            });
+            root.setTag(new ViewHolder(root, linkClickListener));
+            root.setOnLongClickListener(pageLongClickListener);
+            inflateCount++;
+        }
+        ViewHolder holder = (ViewHolder) root.getTag();
+        if(item!=null) {
+            bind(holder, item);
+        } else {
+            bindError(holder);
+        }
+        holder.position = position;
+        boundHolders.add(holder);
+        container.addView(root);
+        PerfStats.INSTANTIATE_ITEM.recordSince(start);
+        if(countAllocations) {
+            allocationCount += Debug.getThreadAllocCount() - allocationStart;
+            countedPages++;
+        }
+        return root;
+    }
 
-            if(item.getResults().get(0).isAvailable()) {
-                urlStatus.setImageResource(R.drawable.ic_check);
-            } else {
-                urlStatus.setImageResource(R.drawable.ic_x);
-            }
+    @Override
+    public void destroyItem(ViewGroup collection, int position, Object view) {
+        if(view==null) {
+            return;
+        }
+        View root = (View) view;
+        collection.removeView(root);
+        ViewHolder holder = (ViewHolder) root.getTag();
+        holder.item = null;
+        holder.position = POSITION_NONE;
+        boundHolders.remove(holder);
+        if(pooling) {
+            viewPool.offer(root);
+        }
+    }
 
-            /*
-             *  FACEBOOK
-             */
-            ImageView facebookStatus = (ImageView) root.findViewById(R.id.facebook_status);
-            TextView facebookText = (TextView) root.findViewById(R.id.facebook_text);
-            SpannableString facebookContent = new SpannableString("facebook.com/"+item.getUsername());
-            facebookContent.setSpan(new UnderlineSpan(), 0, facebookContent.length(), 0);
-            facebookText.setText(facebookContent);
-            facebookText.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    launchLink(v, "https://facebook.com/username");
-                }
-            });
+    /**
+     * Binds item into a page shown outside the pager, e.g. the result of a name the user
+     * looked up. Pass the view returned last time as convertView to bind it again.
+     */
+    public View bindPage(View convertView, ViewGroup parent, UsernameModel item) {
+        View root = convertView;
+        if(root==null) {
+            root = inflater.inflate(resource, parent, false);
+            root.setTag(new ViewHolder(root, linkClickListener));
+            root.setOnLongClickListener(pageLongClickListener);
+            inflateCount++;
+        }
+        bind((ViewHolder) root.getTag(), item);
+        return root;
+    }
 
-            if(item.getResults().get(0).isAvailable()) {
-                facebookStatus.setImageResource(R.drawable.ic_check);
-            } else {
-                facebookStatus.setImageResource(R.drawable.ic_x);
+    /**
+     * Each attached page knows its position, so after an insert or remove the pager only
+     * creates or destroys the pages that actually changed instead of rebuilding all of them.
+     */
+    @Override
+    public int getItemPosition(Object object) {
+        if(object==null) {
+            return POSITION_NONE;
+        }
+        return ((ViewHolder) ((View) object).getTag()).position;
+    }
+
+    /**
+     * Rebinds the page showing usernameModel, if it is attached, after its availability changed.
+     */
+    public void refreshUsername(UsernameModel usernameModel) {
+        for (ViewHolder holder : boundHolders) {
+            if(holder.item==usernameModel) {
+                bind(holder, usernameModel);
             }
+        }
+    }
 
-            /*
-             *  TWITTER
-             */
-            ImageView twitterStatus = (ImageView) root.findViewById(R.id.twitter_status);
-            TextView twitterText = (TextView) root.findViewById(R.id.twitter_text);
-            SpannableString twitterContent = new SpannableString("twitter.com/"+item.getUsername());
-            twitterContent.setSpan(new UnderlineSpan(), 0, twitterContent.length(), 0);
-            twitterText.setText(twitterContent);
-            twitterText.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    launchLink(v, "https://twitter.com/signup");
-                }
-            });
+    private void bind(ViewHolder holder, UsernameModel item) {
+        holder.item = item;
+        String username = item.getUsername();
+        holder.username.setText(username);
 
-            if(item.getResults().get(0).isAvailable()) {
-                twitterStatus.setImageResource(R.drawable.ic_check);
-            } else {
-                twitterStatus.setImageResource(R.drawable.ic_x);
-            }
+        holder.urlText.setText(username + ".com");
+        bindStatus(holder.urlStatus, item, ServiceRegistry.URL);
 
-            /*
-             *  GITHUB
-             */
-            ImageView githubStatus = (ImageView) root.findViewById(R.id.github_status);
-            TextView githubText = (TextView) root.findViewById(R.id.github_text);
-            SpannableString githubContent = new SpannableString("github.com/"+item.getUsername());
-            githubContent.setSpan(new UnderlineSpan(), 0, githubContent.length(), 0);
-            githubText.setText(githubContent);
-            githubText.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    launchLink(v, "https://github.com/join");
-                }
-            });
+        holder.facebookText.setText("facebook.com/" + username);
+        bindStatus(holder.facebookStatus, item, ServiceRegistry.FACEBOOK);
 
-            if(item.getResults().get(0).isAvailable()) {
-                githubStatus.setImageResource(R.drawable.ic_check);
-            } else {
-                githubStatus.setImageResource(R.drawable.ic_x);
-            }
+        holder.twitterText.setText("twitter.com/" + username);
+        bindStatus(holder.twitterStatus, item, ServiceRegistry.TWITTER);
 
-            /*
-             *  LINKEDIN
-             */
-            ImageView linkedinStatus = (ImageView) root.findViewById(R.id.linkedin_status);
-            TextView linkedinText = (TextView) root.findViewById(R.id.linkedin_text);
-            SpannableString linkedinContent = new SpannableString("linkedin.com/"+item.getUsername());
-            linkedinContent.setSpan(new UnderlineSpan(), 0, linkedinContent.length(), 0);
-            linkedinText.setText(linkedinContent);
-            linkedinText.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    launchLink(v, "http://www.linkedin.com/profile/public-profile-settings");
-                }
-            });
+        holder.githubText.setText("github.com/" + username);
+        bindStatus(holder.githubStatus, item, ServiceRegistry.GITHUB);
 
-            if(item.getResults().get(0).isAvailable()) {
-                linkedinStatus.setImageResource(R.drawable.ic_check);
-            } else {
-                linkedinStatus.setImageResource(R.drawable.ic_x);
-            }
+        holder.linkedinText.setText("linkedin.com/" + username);
+        bindStatus(holder.linkedinStatus, item, ServiceRegistry.LINKEDIN);
+    }
+
+    private void bindError(ViewHolder holder) {
+        holder.item = null;
+        holder.username.setText(R.string.history_error);
+        holder.urlText.setText(null);
+        holder.urlStatus.setImageResource(R.drawable.ic_unknown);
+        holder.facebookText.setText(null);
+        holder.facebookStatus.setImageResource(R.drawable.ic_unknown);
+        holder.twitterText.setText(null);
+        holder.twitterStatus.setImageResource(R.drawable.ic_unknown);
+        holder.githubText.setText(null);
+        holder.githubStatus.setImageResource(R.drawable.ic_unknown);
+        holder.linkedinText.setText(null);
+        holder.linkedinStatus.setImageResource(R.drawable.ic_unknown);
+    }
 
-            container.addView(root);
+    private static void bindStatus(ImageView status, UsernameModel item, int serviceId) {
+        if(!item.isKnown(serviceId)) {
+            status.setImageResource(R.drawable.ic_unknown);
+        } else if(item.isAvailable(serviceId)) {
+            status.setImageResource(R.drawable.ic_check);
+        } else {
+            status.setImageResource(R.drawable.ic_x);
+        }
+    }
+
+    /**
+     * Number of pages inflated so far, once the pool is warm this stops growing while swiping.
+     */
+    public int getInflateCount() {
+        return inflateCount;
+    }
+
+    /**
+     * Debug builds only. Counts the objects instantiateItem allocates, from the VM's
+     * allocation counter, which slows every allocation down while it is on. Starts over
+     * from zero every time it is switched.
+     */
+    public void setCountAllocations(boolean countAllocations) {
+        this.countAllocations = countAllocations;
+        allocationCount = 0;
+        countedPages = 0;
+        if(countAllocations) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
         }
-        return root;
     }
 
+    /**
+     * Objects allocated per instantiated page since counting was switched on, one page being
+     * what a swipe costs.
+     */
+    public float getAllocationsPerPage() {
+        return countedPages==0 ? 0 : (float) allocationCount/countedPages;
+    }
+
+    /**
+     * Debug builds only. Without the pool every page is inflated again, as before the pool
+     * existed, so the two allocation counts can be compared in one build.
+     */
+    public void setPooling(boolean pooling) {
+        this.pooling = pooling;
+        if(!pooling) {
+            viewPool.clear();
+        }
+    }
+
+    public boolean isPooling() {
+        return pooling;
+    }
+
+    /**
+     * Lets go of the pooled pages once memory runs low, the attached ones stay.
+     */
     @Override
-    public void destroyItem(ViewGroup collection, int position, Object view) {
-        (collection).removeView((View) view);
+    public void trim(int level) {
+        viewPool.trim(level);
+    }
+
+    private final View.OnLongClickListener pageLongClickListener = new View.OnLongClickListener() {
+        @Override
+        public boolean onLongClick(View v) {
+            UsernameModel item = ((ViewHolder) v.getTag()).item;
+            return item!=null && longClickListener!=null && longClickListener.onUsernameLongClick(item);
+        }
+    };
+
+    /**
+     * One listener shared by the link rows of every page, the row is told apart by its id.
+     */
+    private final View.OnClickListener linkClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            switch (v.getId()) {
+                case R.id.url_text:
+                    logLinkEvent(v, UsernamesActivity.URL_EVENT);
+                    launchLink(v, "http://www.namecheap.com/?aff=72210");
+                    break;
+                case R.id.facebook_text:
+                    logLinkEvent(v, UsernamesActivity.FACEBOOK_EVENT);
+                    launchLink(v, "https://facebook.com/username");
+                    break;
+                case R.id.twitter_text:
+                    logLinkEvent(v, UsernamesActivity.TWITTER_EVENT);
+                    launchLink(v, "https://twitter.com/signup");
+                    break;
+                case R.id.github_text:
+                    logLinkEvent(v, UsernamesActivity.GITHUB_EVENT);
+                    launchLink(v, "https://github.com/join");
+                    break;
+                case R.id.linkedin_text:
+                    logLinkEvent(v, UsernamesActivity.LINKEDIN_EVENT);
+                    launchLink(v, "http://www.linkedin.com/profile/public-profile-settings");
+                    break;
+            }
+        }
+    };
+
+    private void logLinkEvent(View v, String action) {
+        // The row's page holder knows which username was on screen
+        UsernameModel item = null;
+        ViewParent parent = v.getParent();
+        while(parent instanceof View && !(((View) parent).getTag() instanceof ViewHolder)) {
+            parent = parent.getParent();
+        }
+        if(parent instanceof View) {
+            item = ((ViewHolder) ((View) parent).getTag()).item;
+        }
+        ((UsernamesApplication) context.getApplicationContext()).logEvent(action,
+                item!=null ? item.getUsername() : null);
+    }
+
+    /**
+     * Caches the views of a pooled page so binding does no lookups.
+     */
+    static class ViewHolder {
+        final TextView username;
+        final ImageView urlStatus;
+        final TextView urlText;
+        final ImageView facebookStatus;
+        final TextView facebookText;
+        final ImageView twitterStatus;
+        final TextView twitterText;
+        final ImageView githubStatus;
+        final TextView githubText;
+        final ImageView linkedinStatus;
+        final TextView linkedinText;
+        UsernameModel item;
+        // Position in the pager, POSITION_NONE when the page is not attached to it
+        int position = POSITION_NONE;
+
+        ViewHolder(View root, View.OnClickListener linkClickListener) {
+            username = (TextView) root.findViewById(R.id.text_username);
+            urlStatus = (ImageView) root.findViewById(R.id.url_status);
+            urlText = linkText(root, R.id.url_text, linkClickListener);
+            facebookStatus = (ImageView) root.findViewById(R.id.facebook_status);
+            facebookText = linkText(root, R.id.facebook_text, linkClickListener);
+            twitterStatus = (ImageView) root.findViewById(R.id.twitter_status);
+            twitterText = linkText(root, R.id.twitter_text, linkClickListener);
+            githubStatus = (ImageView) root.findViewById(R.id.github_status);
+            githubText = linkText(root, R.id.github_text, linkClickListener);
+            linkedinStatus = (ImageView) root.findViewById(R.id.linkedin_status);
+            linkedinText = linkText(root, R.id.linkedin_text, linkClickListener);
+        }
+
+        private static TextView linkText(View root, int id, View.OnClickListener linkClickListener) {
+            TextView textView = (TextView) root.findViewById(id);
+            // Underline through the paint once instead of a new span on every bind
+            textView.setPaintFlags(textView.getPaintFlags() | Paint.UNDERLINE_TEXT_FLAG);
+            textView.setOnClickListener(linkClickListener);
+            return textView;
+        }
     }
 
     @Override
@@ -191,11 +373,6 @@ public class UsernamesAdapter extends PagerAdapter {
         notifyDataSetChanged();
     }
 
-    public void removeUsername(int i) {
-        items.remove(i);
-        notifyDataSetChanged();
-    }
-
     public UsernameModel getUsername(int i) {
         return items.get(i);
     }
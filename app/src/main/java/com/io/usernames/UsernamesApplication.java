@@ -2,19 +2,56 @@ package com.io.usernames;
 
 import android.app.Application;
 import android.content.res.Configuration;
+import android.os.Process;
+import android.util.Log;
 
 import com.google.android.gms.analytics.GoogleAnalytics;
+import com.google.android.gms.analytics.HitBuilders;
 import com.google.android.gms.analytics.Tracker;
+import com.io.usernames.api.UsernameGenerator;
+import com.io.usernames.api.UsernamesApi;
+import com.io.usernames.storage.DiagnosticLog;
+import com.io.usernames.storage.EventQueue;
+import com.io.usernames.storage.FavoritesStore;
+import com.io.usernames.storage.SeenUsernameSet;
+import com.io.usernames.storage.TakenUsernameFilter;
+import com.io.usernames.storage.UsernameCache;
+import com.io.usernames.util.Lazy;
+import com.io.usernames.util.MainThreadExecutor;
+import com.io.usernames.util.MemoryPressure;
+import com.io.usernames.util.PerfStats;
+import com.io.usernames.util.UsernameLog;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by michaudm3 on 12/6/2014.
+ *
+ * Owns the process wide singletons. They are built lazily, and onCreate starts building
+ * them on a background thread so the first activity rarely has to wait for disk or for
+ * Retrofit to set up.
  */
 public class UsernamesApplication extends Application {
 
+    private final String TAG = "UsernamesApplication";
+
     // The following line should be changed to include the correct property id.
     private static final String PROPERTY_ID = "UA-50420831-3";
+    private static final String EVENT_CATEGORY = "UsernamesActivity";
+    // Analytics drops hits queued for longer than four hours
+    private static final long MAX_QUEUE_TIME_MILLIS = 4 * 60 * 60 * 1000;
+    private static final String PREFERENCES = "usernames";
+    private static final String PREF_DIAGNOSTICS = "diagnostics";
 
     public enum TrackerName {
         APP_TRACKER, // Tracker used only in this app.
@@ -23,6 +60,81 @@ public class UsernamesApplication extends Application {
 
     HashMap<TrackerName, Tracker> mTrackers = new HashMap<TrackerName, Tracker>();
 
+    ExecutorService startupExecutor;
+    final Executor mainThread = new MainThreadExecutor();
+    EventQueue eventQueue;
+    final MemoryPressure memoryPressure = new MemoryPressure();
+
+    // In the order the first screen needs them
+    final Lazy<UsernameCache> usernameCache = new Lazy<UsernameCache>() {
+        @Override
+        protected UsernameCache create() {
+            try {
+                return new UsernameCache(new File(getFilesDir(), "usernames.cache"), UsernameCache.DEFAULT_MAX_BYTES);
+            } catch (IOException e) {
+                UsernameLog.e(TAG, "Username cache unavailable: {}", e.getMessage());
+                return null;
+            }
+        }
+    };
+
+    final Lazy<UsernamesApi> usernamesApi = new Lazy<UsernamesApi>() {
+        @Override
+        protected UsernamesApi create() {
+            return UsernamesApi.get(UsernamesApplication.this);
+        }
+    };
+
+    final Lazy<TakenUsernameFilter> takenFilter = new Lazy<TakenUsernameFilter>() {
+        @Override
+        protected TakenUsernameFilter create() {
+            return TakenUsernameFilter.open(new File(getFilesDir(), "taken.bloom"),
+                    TakenUsernameFilter.DEFAULT_EXPECTED_INSERTIONS,
+                    TakenUsernameFilter.DEFAULT_FALSE_POSITIVE_RATE,
+                    TakenUsernameFilter.DEFAULT_MAX_BYTES);
+        }
+    };
+
+    final Lazy<SeenUsernameSet> seenUsernames = new Lazy<SeenUsernameSet>() {
+        @Override
+        protected SeenUsernameSet create() {
+            return SeenUsernameSet.open(new File(getFilesDir(), "seen.set"), SeenUsernameSet.DEFAULT_MAX_SIZE);
+        }
+    };
+
+    final Lazy<FavoritesStore> favoritesStore = new Lazy<FavoritesStore>() {
+        @Override
+        protected FavoritesStore create() {
+            try {
+                return new FavoritesStore(new File(getFilesDir(), "favorites.log"));
+            } catch (IOException e) {
+                UsernameLog.e(TAG, "Favorites unavailable: {}", e.getMessage());
+                return null;
+            }
+        }
+    };
+
+    final Lazy<UsernameGenerator> usernameGenerator = new Lazy<UsernameGenerator>() {
+        @Override
+        protected UsernameGenerator create() {
+            InputStream in = null;
+            try {
+                in = getAssets().open(UsernameGenerator.ASSET_NAME);
+                return UsernameGenerator.load(in, System.nanoTime());
+            } catch (IOException e) {
+                UsernameLog.e(TAG, "Offline generator unavailable: {}", e.getMessage());
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    };
+
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
@@ -31,13 +143,48 @@ public class UsernamesApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        PerfStats.markProcessStart();
 
+        eventQueue = new EventQueue(new File(getFilesDir(), "events.spool"), trackerSink,
+                EventQueue.DEFAULT_BATCH_SIZE, EventQueue.DEFAULT_FLUSH_INTERVAL_MILLIS);
+        memoryPressure.register(eventQueue);
 
+        startupExecutor = newStartupExecutor();
+        // Reading the preference touches the disk, until it is read records only go to logcat
+        startupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (BuildConfig.DEBUG || getSharedPreferences(PREFERENCES, MODE_PRIVATE).getBoolean(PREF_DIAGNOSTICS, false)) {
+                    startDiagnosticLog();
+                }
+            }
+        });
+        usernameCache.prime(startupExecutor);
+        usernamesApi.prime(startupExecutor);
+        takenFilter.prime(startupExecutor);
+        seenUsernames.prime(startupExecutor);
+        usernameGenerator.prime(startupExecutor);
+        favoritesStore.prime(startupExecutor);
+        startupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getTracker(TrackerName.APP_TRACKER);
+            }
+        });
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        UsernameLog.i(TAG, "Trim memory, level {}", level);
+        memoryPressure.trim(level);
     }
 
     @Override
     public void onLowMemory() {
         super.onLowMemory();
+        UsernameLog.i(TAG, "Low memory");
+        memoryPressure.lowMemory();
     }
 
     @Override
@@ -45,6 +192,130 @@ public class UsernamesApplication extends Application {
         super.onTerminate();
     }
 
+    /**
+     * Runs callback on the main thread once every singleton below is built, so their getters
+     * no longer block. Runs it straight away when they already are.
+     */
+    public void whenReady(final Runnable callback) {
+        if (usernamesApi.isCreated() && takenFilter.isCreated() && seenUsernames.isCreated()
+                && usernameGenerator.isCreated() && favoritesStore.isCreated()) {
+            callback.run();
+            return;
+        }
+        // Queued behind the primes, whatever they have not built yet is built here
+        startupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getUsernamesApi();
+                getTakenFilter();
+                getSeenUsernames();
+                getUsernameGenerator();
+                getFavoritesStore();
+                mainThread.execute(callback);
+            }
+        });
+    }
+
+    /**
+     * The following getters block until the background build of their singleton is done.
+     */
+    public UsernamesApi getUsernamesApi() {
+        return usernamesApi.get();
+    }
+
+    /**
+     * @return null if the API was not built yet, never blocks
+     */
+    public UsernamesApi peekUsernamesApi() {
+        return usernamesApi.peek();
+    }
+
+    /**
+     * @return null if the cache file could not be opened
+     */
+    public UsernameCache getUsernameCache() {
+        return usernameCache.get();
+    }
+
+    public TakenUsernameFilter getTakenFilter() {
+        return takenFilter.get();
+    }
+
+    public SeenUsernameSet getSeenUsernames() {
+        return seenUsernames.get();
+    }
+
+    /**
+     * @return null if the favorites file could not be opened
+     */
+    public FavoritesStore getFavoritesStore() {
+        return favoritesStore.get();
+    }
+
+    /**
+     * @return null if the syllable model could not be read
+     */
+    public UsernameGenerator getUsernameGenerator() {
+        return usernameGenerator.get();
+    }
+
+    /**
+     * Queues an analytics event, it is sent in a batch from a background thread.
+     *
+     * @param label optional, e.g. the username the event is about
+     */
+    public void logEvent(String action, String label) {
+        eventQueue.add(action, label);
+    }
+
+    public EventQueue getEventQueue() {
+        return eventQueue;
+    }
+
+    /**
+     * Whether records are also kept in a diagnostics log on disk. Always in debug builds,
+     * otherwise only once the user switched it on.
+     */
+    public boolean isDiagnosticLogEnabled() {
+        return UsernameLog.getSink() != null;
+    }
+
+    /**
+     * Switches the diagnostics log on or off and remembers it for the next launches. Opening
+     * the log touches the disk, so the switch happens on the background executor.
+     */
+    public void setDiagnosticLogEnabled(final boolean enabled) {
+        getSharedPreferences(PREFERENCES, MODE_PRIVATE).edit().putBoolean(PREF_DIAGNOSTICS, enabled).apply();
+        startupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (enabled) {
+                    startDiagnosticLog();
+                    return;
+                }
+                DiagnosticLog sink = UsernameLog.getSink();
+                UsernameLog.setSink(null, Log.ASSERT + 1);
+                if (sink != null) {
+                    sink.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Caches and pools register here to be told when the system wants memory back.
+     */
+    public MemoryPressure getMemoryPressure() {
+        return memoryPressure;
+    }
+
+    /**
+     * Single low priority thread for startup and other one-off disk work.
+     */
+    public ExecutorService getBackgroundExecutor() {
+        return startupExecutor;
+    }
+
     public synchronized Tracker getTracker(TrackerName trackerId) {
         if (!mTrackers.containsKey(trackerId)) {
 
@@ -56,4 +327,58 @@ public class UsernamesApplication extends Application {
         }
         return mTrackers.get(trackerId);
     }
+
+    /**
+     * Runs on the event queue's thread, the tracker dispatches the hits itself.
+     */
+    final EventQueue.Sink trackerSink = new EventQueue.Sink() {
+        @Override
+        public void send(List<EventQueue.Event> events) {
+            Tracker tracker = getTracker(TrackerName.APP_TRACKER);
+            tracker.setScreenName(EVENT_CATEGORY);
+            long now = System.currentTimeMillis();
+            for (EventQueue.Event event : events) {
+                long queueTime = now - event.timeMillis;
+                if (queueTime > MAX_QUEUE_TIME_MILLIS) {
+                    continue;
+                }
+                HitBuilders.EventBuilder builder = new HitBuilders.EventBuilder()
+                        .setCategory(EVENT_CATEGORY)
+                        .setAction(event.action);
+                if (event.label != null) {
+                    builder.setLabel(event.label);
+                }
+                // Queue time so the hit is attributed to when it happened, not when it was sent
+                builder.set("&qt", String.valueOf(Math.max(0, queueTime)));
+                tracker.send(builder.build());
+            }
+        }
+    };
+
+    private void startDiagnosticLog() {
+        if (UsernameLog.getSink() != null) {
+            return;
+        }
+        UsernameLog.setSink(new DiagnosticLog(new File(getFilesDir(), "logs"), "diagnostics",
+                DiagnosticLog.DEFAULT_CAPACITY, DiagnosticLog.DEFAULT_MAX_FILE_BYTES,
+                DiagnosticLog.DEFAULT_MAX_FILES), Log.INFO);
+    }
+
+    private static ExecutorService newStartupExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "usernames-startup");
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
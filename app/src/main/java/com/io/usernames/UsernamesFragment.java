@@ -1,24 +1,59 @@
 package com.io.usernames;
 
 import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
+import android.support.v4.view.ViewPager;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.AdapterView;
+import android.widget.AutoCompleteTextView;
+import android.widget.FrameLayout;
 import android.widget.ProgressBar;
+import android.widget.TextView;
 
-import com.google.android.gms.analytics.HitBuilders;
-import com.google.android.gms.analytics.Tracker;
+import com.io.usernames.api.AvailabilityCheckEngine;
+import com.io.usernames.api.PooledClient;
+import com.io.usernames.api.DefaultFetchPolicy;
+import com.io.usernames.api.DeviceState;
+import com.io.usernames.api.FetchPlan;
+import com.io.usernames.api.FetchPolicy;
+import com.io.usernames.api.UsernameLookup;
+import com.io.usernames.api.UsernamePrefetcher;
+import com.io.usernames.api.UsernamesApi;
 import com.io.usernames.api.UsernamesService;
+import com.io.usernames.models.ServiceRegistry;
 import com.io.usernames.models.UsernameModel;
+import com.io.usernames.storage.FavoritesStore;
+import com.io.usernames.storage.HistoryStore;
+import com.io.usernames.storage.SeenUsernameSet;
+import com.io.usernames.storage.TakenUsernameFilter;
+import com.io.usernames.storage.UsernameCache;
+import com.io.usernames.storage.UsernameExporter;
+import com.io.usernames.storage.UsernameHistory;
+import com.io.usernames.storage.UsernameModelCodec;
 import com.io.usernames.ui.CustomViewPager.ViewPagerCustomDuration;
+import com.io.usernames.util.DeviceStateMonitor;
+import com.io.usernames.util.MainThreadExecutor;
+import com.io.usernames.util.MemoryPressure;
+import com.io.usernames.util.PerfStats;
 import com.io.usernames.util.UsernameLog;
 import com.io.usernames.util.Utility;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,11 +62,7 @@ import butterknife.InjectView;
 import de.keyboardsurfer.android.widget.crouton.Configuration;
 import de.keyboardsurfer.android.widget.crouton.Crouton;
 import de.keyboardsurfer.android.widget.crouton.Style;
-import retrofit.Callback;
-import retrofit.RequestInterceptor;
-import retrofit.RestAdapter;
 import retrofit.RetrofitError;
-import retrofit.client.Response;
 
 /**
  * Created by matthewmichaud on 10/23/14.
@@ -40,7 +71,21 @@ public class UsernamesFragment extends Fragment {
 
     private final String TAG = "UsernamesFragment";
 
+    private static final String STATE_USERNAMES = "usernames";
+    private static final String STATE_POSITION = "position";
+    private static final String STATE_STORE_BASE = "store_base";
+    // Entries kept in the saved state when the store does not have them, about 20 bytes each
+    private static final int SNAPSHOT_SIZE = UsernameHistory.DEFAULT_WINDOW_SIZE;
+    private static final long CHECK_DEBOUNCE_MILLIS = 300;
+
+    UsernamesApi usernamesApi;
     UsernamesService usernamesService;
+    UsernamePrefetcher usernamePrefetcher;
+    AvailabilityCheckEngine availabilityCheckEngine;
+    UsernameLookup usernameLookup;
+    DeviceStateMonitor deviceStateMonitor;
+    FetchPolicy fetchPolicy = new DefaultFetchPolicy();
+    FetchPlan fetchPlan;
 
     @InjectView(R.id.username_tryanother)
     Button tryAnother;
@@ -48,35 +93,446 @@ public class UsernamesFragment extends Fragment {
     ViewPagerCustomDuration viewPager;
     @InjectView(R.id.loading)
     ProgressBar loading;
+    @InjectView(R.id.text_howabout)
+    TextView howAbout;
+    @InjectView(R.id.perf_overlay)
+    TextView perfOverlay;
+    @InjectView(R.id.edit_check_username)
+    AutoCompleteTextView checkUsername;
+    @InjectView(R.id.check_result)
+    FrameLayout checkResult;
+    View checkPage;
+    UsernameModel checkedUsername;
+    final Handler handler = new Handler();
     UsernamesAdapter usernameAdapter;
 
-    List<UsernameModel> usernames;
+    // Both null until the startup thread read them back
+    UsernameHistory usernames;
+    UsernameCache usernameCache;
+    // The state being restored while the history loads, saved again if asked meanwhile
+    Bundle pendingState;
+    TakenUsernameFilter takenFilter;
+    SeenUsernameSet seenUsernames;
+    FavoritesStore favoritesStore;
 
     Style customStyle;
     Configuration customConfig;
 
-    public UsernamesFragment() {
-        RequestInterceptor requestInterceptor = new RequestInterceptor() {
+    MemoryPressure memoryPressure;
+
+    long tapNanos;
+    int currentPosition;
+    boolean started;
+    // Taps on "Try Another" before the prefetcher exists
+    int pendingRequests;
+    boolean destroyed;
+    // The spinner is up for a name being looked up
+    boolean checking;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // Configuration changes keep this instance, and with it the history and the queue
+        setRetainInstance(true);
+        setHasOptionsMenu(true);
+
+        final UsernamesApplication application = (UsernamesApplication) getActivity().getApplication();
+        memoryPressure = application.getMemoryPressure();
+        // Values only, a copy is safe to read on the startup thread
+        final Bundle state = savedInstanceState!=null ? new Bundle(savedInstanceState) : null;
+        pendingState = state;
+        // Opening the store and reading the pages back both touch the disk, so they are done
+        // on the startup thread after the singletons it is building. The spinner shows meanwhile.
+        application.getBackgroundExecutor().execute(new Runnable() {
             @Override
-            public void intercept(RequestFacade request) {
-                request.addHeader("User-Agent", "Usernames Android App");
+            public void run() {
+                final LoadedHistory loaded = loadHistory(application, state);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onHistoryLoaded(application, loaded);
+                    }
+                });
             }
-        };
+        });
 
-        RestAdapter restAdapter = new RestAdapter.Builder()
-                .setEndpoint("http://www.usernames.io")
-                .setRequestInterceptor(requestInterceptor)
-                .build();
+        availabilityCheckEngine = new AvailabilityCheckEngine(
+                AvailabilityCheckEngine.defaultCheckers(AvailabilityCheckEngine.DEFAULT_TIMEOUT_MILLIS),
+                new MainThreadExecutor(),
+                AvailabilityCheckEngine.DEFAULT_THREADS,
+                AvailabilityCheckEngine.DEFAULT_TIMEOUT_MILLIS);
+
+        deviceStateMonitor = new DeviceStateMonitor(getActivity());
+    }
+
+    /**
+     * What the startup thread read back for the pages, handed to the main thread in one go.
+     */
+    static class LoadedHistory {
+        UsernameCache usernameCache;
+        UsernameHistory usernames;
+        int position;
+        // Pages are already on screen, the next fetch waits for a tap
+        boolean restored;
+    }
+
+    /**
+     * Runs on the startup thread.
+     */
+    LoadedHistory loadHistory(UsernamesApplication application, Bundle savedInstanceState) {
+        LoadedHistory loaded = new LoadedHistory();
+        HistoryStore historyStore = null;
+        try {
+            // Kept across launches, exports cover every session
+            historyStore = new HistoryStore(new File(application.getFilesDir(), "history"));
+        } catch (IOException e) {
+            UsernameLog.e(TAG, "History will stay in memory: {}", e.getMessage());
+        }
+        loaded.usernameCache = application.getUsernameCache();
+        if(!restoreState(historyStore, savedInstanceState, loaded)) {
+            loaded.usernames = continueHistory(historyStore, loaded.usernameCache);
+        }
+        return loaded;
+    }
+
+    /**
+     * Shows the pages read back, then sets up fetching once the rest of the singletons are
+     * built too, so nothing arrives before there is a history to add it to.
+     */
+    void onHistoryLoaded(final UsernamesApplication application, LoadedHistory loaded) {
+        if(destroyed) {
+            loaded.usernames.close();
+            return;
+        }
+        usernameCache = loaded.usernameCache;
+        usernames = loaded.usernames;
+        currentPosition = loaded.position;
+        started |= loaded.restored;
+        pendingState = null;
+        memoryPressure.register(usernames);
+        if(viewPager!=null) {
+            bindHistory();
+        }
+        application.whenReady(new Runnable() {
+            @Override
+            public void run() {
+                onSingletonsReady(application);
+            }
+        });
+    }
+
+    /**
+     * Sets up fetching once the application built the rest of its singletons. Until then
+     * taps are counted and typed names wait, the pages already shown need none of them.
+     */
+    void onSingletonsReady(UsernamesApplication application) {
+        if(destroyed) {
+            return;
+        }
+        usernamesApi = application.getUsernamesApi();
+        usernamesService = usernamesApi.getService();
+        usernameLookup = new UsernameLookup(usernamesService,
+                UsernameLookup.DEFAULT_CACHE_SIZE, UsernameLookup.DEFAULT_TTL_MILLIS);
+        usernameLookup.setListener(lookupListener);
+        memoryPressure.register(usernameLookup);
+
+        UsernamePrefetcher prefetcher = new UsernamePrefetcher(usernamesService, UsernamePrefetcher.DEFAULT_DEPTH);
+        prefetcher.setListener(usernameListener);
+        takenFilter = application.getTakenFilter();
+        prefetcher.setTakenFilter(takenFilter);
+        seenUsernames = application.getSeenUsernames();
+        prefetcher.setSeenSet(seenUsernames);
+        // After the filters, the cached candidates it queues are screened against them
+        prefetcher.setCache(usernameCache);
+        prefetcher.setFallback(application.getUsernameGenerator());
+        favoritesStore = application.getFavoritesStore();
+        usernamePrefetcher = prefetcher;
+        // Set before the first fetch, applying it does not fetch anything by itself
+        applyFetchPlan(fetchPolicy.plan(deviceStateMonitor.getState()));
+        for (; pendingRequests>0; pendingRequests--) {
+            usernamePrefetcher.request();
+        }
+
+        if(checkUsername!=null) {
+            bindFavorites();
+            if(checkUsername.getText().length()>0) {
+                checkWatcher.afterTextChanged(checkUsername.getText());
+            }
+        }
+    }
 
-        usernamesService = restAdapter.create(UsernamesService.class);
+    /**
+     * A new session that starts with the last username of the previous one, so something is
+     * on screen straight away. That username is normally the last one stored, the session
+     * then continues from it instead of storing it twice.
+     */
+    UsernameHistory continueHistory(HistoryStore historyStore, UsernameCache usernameCache) {
+        UsernameModel lastShown = usernameCache != null ? usernameCache.getLastShown() : null;
+        if(lastShown!=null && historyStore!=null && historyStore.size()>0) {
+            try {
+                UsernameModel lastStored = historyStore.read(historyStore.size()-1, 1).get(0);
+                if(lastShown.getUsername().equals(lastStored.getUsername())) {
+                    return new UsernameHistory(historyStore, historyStore.size()-1, UsernameHistory.DEFAULT_WINDOW_SIZE);
+                }
+            } catch (IOException e) {
+                UsernameLog.w(TAG, "Could not read the last stored username: {}", e.getMessage());
+            }
+        }
+        UsernameHistory history = new UsernameHistory(historyStore, UsernameHistory.DEFAULT_WINDOW_SIZE);
+        if(lastShown!=null) {
+            history.add(lastShown);
+        }
+        return history;
+    }
 
-        usernames = new ArrayList<UsernameModel>();
-        usernames.add(null);
+    /**
+     * Brings back the pages shown before the process was killed, without a network call.
+     * They are normally all in the store still, otherwise the ones saved with the state.
+     */
+    boolean restoreState(HistoryStore historyStore, Bundle savedInstanceState, LoadedHistory loaded) {
+        if(savedInstanceState==null) {
+            return false;
+        }
+        int storeBase = savedInstanceState.getInt(STATE_STORE_BASE, -1);
+        if(storeBase>=0) {
+            if(historyStore==null || storeBase>=historyStore.size()) {
+                return false;
+            }
+            UsernameHistory usernames = new UsernameHistory(historyStore, storeBase, UsernameHistory.DEFAULT_WINDOW_SIZE);
+            // Less any entries of the session the store trimmed when it was opened again
+            int trimmed = Math.max(0, historyStore.getFirst()-storeBase);
+            loaded.usernames = usernames;
+            loaded.position = Math.max(0, Math.min(savedInstanceState.getInt(STATE_POSITION, 0)-trimmed, usernames.size()-1));
+            loaded.restored = true;
+            return true;
+        }
+        byte[] snapshot = savedInstanceState.getByteArray(STATE_USERNAMES);
+        if(snapshot==null) {
+            return false;
+        }
+        UsernameHistory usernames;
+        try {
+            List<UsernameModel> restored = UsernameModelCodec.fromBytes(snapshot);
+            if(restored.isEmpty()) {
+                return false;
+            }
+            usernames = new UsernameHistory(historyStore, UsernameHistory.DEFAULT_WINDOW_SIZE);
+            usernames.addAll(restored);
+        } catch (IOException e) {
+            UsernameLog.w(TAG, "Discarding saved usernames: {}", e.getMessage());
+            return false;
+        }
+        loaded.usernames = usernames;
+        loaded.position = Math.min(savedInstanceState.getInt(STATE_POSITION, 0), usernames.size()-1);
+        loaded.restored = true;
+        return true;
     }
 
     @Override
-    public void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if(usernames==null) {
+            // Still loading, keep what is being restored for next time
+            if(pendingState!=null) {
+                outState.putAll(pendingState);
+            }
+            return;
+        }
+        if(viewPager!=null) {
+            currentPosition = viewPager.getCurrentItem();
+        }
+        int storeBase = usernames.getStoreBase();
+        if(storeBase>=0) {
+            // Everything is on disk already, including entries shown after this
+            outState.putInt(STATE_STORE_BASE, storeBase);
+            outState.putInt(STATE_POSITION, currentPosition);
+            return;
+        }
+        // The pages around the current one, the rest of the history is not worth the Bundle space
+        int size = usernames.size();
+        int start = Math.max(0, Math.min(currentPosition, size-SNAPSHOT_SIZE));
+        int end = Math.min(size, start+SNAPSHOT_SIZE);
+        List<UsernameModel> snapshot = new ArrayList<UsernameModel>(end-start);
+        int position = 0;
+        for (int i = start; i < end; i++) {
+            UsernameModel usernameModel = usernames.get(i);
+            if(usernameModel!=null) {
+                if(i<=currentPosition) {
+                    position = snapshot.size();
+                }
+                snapshot.add(usernameModel);
+            }
+        }
+        if(!snapshot.isEmpty()) {
+            outState.putByteArray(STATE_USERNAMES, UsernameModelCodec.toBytes(snapshot));
+            outState.putInt(STATE_POSITION, position);
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if(usernameAdapter!=null) {
+            currentPosition = viewPager.getCurrentItem();
+        }
+        handler.removeCallbacks(checkRunnable);
+        checkPage = null;
+        memoryPressure.unregister(usernameAdapter);
+        usernameAdapter = null;
+        ButterKnife.reset(this);
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        deviceStateMonitor.setForeground(true);
+        deviceStateMonitor.start(deviceStateListener);
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        // Backgrounded, drop to on-demand fetching before the updates stop
+        deviceStateMonitor.setForeground(false);
+        deviceStateMonitor.stop();
+        // The cache and filters outlive the fragment, only persist what they learned. Saved
+        // here rather than in onDestroy, which a process in the background may never reach.
+        if(takenFilter==null) {
+            // Never set up, so nothing was learned
+            return;
+        }
+        ((UsernamesApplication) getActivity().getApplication()).getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    takenFilter.save();
+                } catch (IOException e) {
+                    UsernameLog.e(TAG, "Could not save the taken filter: {}", e.getMessage());
+                }
+                try {
+                    seenUsernames.save();
+                } catch (IOException e) {
+                    UsernameLog.e(TAG, "Could not save the seen usernames: {}", e.getMessage());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        availabilityCheckEngine.shutdown();
+        if(usernameLookup!=null) {
+            memoryPressure.unregister(usernameLookup);
+        }
+        if(usernames!=null) {
+            memoryPressure.unregister(usernames);
+            usernames.close();
+        }
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        super.onCreateOptionsMenu(menu, inflater);
+        inflater.inflate(R.menu.usernames, menu);
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        MenuItem diagnosticLog = menu.findItem(R.id.action_diagnostic_log);
+        UsernamesApplication application = (UsernamesApplication) getActivity().getApplication();
+        diagnosticLog.setChecked(application.isDiagnosticLogEnabled());
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_diagnostic_log:
+                item.setChecked(!item.isChecked());
+                ((UsernamesApplication) getActivity().getApplication()).setDiagnosticLogEnabled(item.isChecked());
+                return true;
+            case R.id.action_export_csv:
+                export(UsernameExporter.Format.CSV);
+                return true;
+            case R.id.action_export_ndjson:
+                export(UsernameExporter.Format.NDJSON);
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Writes the history of every session and the favorites to a file on the background
+     * thread, then offers to send it somewhere. The snapshot keeps the history store open
+     * until the export is done, even if the fragment is destroyed meanwhile.
+     */
+    void export(final UsernameExporter.Format format) {
+        if(usernames==null) {
+            // Still loading, there is nothing to export yet
+            return;
+        }
+        logEvent(UsernamesActivity.EXPORT_EVENT, format.extension);
+        final Context context = getActivity().getApplicationContext();
+        // Taken here, the history is only safe to touch from the main thread
+        final UsernameHistory.Snapshot snapshot = usernames.snapshot();
+        // Null when the favorites could not be opened, or are not yet
+        final FavoritesStore favorites = favoritesStore;
+        ((UsernamesApplication) getActivity().getApplication()).getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    // Resolving it may touch the disk, so not on the main thread
+                    File directory = context.getExternalFilesDir(null);
+                    if(directory==null) {
+                        throw new IOException("External storage unavailable");
+                    }
+                    final File file = new File(directory, "usernames." + format.extension);
+                    int count = UsernameExporter.export(file, format, snapshot, favorites);
+                    UsernameLog.i(TAG, "Exported {} usernames in {} ms", count, (System.nanoTime()-start)/1000000);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            shareExport(file, format);
+                            if(favorites==null) {
+                                showExportMessage(R.string.export_without_favorites);
+                            }
+                        }
+                    });
+                } catch (IOException e) {
+                    UsernameLog.e(TAG, "Export failed: {}", e.getMessage());
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            showExportMessage(R.string.export_error);
+                        }
+                    });
+                } finally {
+                    snapshot.close();
+                }
+            }
+        });
+    }
+
+    void shareExport(File file, UsernameExporter.Format format) {
+        if(getActivity()==null) {
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(format.mimeType);
+        intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
+        getActivity().startActivity(Intent.createChooser(intent, getResources().getString(R.string.export_title)));
+    }
+
+    void showExportMessage(int message) {
+        if(getActivity()==null) {
+            return;
+        }
+        Crouton.makeText(getActivity(), getResources().getString(message), customStyle).
+                setConfiguration(customConfig).
+                show();
     }
 
     @Override
@@ -88,26 +544,69 @@ public class UsernamesFragment extends Fragment {
         tryAnother.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                Tracker tracker = ((UsernamesApplication)(getActivity().getApplication())).getTracker(
-                        UsernamesApplication.TrackerName.APP_TRACKER);
-                tracker.setScreenName("UsernamesActivity");
-                tracker.send(new HitBuilders.EventBuilder()
-                        .setAction("Try Another")
-                        .build());
-                if(usernames.size()==1 && usernames.get(0)==null) {
-                    if(loading.getVisibility()==View.GONE) {
-                        loading.setVisibility(View.VISIBLE);
-                    }
+                tapNanos = System.nanoTime();
+                logEvent(UsernamesActivity.TRY_ANOTHER_EVENT, null);
+                if((usernames==null || usernames.isEmpty()) && loading.getVisibility()==View.GONE) {
+                    loading.setVisibility(View.VISIBLE);
                 }
                 getUsername();
             }
         });
 
+        viewPager.setOnPageChangeListener(swipeListener);
+        checkUsername.addTextChangedListener(checkWatcher);
+        bindFavorites();
+        if(usernames!=null) {
+            bindHistory();
+        }
+
+        if(BuildConfig.DEBUG) {
+            howAbout.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    togglePerfOverlay();
+                    return true;
+                }
+            });
+            // Switches the view pool to compare allocations per swipe with and without it
+            perfOverlay.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    usernameAdapter.setPooling(!usernameAdapter.isPooling());
+                    togglePerfOverlay();
+                }
+            });
+        }
+
+        return rootView;
+    }
+
+    /**
+     * Puts the pages on screen once both the view and the history exist, whichever of the
+     * two comes last.
+     */
+    void bindHistory() {
         usernameAdapter = new UsernamesAdapter(getActivity(), R.layout.adapter_username, usernames);
+        memoryPressure.register(usernameAdapter);
+        usernameAdapter.setOnUsernameLongClickListener(favoriteToggle);
         viewPager.setAdapter(usernameAdapter);
-        getUsername();
+        if(!usernames.isEmpty()) {
+            loading.setVisibility(View.GONE);
+            viewPager.setCurrentItem(currentPosition, false);
+            usernames.setVisiblePosition(currentPosition);
+            PerfStats.markFirstUsernameShown();
+        }
+        if(!started) {
+            started = true;
+            getUsername();
+        }
+    }
 
-        return rootView;
+    void bindFavorites() {
+        if(favoritesStore!=null) {
+            checkUsername.setAdapter(new FavoritesAdapter(getActivity(), favoritesStore));
+            checkUsername.setOnItemClickListener(favoriteClick);
+        }
     }
 
     @SuppressLint("ResourceAsColor")
@@ -128,50 +627,344 @@ public class UsernamesFragment extends Fragment {
                 .build();
     }
 
+    /**
+     * Debug builds only, shows the latency histograms and fetch counters over the pager.
+     * Hiding it starts counting allocations per page, the next time it shows the average
+     * over the swipes in between.
+     */
+    void togglePerfOverlay() {
+        if(perfOverlay.getVisibility()==View.VISIBLE) {
+            perfOverlay.setVisibility(View.GONE);
+            usernameAdapter.setCountAllocations(true);
+            return;
+        }
+        if(usernamePrefetcher==null) {
+            return;
+        }
+        PooledClient client = usernamesApi.getClient();
+        String snapshot = PerfStats.dump()
+                + "prefetch queue=" + usernamePrefetcher.getQueueDepth()
+                + " hits=" + usernamePrefetcher.getHitCount()
+                + " empty=" + usernamePrefetcher.getEmptyCount() + "\n"
+                + "http requests=" + client.getRequestCount()
+                + " connections opened=" + client.getOpenedConnectionCount()
+                + " reused=" + client.getReusedConnectionCount()
+                + " pooled=" + client.getPooledConnectionCount()
+                + " cache hits=" + usernamesApi.getCacheHitCount() + "\n"
+                + "pages inflated=" + usernameAdapter.getInflateCount()
+                + " pool=" + (usernameAdapter.isPooling() ? "on" : "off")
+                + " allocs/page=" + usernameAdapter.getAllocationsPerPage();
+        usernameAdapter.setCountAllocations(false);
+        UsernameLog.d(TAG, snapshot);
+        perfOverlay.setText(snapshot);
+        perfOverlay.setVisibility(View.VISIBLE);
+    }
+
     public void getUsername() {
-        usernamesService.getUsername(usernameModelCallback);
+        if(usernamePrefetcher==null) {
+            pendingRequests++;
+            return;
+        }
+        usernamePrefetcher.request();
     }
 
-    Callback<UsernameModel> usernameModelCallback = new Callback<UsernameModel>() {
+    /**
+     * Shows the looked up name over the pager, null goes back to the pager.
+     */
+    void showCheckResult(UsernameModel usernameModel) {
+        checkedUsername = usernameModel;
+        if(usernameModel==null) {
+            checkResult.setVisibility(View.GONE);
+            return;
+        }
+        checkPage = usernameAdapter.bindPage(checkPage, checkResult, usernameModel);
+        if(checkPage.getParent()==null) {
+            checkResult.addView(checkPage);
+        }
+        checkResult.setVisibility(View.VISIBLE);
+        loading.setVisibility(View.GONE);
+        if(usernameModel.getKnownMask()!=ServiceRegistry.ALL_MASK) {
+            availabilityCheckEngine.check(usernameModel, availabilityListener);
+        }
+    }
+
+    /**
+     * Names already in the lookup cache show up on the keystroke, the rest wait until typing
+     * pauses.
+     */
+    TextWatcher checkWatcher = new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
 
         @Override
-        public void success(UsernameModel usernameModel, Response response) {
-            if(getActivity()==null) {
+        public void afterTextChanged(Editable s) {
+            handler.removeCallbacks(checkRunnable);
+            if(usernameLookup==null) {
+                // Looked up once the lookup is set up
                 return;
             }
-            if(usernameModel!=null) {
+            // An answer for what was typed before must not show up during the debounce
+            cancelCheck();
+            String name = s.toString();
+            if(UsernameLookup.normalize(name)==null) {
+                showCheckResult(null);
+            } else if(usernameLookup.peek(name)!=null) {
+                usernameLookup.lookup(name);
+            } else {
+                handler.postDelayed(checkRunnable, CHECK_DEBOUNCE_MILLIS);
+            }
+        }
+    };
+
+    Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if(checkUsername==null) {
+                return;
+            }
+            checking = true;
+            loading.setVisibility(View.VISIBLE);
+            usernameLookup.lookup(checkUsername.getText().toString());
+        }
+    };
+
+    /**
+     * Drops the name being looked up along with its spinner, unless the pager still waits
+     * for its first username under the same spinner.
+     */
+    void cancelCheck() {
+        usernameLookup.cancel();
+        if(checking) {
+            checking = false;
+            if(!usernames.isEmpty()) {
+                loading.setVisibility(View.GONE);
+            }
+        }
+    }
+
+    UsernameLookup.Listener lookupListener = new UsernameLookup.Listener() {
+        @Override
+        public void onResult(String name, UsernameModel usernameModel) {
+            checking = false;
+            if(getActivity()==null || checkResult==null) {
+                return;
+            }
+            updateFavorite(usernameModel);
+            showCheckResult(usernameModel);
+        }
+
+        @Override
+        public void onFailure(String name, RetrofitError error) {
+            checking = false;
+            if(getActivity()==null || checkResult==null) {
+                return;
+            }
+            UsernameLog.w(TAG, "Lookup of {} failed: {}", name, error.getMessage());
+            loading.setVisibility(View.GONE);
+            Crouton.makeText(
+                    getActivity(),
+                    getResources().getString(R.string.check_error),
+                    customStyle).
+                    setConfiguration(customConfig).
+                    show();
+        }
+    };
+
+    /**
+     * Long press on a page keeps its username, a second one lets it go.
+     */
+    UsernamesAdapter.OnUsernameLongClickListener favoriteToggle = new UsernamesAdapter.OnUsernameLongClickListener() {
+        @Override
+        public boolean onUsernameLongClick(UsernameModel usernameModel) {
+            if(favoritesStore==null) {
+                return false;
+            }
+            int message;
+            if(favoritesStore.remove(usernameModel.getUsername())) {
+                message = R.string.favorite_removed;
+            } else {
+                favoritesStore.add(usernameModel);
+                message = R.string.favorite_added;
+            }
+            Crouton.makeText(getActivity(), getResources().getString(message), customStyle).
+                    setConfiguration(customConfig).
+                    show();
+            return true;
+        }
+    };
+
+    /**
+     * Shows the saved snapshot straight away, the lookup the text change starts refreshes it.
+     */
+    AdapterView.OnItemClickListener favoriteClick = new AdapterView.OnItemClickListener() {
+        @Override
+        public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            FavoritesStore.Favorite favorite = (FavoritesStore.Favorite) parent.getItemAtPosition(position);
+            showCheckResult(favorite.toUsernameModel());
+        }
+    };
+
+    DeviceStateMonitor.Listener deviceStateListener = new DeviceStateMonitor.Listener() {
+        @Override
+        public void onDeviceStateChanged(DeviceState state) {
+            if(usernamePrefetcher!=null && applyFetchPlan(fetchPolicy.plan(state))) {
+                // A richer plan fills the queue now rather than on the next tap
+                usernamePrefetcher.refill();
+            }
+        }
+    };
+
+    /**
+     * @return true if plan differs from the one in use
+     */
+    boolean applyFetchPlan(FetchPlan plan) {
+        if(plan.equals(fetchPlan)) {
+            return false;
+        }
+        UsernameLog.d(TAG, "Fetch plan {}", plan);
+        fetchPlan = plan;
+        plan.applyTo(usernamePrefetcher);
+        return true;
+    }
+
+    void logEvent(String action, String label) {
+        ((UsernamesApplication) getActivity().getApplication()).logEvent(action, label);
+    }
+
+    /**
+     * Only pages the user dragged to count as swipes, not the ones the fragment moves to
+     * after a new username arrives.
+     */
+    ViewPager.SimpleOnPageChangeListener swipeListener = new ViewPager.SimpleOnPageChangeListener() {
+        boolean dragging;
+        int lastPosition;
+
+        @Override
+        public void onPageScrollStateChanged(int state) {
+            if(state==ViewPager.SCROLL_STATE_DRAGGING) {
+                dragging = true;
+                lastPosition = viewPager.getCurrentItem();
+            } else if(state==ViewPager.SCROLL_STATE_IDLE) {
+                dragging = false;
+            }
+        }
+
+        @Override
+        public void onPageSelected(int position) {
+            usernames.setVisiblePosition(position);
+            if(!dragging || position==lastPosition) {
+                return;
+            }
+            logEvent(position>lastPosition ? UsernamesActivity.SWIPE_LEFT_EVENT : UsernamesActivity.SWIPE_RIGHT_EVENT, null);
+            lastPosition = position;
+        }
+    };
+
+    /**
+     * Checks of entries in the history, which may be paged out before they finish.
+     */
+    AvailabilityCheckEngine.Listener historyCheckListener = new AvailabilityCheckEngine.Listener() {
+        @Override
+        public void onServiceChecked(UsernameModel usernameModel, int serviceId) {
+            // The entry may have been paged out while it was checked, its page shows a copy
+            UsernameModel shown = usernames.update(usernameModel);
+            onAvailabilityChanged(usernameModel);
+            if(shown!=null && usernameAdapter!=null) {
+                usernameAdapter.refreshUsername(shown);
+            }
+        }
+
+        @Override
+        public void onCheckFinished(UsernameModel usernameModel) {
+            usernames.finishCheck(usernameModel);
+            updateFavorite(usernameModel);
+        }
+    };
+
+    /**
+     * Checks of a looked up or favorite name, which never is in the history.
+     */
+    AvailabilityCheckEngine.Listener availabilityListener = new AvailabilityCheckEngine.Listener() {
+        @Override
+        public void onServiceChecked(UsernameModel usernameModel, int serviceId) {
+            onAvailabilityChanged(usernameModel);
+        }
+
+        @Override
+        public void onCheckFinished(UsernameModel usernameModel) {
+            updateFavorite(usernameModel);
+        }
+    };
+
+    /**
+     * One write per check for a kept username rather than one per service that answered.
+     */
+    void updateFavorite(UsernameModel usernameModel) {
+        if(favoritesStore!=null) {
+            favoritesStore.update(usernameModel);
+        }
+    }
+
+    void onAvailabilityChanged(UsernameModel usernameModel) {
+        if(takenFilter!=null) {
+            takenFilter.record(usernameModel);
+        }
+        if(usernameAdapter!=null) {
+            usernameAdapter.refreshUsername(usernameModel);
+            if(usernameModel==checkedUsername && checkPage!=null) {
+                usernameAdapter.bindPage(checkPage, checkResult, usernameModel);
+            }
+        }
+    }
+
+    UsernamePrefetcher.Listener usernameListener = new UsernamePrefetcher.Listener() {
+
+        @Override
+        public void onUsername(UsernameModel usernameModel) {
+            if(usernameModel==null) {
+                return;
+            }
+            if(tapNanos!=0) {
+                PerfStats.TAP_TO_USERNAME.recordSince(tapNanos);
+                tapNanos = 0;
+            }
+            // Kept even without a view, the seen set already counts it as delivered. The
+            // pager picks it up from the history when the view comes back.
+            if(usernameCache!=null) {
+                usernameCache.markShown(usernameModel);
+            }
+            if(getActivity()==null || viewPager==null) {
+                usernames.add(usernameModel);
+                currentPosition = usernames.size()-1;
+                usernames.setVisiblePosition(currentPosition);
+            } else {
                 usernameAdapter.addUsername(usernameModel);
-                if(usernameAdapter.getCount()<2) {
-                    getUsername();
-                } else {
-                    viewPager.setCurrentItem(usernameAdapter.getCount()+1);
-                }
-                if(usernameAdapter.getCount()>2 && usernameAdapter.getUsername(0)==null) {
-                    usernameAdapter.removeUsername(0);
-                    viewPager.setAdapter(usernameAdapter);
-                    // Hack to remove the first null username object
-                    Handler handler = new Handler();
-                    handler.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            getActivity().runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    viewPager.setCurrentItem(usernameAdapter.getCount()+1);
-                                }
-                            });
-                        }
-                    }, 500);
-                }
+                PerfStats.markFirstUsernameShown();
+                logEvent(UsernamesActivity.USERNAME_EVENT, usernameModel.getUsername());
+                // Only the new page is instantiated, the ones already attached stay as they are
+                viewPager.setCurrentItem(usernameAdapter.getCount()-1);
                 if(loading.getVisibility()!=View.GONE) {
                     loading.setVisibility(View.GONE);
                 }
             }
+            if(usernameModel.getKnownMask()!=ServiceRegistry.ALL_MASK) {
+                // Now in the history, which tracks it until the check is done
+                usernames.startCheck(usernameModel);
+                availabilityCheckEngine.check(usernameModel, historyCheckListener);
+            }
         }
 
         @Override
-        public void failure(RetrofitError error) {
+        public void onFailure(RetrofitError error) {
             UsernameLog.e(TAG, error.getMessage());
+            if(getActivity()==null || loading==null) {
+                return;
+            }
             Crouton.makeText(
                     getActivity(),
                     getResources().getString(R.string.network_error),
@@ -0,0 +1,105 @@
+package com.io.usernames.api;
+
+import com.io.usernames.util.PerfStats;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import retrofit.client.OkClient;
+import retrofit.client.Request;
+import retrofit.client.Response;
+
+/**
+ * Retrofit client on an OkHttp client with an explicit connection pool and response cache.
+ * OkHttp negotiates gzip and unzips it. A network interceptor sees the connection each
+ * request that was not answered from the cache goes out on, so the reuse counts are the
+ * pool's own: a connection seen before was taken from the pool, any other one was opened.
+ */
+public class PooledClient extends OkClient {
+
+    private final ConnectionPool pool;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong reusedCount = new AtomicLong();
+    // Weak, so connections the pool evicted are let go
+    private final Map<Connection, Boolean> seenConnections = new WeakHashMap<Connection, Boolean>();
+
+    /**
+     * @param cache may be null to go to the network for everything
+     */
+    public static PooledClient create(ConnectionPool pool, Cache cache, int timeoutMillis) {
+        OkHttpClient client = new OkHttpClient();
+        client.setConnectionPool(pool);
+        client.setCache(cache);
+        client.setConnectTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        client.setReadTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        return new PooledClient(client, pool);
+    }
+
+    private PooledClient(OkHttpClient client, ConnectionPool pool) {
+        super(client);
+        this.pool = pool;
+        client.networkInterceptors().add(connectionCounter);
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        requestCount.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return super.execute(request);
+        } catch (IOException e) {
+            failureCount.incrementAndGet();
+            throw e;
+        } finally {
+            // Up to the response headers, Retrofit reads the body afterwards
+            PerfStats.NETWORK_RTT.recordSince(start);
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /** Requests that had to open a new connection. */
+    public long getOpenedConnectionCount() {
+        return openedCount.get();
+    }
+
+    /** Requests that went out on a connection taken from the pool. */
+    public long getReusedConnectionCount() {
+        return reusedCount.get();
+    }
+
+    /** Connections the pool holds right now, idle or in use. */
+    public int getPooledConnectionCount() {
+        return pool.getConnectionCount();
+    }
+
+    private final Interceptor connectionCounter = new Interceptor() {
+        @Override
+        public com.squareup.okhttp.Response intercept(Chain chain) throws IOException {
+            Connection connection = chain.connection();
+            boolean seen;
+            synchronized (seenConnections) {
+                seen = seenConnections.put(connection, Boolean.TRUE) != null;
+            }
+            (seen ? reusedCount : openedCount).incrementAndGet();
+            return chain.proceed(chain.request());
+        }
+    };
+}
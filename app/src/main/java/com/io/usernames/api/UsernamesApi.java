@@ -0,0 +1,129 @@
+package com.io.usernames.api;
+
+import android.content.Context;
+
+import com.io.usernames.util.MainThreadExecutor;
+import com.io.usernames.util.UsernameLog;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.RequestInterceptor;
+import retrofit.RestAdapter;
+
+/**
+ * Application wide HTTP layer for usernames.io. Every fragment shares the one
+ * {@link UsernamesService} built here, so connections kept alive by one request are reused by
+ * the next and responses land in a single disk cache.
+ */
+public class UsernamesApi {
+
+    private final String TAG = "UsernamesApi";
+
+    public static final String ENDPOINT = "http://www.usernames.io";
+    public static final int MAX_CONNECTIONS = 5;
+    public static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+    public static final int HTTP_THREADS = 3;
+    public static final int TIMEOUT_MILLIS = 15000;
+    public static final long CACHE_SIZE = 4 * 1024 * 1024;
+
+    private static UsernamesApi instance;
+
+    private final ScheduledUsernamesService usernamesService;
+    private final PooledClient client;
+    // Null when the cache directory could not be opened
+    private final Cache cache;
+
+    public static synchronized UsernamesApi get(Context context) {
+        if (instance == null) {
+            instance = new UsernamesApi(context.getApplicationContext(), newHttpExecutor(), null);
+        }
+        return instance;
+    }
+
+    /**
+     * @param callbackExecutor where callbacks run, null for the main thread
+     */
+    public UsernamesApi(Context context, Executor httpExecutor, Executor callbackExecutor) {
+        cache = openCache(new File(context.getCacheDir(), "http"));
+        client = PooledClient.create(new ConnectionPool(MAX_CONNECTIONS, KEEP_ALIVE_MILLIS), cache, TIMEOUT_MILLIS);
+
+        RequestInterceptor requestInterceptor = new RequestInterceptor() {
+            @Override
+            public void intercept(RequestFacade request) {
+                request.addHeader("User-Agent", "Usernames Android App");
+            }
+        };
+
+        RestAdapter.Builder builder = new RestAdapter.Builder()
+                .setEndpoint(ENDPOINT)
+                .setClient(client)
+                .setRequestInterceptor(requestInterceptor)
+                .setConverter(new UsernameModelConverter());
+        if (callbackExecutor == null) {
+            callbackExecutor = new MainThreadExecutor();
+        }
+        builder.setExecutors(httpExecutor, callbackExecutor);
+        usernamesService = new ScheduledUsernamesService(builder.build().create(UsernamesService.class),
+                ENDPOINT, callbackExecutor, ScheduledUsernamesService.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * The shared service, with in-flight limits, retries and a circuit breaker in front of it.
+     */
+    public ScheduledUsernamesService getService() {
+        return usernamesService;
+    }
+
+    public PooledClient getClient() {
+        return client;
+    }
+
+    /**
+     * Requests answered from the disk cache without touching the network.
+     */
+    public int getCacheHitCount() {
+        return cache != null ? cache.getHitCount() : 0;
+    }
+
+    public int getCacheNetworkCount() {
+        return cache != null ? cache.getNetworkCount() : 0;
+    }
+
+    /**
+     * Writes pending cache entries out, e.g. when the app goes to the background.
+     */
+    public void flush() {
+        if (cache == null) {
+            return;
+        }
+        try {
+            cache.flush();
+        } catch (IOException e) {
+            UsernameLog.e(TAG, "Could not flush the HTTP cache: {}", e.getMessage());
+        }
+    }
+
+    private static ExecutorService newHttpExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(HTTP_THREADS, HTTP_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private Cache openCache(File directory) {
+        try {
+            return new Cache(directory, CACHE_SIZE);
+        } catch (IOException e) {
+            UsernameLog.e(TAG, "HTTP cache unavailable: {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.io.usernames.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+
+import com.io.usernames.api.DeviceState;
+
+/**
+ * Turns connectivity and battery broadcasts into {@link DeviceState}s. The listener is only
+ * called when the state actually changed, on the main thread.
+ */
+public class DeviceStateMonitor {
+
+    public interface Listener {
+        void onDeviceStateChanged(DeviceState state);
+    }
+
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private Listener listener;
+    private DeviceState state;
+    private Intent battery;
+    private boolean foreground = true;
+    private boolean registered;
+
+    public DeviceStateMonitor(Context context) {
+        this.context = context.getApplicationContext();
+        this.connectivityManager = (ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    /**
+     * The current state, read straight from the system when the monitor is not started.
+     */
+    public DeviceState getState() {
+        if (!registered) {
+            // Battery changes are sticky, registering without a receiver just reads the last one
+            battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            state = read();
+        }
+        return state;
+    }
+
+    public void start(Listener listener) {
+        this.listener = listener;
+        if (registered) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(Intent.ACTION_BATTERY_CHANGED);
+        battery = context.registerReceiver(receiver, filter);
+        registered = true;
+        update();
+    }
+
+    public void stop() {
+        if (registered) {
+            context.unregisterReceiver(receiver);
+            registered = false;
+        }
+        listener = null;
+    }
+
+    public void setForeground(boolean foreground) {
+        this.foreground = foreground;
+        if (registered) {
+            update();
+        }
+    }
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+                battery = intent;
+            }
+            update();
+        }
+    };
+
+    private void update() {
+        DeviceState next = read();
+        if (next.equals(state)) {
+            return;
+        }
+        state = next;
+        if (listener != null) {
+            listener.onDeviceStateChanged(next);
+        }
+    }
+
+    private DeviceState read() {
+        NetworkInfo network = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+        boolean connected = network != null && network.isConnected();
+        boolean metered = connected && connectivityManager.isActiveNetworkMetered();
+        boolean charging = false;
+        int batteryPercent = DeviceState.UNKNOWN_BATTERY;
+        if (battery != null) {
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            charging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                batteryPercent = level * 100 / scale;
+            }
+        }
+        return new DeviceState(connected, metered, charging, batteryPercent, foreground);
+    }
+}
@@ -2,26 +2,143 @@ package com.io.usernames.util;
 
 import android.util.Log;
 
+import com.io.usernames.BuildConfig;
+import com.io.usernames.storage.DiagnosticLog;
+
 /**
  * Created by matthewmichaud on 10/23/14.
+ *
+ * Level-gated logging on top of a {@link LogGate}, which does the level check and fills in
+ * the "{}" placeholders only for records that are written. Records go to logcat and, when
+ * one is set, to a {@link DiagnosticLog} with its own level.
  */
 public class UsernameLog {
 
     private static final String TAG = "Username";
 
+    private static volatile int logcatLevel = BuildConfig.DEBUG ? Log.DEBUG : Log.ERROR;
+    private static volatile int sinkLevel = Log.ASSERT + 1;
+    private static volatile DiagnosticLog sink;
+
+    private static final LogGate gate = new LogGate(logcatLevel) {
+        @Override
+        protected void write(int priority, String tag, String message) {
+            if (priority >= logcatLevel) {
+                Log.println(priority, TAG, "[" + tag + "] " + message);
+            }
+            DiagnosticLog sink = UsernameLog.sink;
+            if (sink != null && priority >= sinkLevel) {
+                sink.log(priority, tag, message);
+            }
+        }
+    };
+
+    /**
+     * @param priority a level from android.util.Log, Log.ASSERT + 1 turns logcat off
+     */
+    public static void setLogcatLevel(int priority) {
+        logcatLevel = priority;
+        updateLevel();
+    }
+
+    /**
+     * Also writes records at or above priority to sink, null to stop.
+     */
+    public static void setSink(DiagnosticLog sink, int priority) {
+        UsernameLog.sink = sink;
+        sinkLevel = sink != null ? priority : Log.ASSERT + 1;
+        updateLevel();
+    }
+
+    public static DiagnosticLog getSink() {
+        return sink;
+    }
+
+    public static boolean isLoggable(int priority) {
+        return gate.isLoggable(priority);
+    }
+
+    public static void v(String tag, String message) {
+        gate.log(Log.VERBOSE, tag, message);
+    }
+    public static void v(String tag, String format, Object arg) {
+        gate.log(Log.VERBOSE, tag, format, arg, null, 1);
+    }
+    public static void v(String tag, String format, Object arg1, Object arg2) {
+        gate.log(Log.VERBOSE, tag, format, arg1, arg2, 2);
+    }
+    public static void v(String tag, String format, long arg) {
+        gate.log(Log.VERBOSE, tag, format, arg, 0, 1);
+    }
+    public static void v(String tag, String format, long arg1, long arg2) {
+        gate.log(Log.VERBOSE, tag, format, arg1, arg2, 2);
+    }
+
     public static void d(String tag, String message) {
-        Log.d(TAG, "[" + tag + "] " + message);
+        gate.log(Log.DEBUG, tag, message);
+    }
+    public static void d(String tag, String format, Object arg) {
+        gate.log(Log.DEBUG, tag, format, arg, null, 1);
+    }
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        gate.log(Log.DEBUG, tag, format, arg1, arg2, 2);
+    }
+    public static void d(String tag, String format, long arg) {
+        gate.log(Log.DEBUG, tag, format, arg, 0, 1);
     }
+    public static void d(String tag, String format, long arg1, long arg2) {
+        gate.log(Log.DEBUG, tag, format, arg1, arg2, 2);
+    }
+
     public static void i(String tag, String message) {
-        Log.i(TAG, "[" + tag + "] " + message);
+        gate.log(Log.INFO, tag, message);
     }
-    public static void e(String tag, String message) {
-        Log.e(TAG, "[" + tag + "] " + message);
+    public static void i(String tag, String format, Object arg) {
+        gate.log(Log.INFO, tag, format, arg, null, 1);
     }
-    public static void v(String tag, String message) {
-        Log.v(TAG, "[" + tag + "] " + message);
+    public static void i(String tag, String format, Object arg1, Object arg2) {
+        gate.log(Log.INFO, tag, format, arg1, arg2, 2);
+    }
+    public static void i(String tag, String format, long arg) {
+        gate.log(Log.INFO, tag, format, arg, 0, 1);
     }
+    public static void i(String tag, String format, long arg1, long arg2) {
+        gate.log(Log.INFO, tag, format, arg1, arg2, 2);
+    }
+
     public static void w(String tag, String message) {
-        Log.w(TAG, "[" + tag + "] " + message);
+        gate.log(Log.WARN, tag, message);
+    }
+    public static void w(String tag, String format, Object arg) {
+        gate.log(Log.WARN, tag, format, arg, null, 1);
+    }
+    public static void w(String tag, String format, Object arg1, Object arg2) {
+        gate.log(Log.WARN, tag, format, arg1, arg2, 2);
+    }
+    public static void w(String tag, String format, long arg) {
+        gate.log(Log.WARN, tag, format, arg, 0, 1);
+    }
+    public static void w(String tag, String format, long arg1, long arg2) {
+        gate.log(Log.WARN, tag, format, arg1, arg2, 2);
+    }
+
+    public static void e(String tag, String message) {
+        gate.log(Log.ERROR, tag, message);
+    }
+    public static void e(String tag, String format, Object arg) {
+        gate.log(Log.ERROR, tag, format, arg, null, 1);
+    }
+    public static void e(String tag, String format, Object arg1, Object arg2) {
+        gate.log(Log.ERROR, tag, format, arg1, arg2, 2);
+    }
+    public static void e(String tag, String format, long arg) {
+        gate.log(Log.ERROR, tag, format, arg, 0, 1);
+    }
+    public static void e(String tag, String format, long arg1, long arg2) {
+        gate.log(Log.ERROR, tag, format, arg1, arg2, 2);
+    }
+
+    private static void updateLevel() {
+        gate.setLevel(Math.min(logcatLevel, sinkLevel));
     }
 }
@@ -0,0 +1,78 @@
+package com.io.usernames.benchmark;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.storage.HistoryStore;
+import com.io.usernames.storage.UsernameExporter;
+import com.io.usernames.storage.UsernameHistory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exporting a history of 100k entries, nearly all of them paged out to disk, in each format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportBenchmark {
+
+    private static final int ENTRIES = 100000;
+
+    @Param({"CSV", "NDJSON"})
+    public UsernameExporter.Format format;
+
+    private File directory;
+    private File output;
+    private UsernameHistory history;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = File.createTempFile("export", "");
+        directory.delete();
+        directory.mkdirs();
+        history = new UsernameHistory(new HistoryStore(directory), UsernameHistory.DEFAULT_WINDOW_SIZE);
+        for (int i = 0; i < ENTRIES; i++) {
+            UsernameModel usernameModel = new UsernameModel();
+            usernameModel.setUsername("bleakfrost" + i);
+            usernameModel.setAvailable(ServiceRegistry.TWITTER, (i & 1) == 0);
+            usernameModel.setAvailable(ServiceRegistry.GITHUB, (i & 2) == 0);
+            history.add(usernameModel);
+        }
+        output = new File(directory, "export.out");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        history.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public int export() throws IOException {
+        UsernameHistory.Snapshot snapshot = history.snapshot();
+        try {
+            return UsernameExporter.export(output, format, snapshot, null);
+        } finally {
+            snapshot.close();
+        }
+    }
+}
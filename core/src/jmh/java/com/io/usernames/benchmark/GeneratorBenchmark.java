@@ -0,0 +1,51 @@
+package com.io.usernames.benchmark;
+
+import com.io.usernames.api.UsernameGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline candidate generation, reading the syllable model from the app's assets.
+ * Override the location with -Dsyllables=path when running outside the core directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeneratorBenchmark {
+
+    private static final String DEFAULT_SYLLABLES = "../app/src/main/assets/" + UsernameGenerator.ASSET_NAME;
+
+    private final char[] buffer = new char[UsernameGenerator.MAX_LENGTH];
+    private UsernameGenerator generator;
+
+    @Setup
+    public void setUp() throws IOException {
+        InputStream in = new FileInputStream(System.getProperty("syllables", DEFAULT_SYLLABLES));
+        try {
+            generator = UsernameGenerator.load(in, 42L);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public int generate() {
+        return generator.generate(buffer);
+    }
+
+    @Benchmark
+    public String nextUsername() {
+        return generator.nextUsername();
+    }
+}
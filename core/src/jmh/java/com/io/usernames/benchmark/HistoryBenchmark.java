@@ -0,0 +1,81 @@
+package com.io.usernames.benchmark;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.storage.HistoryStore;
+import com.io.usernames.storage.UsernameHistory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending to the paged history and swiping back through entries that were paged out of
+ * the in-memory window.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryBenchmark {
+
+    private static final int ENTRIES = 1000;
+
+    private File directory;
+    private UsernameHistory history;
+    private int position;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        directory.mkdirs();
+        history = new UsernameHistory(new HistoryStore(directory), UsernameHistory.DEFAULT_WINDOW_SIZE);
+        for (int i = 0; i < ENTRIES; i++) {
+            history.add(create());
+        }
+        position = history.size();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        history.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public boolean add() {
+        return history.add(create());
+    }
+
+    @Benchmark
+    public UsernameModel swipeBack() {
+        if (--position < 0) {
+            position = history.size() - 1;
+        }
+        return history.get(position);
+    }
+
+    private UsernameModel create() {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername("bleakfrost" + next++);
+        usernameModel.setAvailable(ServiceRegistry.TWITTER, (next & 1) == 0);
+        return usernameModel;
+    }
+}
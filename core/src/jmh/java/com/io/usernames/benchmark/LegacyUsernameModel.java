@@ -0,0 +1,29 @@
+package com.io.usernames.benchmark;
+
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+
+import java.util.List;
+
+/**
+ * Copy of the model the app used before the service results were folded into bitmasks,
+ * kept here as the baseline for the parse and footprint benchmarks.
+ */
+public class LegacyUsernameModel {
+    @Expose
+    @SerializedName("username")
+    String username;
+    @Expose
+    @SerializedName("results")
+    List<ServiceModel> results;
+
+    public static class ServiceModel {
+        @Expose
+        @SerializedName("available")
+        boolean available;
+
+        @Expose
+        @SerializedName("service")
+        String service;
+    }
+}
@@ -0,0 +1,65 @@
+package com.io.usernames.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.io.usernames.api.UsernameModelConverter;
+import com.io.usernames.models.UsernameModel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming converter against the reflective Gson parse it replaced. Run with -prof gc to
+ * compare the bytes allocated per parsed username, which is also the retained footprint of
+ * the bitmask model against the list-of-services one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+    private static final int BATCH_SIZE = 20;
+
+    private final Gson gson = new Gson();
+    private final Type legacyListType = new TypeToken<List<LegacyUsernameModel>>() {}.getType();
+    private String single;
+    private String batch;
+
+    @Setup
+    public void setUp() {
+        single = Payloads.single(7);
+        batch = Payloads.batch(BATCH_SIZE);
+    }
+
+    @Benchmark
+    public UsernameModel streamingSingle() throws IOException {
+        return UsernameModelConverter.readUsername(new JsonReader(new StringReader(single)));
+    }
+
+    @Benchmark
+    public LegacyUsernameModel reflectiveSingle() {
+        return gson.fromJson(new StringReader(single), LegacyUsernameModel.class);
+    }
+
+    @Benchmark
+    public List<UsernameModel> streamingBatch() throws IOException {
+        return UsernameModelConverter.readBatch(new JsonReader(new StringReader(batch)));
+    }
+
+    @Benchmark
+    public List<LegacyUsernameModel> reflectiveBatch() {
+        return gson.fromJson(new StringReader(batch), legacyListType);
+    }
+}
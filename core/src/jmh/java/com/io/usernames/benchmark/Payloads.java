@@ -0,0 +1,36 @@
+package com.io.usernames.benchmark;
+
+/**
+ * JSON bodies shaped like the usernames.io responses.
+ */
+final class Payloads {
+
+    private static final String[] SERVICES = { "url", "facebook", "twitter", "github", "linkedin" };
+
+    private Payloads() {
+    }
+
+    static String single(int i) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"username\":\"bleakfrost").append(i).append("\",\"results\":[");
+        for (int s = 0; s < SERVICES.length; s++) {
+            if (s > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"service\":\"").append(SERVICES[s])
+                    .append("\",\"available\":").append((i + s) % 3 != 0).append('}');
+        }
+        return builder.append("]}").toString();
+    }
+
+    static String batch(int count) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(single(i));
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.io.usernames.benchmark;
+
+import com.io.usernames.api.UsernamePrefetcher;
+import com.io.usernames.api.UsernamesService;
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.models.ServiceRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+
+/**
+ * Cost of handing out a username and refilling the queue, with a service that answers
+ * synchronously so only the prefetcher's own bookkeeping is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrefetcherBenchmark {
+
+    @Param({ "1", "5", "10" })
+    int depth;
+
+    private UsernamePrefetcher prefetcher;
+    private UsernameModel delivered;
+
+    @Setup
+    public void setUp() {
+        prefetcher = new UsernamePrefetcher(new ImmediateService(), depth);
+        prefetcher.setListener(new UsernamePrefetcher.Listener() {
+            @Override
+            public void onUsername(UsernameModel usernameModel) {
+                delivered = usernameModel;
+            }
+
+            @Override
+            public void onFailure(RetrofitError error) {
+                throw new IllegalStateException(error);
+            }
+        });
+        prefetcher.refill();
+    }
+
+    @Benchmark
+    public UsernameModel request() {
+        prefetcher.request();
+        return delivered;
+    }
+
+    private static class ImmediateService implements UsernamesService {
+        private int next;
+
+        @Override
+        public void getUsername(Callback<UsernameModel> callback) {
+            callback.success(create(), null);
+        }
+
+        @Override
+        public void checkUsername(String username, Callback<UsernameModel> callback) {
+            callback.success(create(), null);
+        }
+
+        @Override
+        public void getUsernames(int count, Callback<List<UsernameModel>> callback) {
+            List<UsernameModel> usernameModels = new ArrayList<UsernameModel>(count);
+            for (int i = 0; i < count; i++) {
+                usernameModels.add(create());
+            }
+            callback.success(usernameModels, null);
+        }
+
+        private UsernameModel create() {
+            UsernameModel usernameModel = new UsernameModel();
+            usernameModel.setUsername("bleakfrost" + next++);
+            usernameModel.setAvailable(ServiceRegistry.URL, true);
+            return usernameModel;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.io.usernames.benchmark;
+
+import com.io.usernames.storage.SeenUsernameSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking candidates against a full seen set, and adding to it once it evicts on every add.
+ * Run with -prof gc to see that neither allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SeenSetBenchmark {
+
+    private static final int NAMES = 4096;
+    // More than the set holds, so every add is new and evicts the oldest
+    private static final int FRESH_NAMES = 32768;
+
+    private File file;
+    private SeenUsernameSet seen;
+    private String[] names;
+    private String[] freshNames;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        file = File.createTempFile("seen", ".set");
+        file.delete();
+        seen = SeenUsernameSet.open(file, SeenUsernameSet.DEFAULT_MAX_SIZE);
+        for (int i = 0; i < SeenUsernameSet.DEFAULT_MAX_SIZE; i++) {
+            seen.add("seen" + i);
+        }
+        // Half of them shown already
+        names = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = (i % 2 == 0 ? "seen" : "fresh") + i;
+        }
+        freshNames = new String[FRESH_NAMES];
+        for (int i = 0; i < FRESH_NAMES; i++) {
+            freshNames[i] = "new" + i;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return seen.contains(names[next++ & (NAMES - 1)]);
+    }
+
+    @Benchmark
+    public boolean addEvicting() {
+        return seen.add(freshNames[next++ & (FRESH_NAMES - 1)]);
+    }
+}
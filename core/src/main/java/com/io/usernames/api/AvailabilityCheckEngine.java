@@ -0,0 +1,236 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fills in the services the backend left unknown by running a {@link ServiceChecker} per
+ * service in parallel on a bounded pool. Every check has its own timeout, counted from when
+ * a thread starts running it; answers are merged into the {@link UsernameModel} on the
+ * callback executor as they arrive, so the model is only ever touched from that thread. Once
+ * every service answered or timed out the listener hears about it a last time.
+ */
+public class AvailabilityCheckEngine {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_QUEUED_CHECKS = 64;
+
+    public interface Listener {
+        void onServiceChecked(UsernameModel usernameModel, int serviceId);
+
+        /**
+         * Called once per {@link #check} after its last service answered, failed or timed
+         * out, unless the engine was shut down first.
+         */
+        void onCheckFinished(UsernameModel usernameModel);
+    }
+
+    private final List<ServiceChecker> checkers;
+    private final Executor callbackExecutor;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor();
+
+    public AvailabilityCheckEngine(List<ServiceChecker> checkers, Executor callbackExecutor,
+                                   int threads, long timeoutMillis) {
+        this.checkers = checkers;
+        this.callbackExecutor = callbackExecutor;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_CHECKS), evictOldest);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * One checker for every row the adapter shows.
+     */
+    public static List<ServiceChecker> defaultCheckers(int timeoutMillis) {
+        List<ServiceChecker> checkers = new ArrayList<ServiceChecker>(ServiceRegistry.COUNT);
+        checkers.add(new DomainServiceChecker());
+        checkers.add(new ProfileServiceChecker(ServiceRegistry.FACEBOOK, "https://www.facebook.com/%s", timeoutMillis));
+        checkers.add(new ProfileServiceChecker(ServiceRegistry.TWITTER, "https://twitter.com/%s", timeoutMillis));
+        checkers.add(new ProfileServiceChecker(ServiceRegistry.GITHUB, "https://github.com/%s", timeoutMillis));
+        checkers.add(new ProfileServiceChecker(ServiceRegistry.LINKEDIN, "https://www.linkedin.com/in/%s", timeoutMillis));
+        return checkers;
+    }
+
+    /**
+     * Checks every service of usernameModel that is still unknown. Services that time out or
+     * give no clear answer stay unknown.
+     */
+    public void check(final UsernameModel usernameModel, final Listener listener) {
+        String username = usernameModel.getUsername();
+        List<ServiceChecker> unknown = new ArrayList<ServiceChecker>(checkers.size());
+        for (ServiceChecker checker : checkers) {
+            if (!usernameModel.isKnown(checker.getServiceId())) {
+                unknown.add(checker);
+            }
+        }
+        if (username == null || unknown.isEmpty()) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onCheckFinished(usernameModel);
+                }
+            });
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(unknown.size());
+        Runnable done = new Runnable() {
+            @Override
+            public void run() {
+                if (remaining.decrementAndGet() == 0) {
+                    listener.onCheckFinished(usernameModel);
+                }
+            }
+        };
+        for (ServiceChecker checker : unknown) {
+            submit(checker, username, usernameModel, listener, done);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        timeouts.shutdownNow();
+    }
+
+    /**
+     * Queues checker. Its timeout only starts once a thread picks it up, so a check waiting
+     * behind others still gets its whole budget.
+     */
+    private void submit(ServiceChecker checker, String username,
+                        UsernameModel usernameModel, Listener listener, Runnable done) {
+        Check check = new Check(checker, username, usernameModel, listener, done);
+        QueuedCheck queued = new QueuedCheck(check);
+        check.future = queued;
+        try {
+            executor.execute(queued);
+        } catch (RejectedExecutionException ignored) {
+            // Shut down
+        }
+    }
+
+    /**
+     * Once the queue is full the oldest pending check gives way, it is most likely for a
+     * username the user already swiped past. It still counts as done, unanswered, so its
+     * listener hears the end of the check.
+     */
+    private final RejectedExecutionHandler evictOldest = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Shut down");
+            }
+            Runnable oldest = executor.getQueue().poll();
+            if (oldest instanceof QueuedCheck) {
+                ((QueuedCheck) oldest).check.evict();
+            }
+            executor.execute(runnable);
+        }
+    };
+
+    /**
+     * What the pool queues, so an evicted entry can still be told apart as a check.
+     */
+    private static class QueuedCheck extends FutureTask<Void> {
+        final Check check;
+
+        QueuedCheck(Check check) {
+            super(check, null);
+            this.check = check;
+        }
+    }
+
+    /**
+     * One checker run against its timeout. Whichever of the two ends first runs done on the
+     * callback executor, after the answer if there is one.
+     */
+    private class Check implements Runnable {
+        private final ServiceChecker checker;
+        private final String username;
+        private final UsernameModel usernameModel;
+        private final Listener listener;
+        private final Runnable done;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        volatile Future<?> future;
+
+        Check(ServiceChecker checker, String username, UsernameModel usernameModel,
+              Listener listener, Runnable done) {
+            this.checker = checker;
+            this.username = username;
+            this.usernameModel = usernameModel;
+            this.listener = listener;
+            this.done = done;
+        }
+
+        /**
+         * Gives up on a check that never started.
+         */
+        void evict() {
+            if (finished.compareAndSet(false, true)) {
+                callbackExecutor.execute(done);
+            }
+        }
+
+        @Override
+        public void run() {
+            ScheduledFuture<?> timeout;
+            try {
+                timeout = timeouts.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A lookup that cannot be interrupted may still finish, the flag drops it
+                        if (finished.compareAndSet(false, true)) {
+                            Future<?> running = future;
+                            if (running != null) {
+                                running.cancel(true);
+                            }
+                            callbackExecutor.execute(done);
+                        }
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shut down
+                return;
+            }
+            int answer;
+            try {
+                answer = checker.check(username);
+            } catch (Exception e) {
+                answer = ServiceChecker.UNKNOWN;
+            }
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            timeout.cancel(false);
+            final int result = answer;
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (result != ServiceChecker.UNKNOWN) {
+                        usernameModel.setAvailable(checker.getServiceId(), result == ServiceChecker.AVAILABLE);
+                        listener.onServiceChecked(usernameModel, checker.getServiceId());
+                    }
+                    done.run();
+                }
+            });
+        }
+    }
+}
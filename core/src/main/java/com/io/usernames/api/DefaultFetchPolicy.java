@@ -0,0 +1,36 @@
+package com.io.usernames.api;
+
+/**
+ * - no connection: offline, cached and generated usernames only
+ * - metered, low battery, or in the background: on demand, one username per request
+ * - unmetered, charging and in the foreground: fill the queue, and through it the
+ *   persistent cache, as far as it goes
+ * - anything else: the regular prefetch depth
+ */
+public class DefaultFetchPolicy implements FetchPolicy {
+
+    public static final int LOW_BATTERY_PERCENT = 15;
+
+    static final FetchPlan OFFLINE = new FetchPlan(true, true, UsernamePrefetcher.MIN_DEPTH, 1, 1);
+    static final FetchPlan ON_DEMAND = new FetchPlan(false, true, UsernamePrefetcher.MIN_DEPTH, 1, 1);
+    static final FetchPlan REGULAR = new FetchPlan(false, false, UsernamePrefetcher.DEFAULT_DEPTH,
+            UsernamePrefetcher.DEFAULT_DEPTH, UsernameBatchFetcher.DEFAULT_CONCURRENCY);
+    static final FetchPlan AGGRESSIVE = new FetchPlan(false, false, UsernamePrefetcher.MAX_DEPTH,
+            UsernamePrefetcher.MAX_DEPTH, UsernameBatchFetcher.DEFAULT_CONCURRENCY);
+
+    @Override
+    public FetchPlan plan(DeviceState state) {
+        if (!state.isConnected()) {
+            return OFFLINE;
+        }
+        boolean lowBattery = !state.isCharging() && state.getBatteryPercent() != DeviceState.UNKNOWN_BATTERY
+                && state.getBatteryPercent() <= LOW_BATTERY_PERCENT;
+        if (state.isMetered() || lowBattery || !state.isForeground()) {
+            return ON_DEMAND;
+        }
+        if (state.isCharging()) {
+            return AGGRESSIVE;
+        }
+        return REGULAR;
+    }
+}
@@ -0,0 +1,75 @@
+package com.io.usernames.api;
+
+/**
+ * Snapshot of what the device can afford right now, the input to a {@link FetchPolicy}.
+ * Built from broadcasts on Android, by hand anywhere else.
+ */
+public class DeviceState {
+
+    public static final int UNKNOWN_BATTERY = -1;
+
+    private final boolean connected;
+    private final boolean metered;
+    private final boolean charging;
+    private final int batteryPercent;
+    private final boolean foreground;
+
+    /**
+     * @param batteryPercent 0-100, or UNKNOWN_BATTERY
+     */
+    public DeviceState(boolean connected, boolean metered, boolean charging, int batteryPercent,
+                       boolean foreground) {
+        this.connected = connected;
+        this.metered = metered;
+        this.charging = charging;
+        this.batteryPercent = batteryPercent;
+        this.foreground = foreground;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /** Cellular or a metered hotspot, where every byte may cost the user money. */
+    public boolean isMetered() {
+        return metered;
+    }
+
+    public boolean isCharging() {
+        return charging;
+    }
+
+    public int getBatteryPercent() {
+        return batteryPercent;
+    }
+
+    public boolean isForeground() {
+        return foreground;
+    }
+
+    public DeviceState withForeground(boolean foreground) {
+        return new DeviceState(connected, metered, charging, batteryPercent, foreground);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DeviceState)) {
+            return false;
+        }
+        DeviceState other = (DeviceState) o;
+        return connected == other.connected && metered == other.metered && charging == other.charging
+                && batteryPercent == other.batteryPercent && foreground == other.foreground;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (connected ? 1 : 0) | (metered ? 2 : 0) | (charging ? 4 : 0) | (foreground ? 8 : 0);
+        return 31 * result + batteryPercent;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceState{connected=" + connected + ", metered=" + metered + ", charging=" + charging
+                + ", battery=" + batteryPercent + ", foreground=" + foreground + "}";
+    }
+}
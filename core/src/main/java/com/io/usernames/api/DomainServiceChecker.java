@@ -0,0 +1,43 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.ServiceRegistry;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Checks the ".com" row with a DNS lookup. A name that resolves is registered; one that
+ * does not is reported available, which is a good guess but not a registrar answer. A failed
+ * lookup only counts when a name that is known to exist still resolves, otherwise the device
+ * is offline or its resolver is down and the answer is unknown.
+ */
+public class DomainServiceChecker implements ServiceChecker {
+
+    private static final String CONTROL_HOST = "example.com";
+
+    @Override
+    public int getServiceId() {
+        return ServiceRegistry.URL;
+    }
+
+    @Override
+    public int check(String username) {
+        try {
+            resolve(username + ".com");
+            return TAKEN;
+        } catch (UnknownHostException e) {
+            // Fall through to the control lookup
+        }
+        try {
+            resolve(CONTROL_HOST);
+            return AVAILABLE;
+        } catch (UnknownHostException e) {
+            return UNKNOWN;
+        }
+    }
+
+    // Overridden by tests, to answer without a resolver
+    void resolve(String host) throws UnknownHostException {
+        InetAddress.getByName(host);
+    }
+}
@@ -0,0 +1,83 @@
+package com.io.usernames.api;
+
+/**
+ * How much fetching a {@link FetchPolicy} allows for a {@link DeviceState}.
+ */
+public class FetchPlan {
+
+    private final boolean offline;
+    private final boolean onDemand;
+    private final int prefetchDepth;
+    private final int maxBatchSize;
+    private final int maxConcurrency;
+
+    /**
+     * @param offline nothing is fetched, usernames come from the cache and the generator
+     * @param onDemand only fetch for a username the user is waiting for, never ahead
+     * @param prefetchDepth usernames kept ready ahead of the user
+     * @param maxBatchSize most usernames asked for in one request
+     * @param maxConcurrency most single requests in flight when batching is not supported
+     */
+    public FetchPlan(boolean offline, boolean onDemand, int prefetchDepth, int maxBatchSize, int maxConcurrency) {
+        this.offline = offline;
+        this.onDemand = onDemand;
+        this.prefetchDepth = prefetchDepth;
+        this.maxBatchSize = maxBatchSize;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public boolean isOnDemand() {
+        return onDemand;
+    }
+
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Applies this plan to prefetcher.
+     */
+    public void applyTo(UsernamePrefetcher prefetcher) {
+        prefetcher.setOffline(offline);
+        prefetcher.setOnDemand(onDemand);
+        prefetcher.setDepth(prefetchDepth);
+        prefetcher.setMaxBatchSize(maxBatchSize);
+        prefetcher.setMaxConcurrency(maxConcurrency);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FetchPlan)) {
+            return false;
+        }
+        FetchPlan other = (FetchPlan) o;
+        return offline == other.offline && onDemand == other.onDemand && prefetchDepth == other.prefetchDepth
+                && maxBatchSize == other.maxBatchSize && maxConcurrency == other.maxConcurrency;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (offline ? 1 : 0) | (onDemand ? 2 : 0);
+        result = 31 * result + prefetchDepth;
+        result = 31 * result + maxBatchSize;
+        return 31 * result + maxConcurrency;
+    }
+
+    @Override
+    public String toString() {
+        return "FetchPlan{offline=" + offline + ", onDemand=" + onDemand + ", depth=" + prefetchDepth
+                + ", batch=" + maxBatchSize + ", concurrency=" + maxConcurrency + "}";
+    }
+}
@@ -0,0 +1,9 @@
+package com.io.usernames.api;
+
+/**
+ * Decides how aggressively usernames are fetched. Implementations must be pure functions of
+ * the state so they can be exercised on the JVM with made-up states.
+ */
+public interface FetchPolicy {
+    FetchPlan plan(DeviceState state);
+}
@@ -0,0 +1,55 @@
+package com.io.usernames.api;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+/**
+ * Probes a service with a HEAD request on the profile URL the username would have. A 404
+ * means nobody has it, a 200 means it is taken; anything else, redirects included, is left
+ * unknown since services redirect to login or signup pages for both cases.
+ */
+public class ProfileServiceChecker implements ServiceChecker {
+
+    private final int serviceId;
+    private final String profileUrlFormat;
+    private final int timeoutMillis;
+
+    /**
+     * @param profileUrlFormat profile URL with %s where the username goes,
+     *                         e.g. "https://github.com/%s"
+     */
+    public ProfileServiceChecker(int serviceId, String profileUrlFormat, int timeoutMillis) {
+        this.serviceId = serviceId;
+        this.profileUrlFormat = profileUrlFormat;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public int getServiceId() {
+        return serviceId;
+    }
+
+    @Override
+    public int check(String username) throws IOException {
+        URL url = new URL(String.format(profileUrlFormat, URLEncoder.encode(username, "UTF-8")));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestProperty("User-Agent", "Usernames Android App");
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return AVAILABLE;
+            } else if (status == HttpURLConnection.HTTP_OK) {
+                return TAKEN;
+            }
+            return UNKNOWN;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
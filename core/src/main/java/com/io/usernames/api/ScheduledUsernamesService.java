@@ -0,0 +1,392 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * {@link UsernamesService} decorator that keeps fetches from turning into retry storms on bad
+ * networks:
+ *
+ * - at most maxInFlight requests are on the wire, the rest wait in a queue
+ * - batch requests still waiting in the queue are coalesced into one request and the result
+ *   is split between their callbacks
+ * - network errors and 5xx responses are retried with exponential backoff and jitter
+ * - after FAILURE_THRESHOLD failed requests in a row a circuit breaker opens and every call
+ *   fails fast until a cool-down passes, then a single trial request decides whether it closes
+ *   again. Callers are expected to fall back to cached or generated usernames meanwhile.
+ *
+ * Fail-fast failures are delivered on the callback executor, never from inside the call.
+ */
+public class ScheduledUsernamesService implements UsernamesService {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    public static final int MAX_RETRIES = 3;
+    public static final long BASE_BACKOFF_MILLIS = 500;
+    public static final long MAX_BACKOFF_MILLIS = 30 * 1000;
+    public static final int FAILURE_THRESHOLD = 5;
+    public static final long OPEN_MILLIS = 30 * 1000;
+    public static final long MAX_OPEN_MILLIS = 5 * 60 * 1000;
+
+    public enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final UsernamesService delegate;
+    private final String endpoint;
+    private final Executor callbackExecutor;
+    private final int maxInFlight;
+    private final ArrayDeque<Call> pending = new ArrayDeque<Call>();
+    private final Random random = new Random();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "UsernamesRetry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private int inFlight;
+    private CircuitState state = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long openMillis = OPEN_MILLIS;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    private long retryCount;
+    private long coalescedCount;
+    private long failFastCount;
+
+    /**
+     * @param endpoint only used to label fail-fast errors
+     */
+    public ScheduledUsernamesService(UsernamesService delegate, String endpoint, Executor callbackExecutor,
+                                     int maxInFlight) {
+        this.delegate = delegate;
+        this.endpoint = endpoint;
+        this.callbackExecutor = callbackExecutor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    @Override
+    public void getUsername(Callback<UsernameModel> callback) {
+        enqueue(new SingleCall(callback));
+    }
+
+    @Override
+    public void checkUsername(String username, Callback<UsernameModel> callback) {
+        enqueue(new CheckCall(username, callback));
+    }
+
+    @Override
+    public void getUsernames(int count, Callback<List<UsernameModel>> callback) {
+        synchronized (this) {
+            BatchCall queued = queuedBatch();
+            // Joining adds no request, but the breaker still has a say
+            if (queued != null && admit()) {
+                queued.add(count, callback);
+                coalescedCount++;
+                return;
+            }
+        }
+        // Fails fast here too when the breaker turned the batch away
+        BatchCall call = new BatchCall();
+        call.add(count, callback);
+        enqueue(call);
+    }
+
+    /**
+     * False while the circuit breaker is not closed, callers should prefer offline sources.
+     */
+    public synchronized boolean isHealthy() {
+        return state == CircuitState.CLOSED;
+    }
+
+    public synchronized CircuitState getState() {
+        return state;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized long getFailFastCount() {
+        return failFastCount;
+    }
+
+    private void enqueue(Call call) {
+        synchronized (this) {
+            if (admit()) {
+                pending.add(call);
+                drain();
+                return;
+            }
+            failFastCount++;
+        }
+        failFast(call);
+    }
+
+    /**
+     * Whether the breaker lets a new call through, moving from open to half open once the
+     * cool-down has passed.
+     */
+    private boolean admit() {
+        if (state == CircuitState.OPEN) {
+            if (currentTimeMillis() < openUntil) {
+                return false;
+            }
+            state = CircuitState.HALF_OPEN;
+        }
+        return state != CircuitState.HALF_OPEN || (!trialInFlight && pending.isEmpty());
+    }
+
+    private BatchCall queuedBatch() {
+        for (Call call : pending) {
+            if (call instanceof BatchCall) {
+                return (BatchCall) call;
+            }
+        }
+        return null;
+    }
+
+    private void drain() {
+        while (inFlight < maxInFlight && !pending.isEmpty()) {
+            if (state == CircuitState.HALF_OPEN) {
+                if (trialInFlight) {
+                    return;
+                }
+                trialInFlight = true;
+            }
+            inFlight++;
+            pending.poll().dispatch();
+        }
+    }
+
+    private void onSuccess() {
+        synchronized (this) {
+            inFlight--;
+            consecutiveFailures = 0;
+            state = CircuitState.CLOSED;
+            openMillis = OPEN_MILLIS;
+            trialInFlight = false;
+            drain();
+        }
+    }
+
+    /**
+     * @return true when the call was scheduled for a retry, false when the failure should be
+     * passed on to its callbacks
+     */
+    private boolean onFailure(final Call call, RetrofitError error) {
+        List<Call> rejected = null;
+        synchronized (this) {
+            inFlight--;
+            boolean retryable = isRetryable(error);
+            if (retryable && state == CircuitState.CLOSED && call.attempt < MAX_RETRIES) {
+                call.attempt++;
+                retryCount++;
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (ScheduledUsernamesService.this) {
+                            if (state != CircuitState.OPEN) {
+                                pending.addFirst(call);
+                                drain();
+                                return;
+                            }
+                            failFastCount++;
+                        }
+                        failFast(call);
+                    }
+                }, backoffMillis(call.attempt), TimeUnit.MILLISECONDS);
+                drain();
+                return true;
+            }
+            if (retryable) {
+                consecutiveFailures++;
+                if (state == CircuitState.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+                    rejected = open();
+                }
+            } else {
+                // The server answered, so it is reachable even if it did not like the request
+                consecutiveFailures = 0;
+                state = CircuitState.CLOSED;
+            }
+            trialInFlight = false;
+            drain();
+        }
+        if (rejected != null) {
+            for (Call pendingCall : rejected) {
+                failFast(pendingCall);
+            }
+        }
+        return false;
+    }
+
+    private List<Call> open() {
+        state = CircuitState.OPEN;
+        openUntil = currentTimeMillis() + openMillis;
+        openMillis = Math.min(openMillis * 2, MAX_OPEN_MILLIS);
+        List<Call> rejected = new ArrayList<Call>(pending);
+        failFastCount += rejected.size();
+        pending.clear();
+        return rejected;
+    }
+
+    // Both overridden by tests, to skip the waiting
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    long backoffMillis(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+        // Half fixed, half random, so clients that failed together do not retry together
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    static boolean isRetryable(RetrofitError error) {
+        if (error.getKind() == RetrofitError.Kind.NETWORK) {
+            return true;
+        }
+        Response response = error.getResponse();
+        // 501 means the endpoint does not exist, retrying will not help
+        return response != null && response.getStatus() >= 500 && response.getStatus() != 501;
+    }
+
+    private void failFast(final Call call) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                call.deliverFailure(RetrofitError.networkError(endpoint,
+                        new IOException("usernames.io is unhealthy, circuit breaker is open")));
+            }
+        });
+    }
+
+    private abstract class Call {
+        int attempt;
+
+        abstract void dispatch();
+
+        abstract void deliverFailure(RetrofitError error);
+    }
+
+    private class SingleCall extends Call implements Callback<UsernameModel> {
+        private final Callback<UsernameModel> callback;
+
+        SingleCall(Callback<UsernameModel> callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        void dispatch() {
+            delegate.getUsername(this);
+        }
+
+        @Override
+        void deliverFailure(RetrofitError error) {
+            callback.failure(error);
+        }
+
+        @Override
+        public void success(UsernameModel usernameModel, Response response) {
+            onSuccess();
+            callback.success(usernameModel, response);
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            if (!onFailure(this, error)) {
+                callback.failure(error);
+            }
+        }
+    }
+
+    private class CheckCall extends SingleCall {
+        private final String username;
+
+        CheckCall(String username, Callback<UsernameModel> callback) {
+            super(callback);
+            this.username = username;
+        }
+
+        @Override
+        void dispatch() {
+            delegate.checkUsername(username, this);
+        }
+    }
+
+    private class BatchCall extends Call implements Callback<List<UsernameModel>> {
+        private final List<Integer> counts = new ArrayList<Integer>(2);
+        private final List<Callback<List<UsernameModel>>> callbacks = new ArrayList<Callback<List<UsernameModel>>>(2);
+        private int total;
+
+        void add(int count, Callback<List<UsernameModel>> callback) {
+            counts.add(count);
+            callbacks.add(callback);
+            total += count;
+        }
+
+        @Override
+        void dispatch() {
+            delegate.getUsernames(total, this);
+        }
+
+        @Override
+        void deliverFailure(RetrofitError error) {
+            for (Callback<List<UsernameModel>> callback : callbacks) {
+                callback.failure(error);
+            }
+        }
+
+        @Override
+        public void success(List<UsernameModel> usernameModels, Response response) {
+            onSuccess();
+            int start = 0;
+            int size = usernameModels != null ? usernameModels.size() : 0;
+            for (int i = 0; i < callbacks.size(); i++) {
+                int end = Math.min(size, start + counts.get(i));
+                List<UsernameModel> part = new ArrayList<UsernameModel>(Math.max(0, end - start));
+                for (int j = start; j < end; j++) {
+                    part.add(usernameModels.get(j));
+                }
+                start = end;
+                callbacks.get(i).success(part, response);
+            }
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            if (!onFailure(this, error)) {
+                deliverFailure(error);
+            }
+        }
+    }
+}
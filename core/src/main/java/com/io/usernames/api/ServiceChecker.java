@@ -0,0 +1,26 @@
+package com.io.usernames.api;
+
+import java.io.IOException;
+
+/**
+ * Checks whether a username is free on a single service, without going through the
+ * usernames.io backend. Implementations block and are run on the worker threads of an
+ * {@link AvailabilityCheckEngine}.
+ */
+public interface ServiceChecker {
+
+    int TAKEN = 0;
+    int AVAILABLE = 1;
+    int UNKNOWN = -1;
+
+    /**
+     * @return the {@link com.io.usernames.models.ServiceRegistry} id this checker answers for
+     */
+    int getServiceId();
+
+    /**
+     * @return {@link #AVAILABLE}, {@link #TAKEN} or {@link #UNKNOWN} when the service gave
+     * no clear answer
+     */
+    int check(String username) throws IOException;
+}
@@ -0,0 +1,145 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Fetches several usernames at once through {@link UsernamesService#getUsernames}. When the
+ * server turns out not to support the batch endpoint the fetcher remembers that and falls
+ * back to a fan-out of single requests, keeping at most maxConcurrency of them in flight and
+ * merging the results in the order they were requested.
+ *
+ * Not thread safe, it expects to be driven from the thread Retrofit delivers callbacks on.
+ */
+public class UsernameBatchFetcher {
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    public interface Listener {
+        void onUsernames(List<UsernameModel> usernameModels);
+        void onFailure(RetrofitError error);
+    }
+
+    private final UsernamesService usernamesService;
+    private int maxConcurrency;
+    private boolean batchSupported = true;
+
+    public UsernameBatchFetcher(UsernamesService usernamesService, int maxConcurrency) {
+        this.usernamesService = usernamesService;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    /**
+     * Takes effect from the next single request a fan-out launches.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    public boolean isBatchSupported() {
+        return batchSupported;
+    }
+
+    public void fetch(final int count, final Listener listener) {
+        if (count <= 0) {
+            listener.onUsernames(Collections.<UsernameModel>emptyList());
+            return;
+        }
+        if (!batchSupported) {
+            new FanOut(count, listener).start();
+            return;
+        }
+        usernamesService.getUsernames(count, new Callback<List<UsernameModel>>() {
+            @Override
+            public void success(List<UsernameModel> usernameModels, Response response) {
+                if (usernameModels == null) {
+                    usernameModels = Collections.emptyList();
+                }
+                listener.onUsernames(usernameModels);
+            }
+
+            @Override
+            public void failure(RetrofitError error) {
+                if (isUnsupported(error)) {
+                    batchSupported = false;
+                    new FanOut(count, listener).start();
+                } else {
+                    listener.onFailure(error);
+                }
+            }
+        });
+    }
+
+    static boolean isUnsupported(RetrofitError error) {
+        Response response = error.getResponse();
+        if (response == null) {
+            return false;
+        }
+        int status = response.getStatus();
+        return status == 404 || status == 405 || status == 501;
+    }
+
+    private class FanOut {
+        private final UsernameModel[] results;
+        private final Listener listener;
+        private int next;
+        private int inFlight;
+        private int completed;
+        private RetrofitError lastError;
+
+        FanOut(int count, Listener listener) {
+            this.results = new UsernameModel[count];
+            this.listener = listener;
+        }
+
+        void start() {
+            while (inFlight < maxConcurrency && next < results.length) {
+                launch(next++);
+            }
+        }
+
+        private void launch(final int slot) {
+            inFlight++;
+            usernamesService.getUsername(new Callback<UsernameModel>() {
+                @Override
+                public void success(UsernameModel usernameModel, Response response) {
+                    results[slot] = usernameModel;
+                    complete();
+                }
+
+                @Override
+                public void failure(RetrofitError error) {
+                    lastError = error;
+                    complete();
+                }
+            });
+        }
+
+        private void complete() {
+            inFlight--;
+            completed++;
+            if (completed < results.length) {
+                start();
+                return;
+            }
+            List<UsernameModel> merged = new ArrayList<UsernameModel>(results.length);
+            for (UsernameModel usernameModel : results) {
+                if (usernameModel != null) {
+                    merged.add(usernameModel);
+                }
+            }
+            if (merged.isEmpty() && lastError != null) {
+                listener.onFailure(lastError);
+            } else {
+                listener.onUsernames(merged);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes up pronounceable usernames on the device from the syllable model in
+ * {@link #ASSET_NAME}, for when usernames.io cannot be reached. Candidates come out as
+ * {@link UsernameModel}s with every service unknown.
+ *
+ * Generation works on pre-split char arrays with an xorshift generator and a reused buffer,
+ * so the only allocation per candidate is the resulting String and model. Not thread safe.
+ */
+public class UsernameGenerator {
+
+    public static final String ASSET_NAME = "syllables.txt";
+    public static final int MAX_LENGTH = 16;
+
+    private static final String SECTION_ONSETS = "onsets";
+    private static final String SECTION_NUCLEI = "nuclei";
+    private static final String SECTION_CODAS = "codas";
+
+    private final char[][] onsets;
+    private final char[][] nuclei;
+    private final char[][] codas;
+    private final char[] buffer = new char[MAX_LENGTH];
+    private long state;
+
+    UsernameGenerator(char[][] onsets, char[][] nuclei, char[][] codas, long seed) {
+        if (onsets.length == 0 || nuclei.length == 0 || codas.length == 0) {
+            throw new IllegalArgumentException("Syllable model is missing a section");
+        }
+        this.onsets = onsets;
+        this.nuclei = nuclei;
+        this.codas = codas;
+        // xorshift must never be seeded with zero
+        this.state = seed != 0 ? seed : 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Reads the syllable model, see assets/syllables.txt for the format.
+     */
+    public static UsernameGenerator load(InputStream in, long seed) throws IOException {
+        List<char[]> onsets = new ArrayList<char[]>();
+        List<char[]> nuclei = new ArrayList<char[]>();
+        List<char[]> codas = new ArrayList<char[]>();
+        List<char[]> section = null;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("#")) {
+                    String name = line.substring(1).trim();
+                    if (SECTION_ONSETS.equals(name)) {
+                        section = onsets;
+                    } else if (SECTION_NUCLEI.equals(name)) {
+                        section = nuclei;
+                    } else if (SECTION_CODAS.equals(name)) {
+                        section = codas;
+                    }
+                } else if (section != null && line.length() > 0) {
+                    for (String part : line.split("\\s+")) {
+                        section.add(part.toCharArray());
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new UsernameGenerator(onsets.toArray(new char[0][]), nuclei.toArray(new char[0][]),
+                codas.toArray(new char[0][]), seed);
+    }
+
+    public UsernameModel next() {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername(nextUsername());
+        return usernameModel;
+    }
+
+    public String nextUsername() {
+        return new String(buffer, 0, generate(buffer));
+    }
+
+    /**
+     * Writes the next candidate into out, which must hold {@link #MAX_LENGTH} chars.
+     *
+     * @return the length of the candidate
+     */
+    public int generate(char[] out) {
+        int length = 0;
+        int syllables = 2 + (nextInt(3) == 0 ? 1 : 0);
+        for (int i = 0; i < syllables; i++) {
+            length = append(out, length, onsets[nextInt(onsets.length)]);
+            length = append(out, length, nuclei[nextInt(nuclei.length)]);
+            if (nextInt(3) == 0) {
+                length = append(out, length, codas[nextInt(codas.length)]);
+            }
+        }
+        if (nextInt(8) == 0 && length + 2 <= MAX_LENGTH) {
+            int number = 10 + nextInt(90);
+            out[length++] = (char) ('0' + number / 10);
+            out[length++] = (char) ('0' + number % 10);
+        }
+        return length;
+    }
+
+    private static int append(char[] out, int length, char[] part) {
+        int count = Math.min(part.length, out.length - length);
+        System.arraycopy(part, 0, out, length, count);
+        return length + count;
+    }
+
+    private int nextInt(int bound) {
+        long x = state;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        state = x;
+        return (int) ((x >>> 33) % bound);
+    }
+}
@@ -0,0 +1,236 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.util.MemoryPressure;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Looks up names the user types. Results are kept in an LRU cache keyed by the normalized
+ * name and trusted for ttlMillis, so going back to a recent name answers without a request.
+ *
+ * At most one lookup is on the wire. A name typed while one is in flight replaces whatever
+ * was waiting behind it, and an answer for a name that is no longer the current query only
+ * goes into the cache. Retrofit calls can not be cancelled, this is what cancelling them
+ * amounts to. Debouncing the keystrokes is left to the caller.
+ *
+ * Not thread safe, it expects to be driven from the thread Retrofit delivers callbacks on.
+ */
+public class UsernameLookup implements MemoryPressure.Trimmable {
+
+    public static final int DEFAULT_CACHE_SIZE = 64;
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+    public static final int MAX_LENGTH = 32;
+
+    public interface Listener {
+        void onResult(String name, UsernameModel usernameModel);
+        void onFailure(String name, RetrofitError error);
+    }
+
+    private static class CachedResult {
+        final UsernameModel usernameModel;
+        final long fetchedMillis;
+
+        CachedResult(UsernameModel usernameModel, long fetchedMillis) {
+            this.usernameModel = usernameModel;
+            this.fetchedMillis = fetchedMillis;
+        }
+    }
+
+    private final UsernamesService usernamesService;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, CachedResult> cache;
+    private Listener listener;
+
+    private String current;
+    private String inFlight;
+    private String next;
+
+    private long hitCount;
+    private long requestCount;
+    private long staleCount;
+
+    public UsernameLookup(UsernamesService usernamesService, final int cacheSize, long ttlMillis) {
+        this.usernamesService = usernamesService;
+        this.ttlMillis = ttlMillis;
+        this.cache = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Lower case without surrounding blanks or a leading "@", null when nothing is left or
+     * the name has characters no service allows.
+     */
+    public static String normalize(String name) {
+        if (name == null) {
+            return null;
+        }
+        String normalized = name.trim();
+        if (normalized.startsWith("@")) {
+            normalized = normalized.substring(1);
+        }
+        normalized = normalized.toLowerCase(Locale.US);
+        if (normalized.length() == 0 || normalized.length() > MAX_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '_' && c != '-' && c != '.') {
+                return null;
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * The cached result for name if it is still fresh, without touching the network.
+     */
+    public UsernameModel peek(String name) {
+        String normalized = normalize(name);
+        return normalized != null ? fresh(normalized) : null;
+    }
+
+    /**
+     * Makes name the current query. A fresh cached result is delivered before this returns.
+     *
+     * @return false if name is not a valid username, nothing is delivered then
+     */
+    public boolean lookup(String name) {
+        String normalized = normalize(name);
+        current = normalized;
+        if (normalized == null) {
+            next = null;
+            return false;
+        }
+        UsernameModel cached = fresh(normalized);
+        if (cached != null) {
+            hitCount++;
+            next = null;
+            deliver(normalized, cached);
+        } else if (inFlight == null) {
+            send(normalized);
+        } else {
+            next = normalized.equals(inFlight) ? null : normalized;
+        }
+        return true;
+    }
+
+    /**
+     * Drops the current query, e.g. when the text field was cleared.
+     */
+    public void cancel() {
+        current = null;
+        next = null;
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Forgets the cached results once memory runs low, they can be looked up again.
+     */
+    @Override
+    public void trim(int level) {
+        if (level >= MemoryPressure.TRIM_RUNNING_LOW) {
+            cache.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /** Answers that arrived after the user had moved on to another name. */
+    public long getStaleCount() {
+        return staleCount;
+    }
+
+    private UsernameModel fresh(String normalized) {
+        CachedResult entry = cache.get(normalized);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.fetchedMillis > ttlMillis) {
+            cache.remove(normalized);
+            return null;
+        }
+        return entry.usernameModel;
+    }
+
+    private void send(final String normalized) {
+        inFlight = normalized;
+        requestCount++;
+        usernamesService.checkUsername(normalized, new Callback<UsernameModel>() {
+            @Override
+            public void success(UsernameModel usernameModel, Response response) {
+                if (usernameModel == null) {
+                    // An empty body, the listener would take null for "nothing to show"
+                    failure(RetrofitError.unexpectedError(response != null ? response.getUrl() : null,
+                            new IOException("usernames.io returned nothing for " + normalized)));
+                    return;
+                }
+                cache.put(normalized, new CachedResult(usernameModel, System.currentTimeMillis()));
+                finish(normalized);
+                if (normalized.equals(current)) {
+                    deliver(normalized, usernameModel);
+                } else {
+                    staleCount++;
+                }
+            }
+
+            @Override
+            public void failure(RetrofitError error) {
+                finish(normalized);
+                if (normalized.equals(current)) {
+                    if (listener != null) {
+                        listener.onFailure(normalized, error);
+                    }
+                } else {
+                    staleCount++;
+                }
+            }
+        });
+    }
+
+    private void finish(String normalized) {
+        if (normalized.equals(inFlight)) {
+            inFlight = null;
+        }
+        String waiting = next;
+        next = null;
+        if (waiting != null && waiting.equals(current)) {
+            UsernameModel cached = fresh(waiting);
+            if (cached != null) {
+                deliver(waiting, cached);
+            } else {
+                send(waiting);
+            }
+        }
+    }
+
+    private void deliver(String normalized, UsernameModel usernameModel) {
+        if (listener != null) {
+            listener.onResult(normalized, usernameModel);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.io.usernames.api;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.util.PerfStats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+/**
+ * Hand written replacement for Retrofit's reflective GsonConverter. It reads
+ * {@link UsernameModel} and the batch response straight off the token stream, so there is
+ * no reflection on first use and no intermediate tree per response.
+ *
+ * The batch response may be either a bare array of usernames or an object holding that
+ * array under "usernames".
+ */
+public class UsernameModelConverter implements Converter {
+
+    private static final String DEFAULT_CHARSET = "UTF-8";
+    private static final String MIME_TYPE = "application/json; charset=UTF-8";
+
+    @Override
+    public Object fromBody(TypedInput body, Type type) throws ConversionException {
+        long start = System.nanoTime();
+        InputStream in = null;
+        try {
+            in = body.in();
+            JsonReader reader = new JsonReader(new InputStreamReader(in, charset(body.mimeType())));
+            if (type == UsernameModel.class) {
+                return readUsername(reader);
+            } else if (isUsernameList(type)) {
+                return readBatch(reader);
+            }
+            throw new ConversionException("Unsupported type " + type);
+        } catch (IOException e) {
+            throw new ConversionException(e);
+        } catch (IllegalStateException e) {
+            throw new ConversionException(e);
+        } catch (NumberFormatException e) {
+            throw new ConversionException(e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+            PerfStats.PARSE.recordSince(start);
+        }
+    }
+
+    @Override
+    public TypedOutput toBody(Object object) {
+        if (!(object instanceof UsernameModel)) {
+            throw new IllegalArgumentException("Unsupported body " + object);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, DEFAULT_CHARSET));
+            writeUsername(writer, (UsernameModel) object);
+            writer.close();
+            return new TypedByteArray(MIME_TYPE, out.toByteArray());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public static UsernameModel readUsername(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        UsernameModel usernameModel = new UsernameModel();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("username".equals(name)) {
+                usernameModel.setUsername(nextStringOrNull(reader));
+            } else if ("results".equals(name)) {
+                readResults(reader, usernameModel);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return usernameModel;
+    }
+
+    public static List<UsernameModel> readBatch(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return new ArrayList<UsernameModel>(0);
+        }
+        if (token == JsonToken.BEGIN_ARRAY) {
+            return readUsernameArray(reader);
+        }
+        List<UsernameModel> usernameModels = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("usernames".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                usernameModels = readUsernameArray(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return usernameModels != null ? usernameModels : new ArrayList<UsernameModel>(0);
+    }
+
+    public static void writeUsername(JsonWriter writer, UsernameModel usernameModel) throws IOException {
+        writer.beginObject();
+        writer.name("username").value(usernameModel.getUsername());
+        writer.name("results").beginArray();
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            if (usernameModel.isKnown(id)) {
+                writer.beginObject();
+                writer.name("service").value(ServiceRegistry.nameOf(id));
+                writer.name("available").value(usernameModel.isAvailable(id));
+                writer.endObject();
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    private static List<UsernameModel> readUsernameArray(JsonReader reader) throws IOException {
+        List<UsernameModel> usernameModels = new ArrayList<UsernameModel>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            UsernameModel usernameModel = readUsername(reader);
+            if (usernameModel != null) {
+                usernameModels.add(usernameModel);
+            }
+        }
+        reader.endArray();
+        return usernameModels;
+    }
+
+    /**
+     * Folds the results array into the model's availability bits, services the app does not
+     * know about are skipped.
+     */
+    private static void readResults(JsonReader reader, UsernameModel usernameModel) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int serviceId = -1;
+            Boolean available = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("service".equals(name)) {
+                    serviceId = ServiceRegistry.idOf(nextStringOrNull(reader));
+                } else if ("available".equals(name) && reader.peek() == JsonToken.BOOLEAN) {
+                    available = reader.nextBoolean();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (serviceId != -1 && available != null) {
+                usernameModel.setAvailable(serviceId, available);
+            }
+        }
+        reader.endArray();
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static boolean isUsernameList(Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return false;
+        }
+        ParameterizedType parameterized = (ParameterizedType) type;
+        return parameterized.getRawType() == List.class
+                && parameterized.getActualTypeArguments()[0] == UsernameModel.class;
+    }
+
+    private static String charset(String mimeType) throws UnsupportedEncodingException {
+        if (mimeType != null) {
+            int index = mimeType.toLowerCase(Locale.US).indexOf("charset=");
+            if (index != -1) {
+                String charset = mimeType.substring(index + "charset=".length()).trim();
+                int end = charset.indexOf(';');
+                return (end != -1 ? charset.substring(0, end) : charset).replace("\"", "");
+            }
+        }
+        return DEFAULT_CHARSET;
+    }
+}
@@ -0,0 +1,390 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.storage.SeenUsernameSet;
+import com.io.usernames.storage.TakenUsernameFilter;
+import com.io.usernames.storage.UsernameCache;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit.RetrofitError;
+
+/**
+ * Keeps a bounded queue of already fetched usernames so that a "Try Another" tap can be
+ * answered straight away instead of waiting on a round trip to usernames.io. The queue is
+ * refilled in the background every time an entry is handed out, with all missing entries
+ * requested together through a {@link UsernameBatchFetcher}.
+ *
+ * Not thread safe, it expects to be driven from the thread Retrofit delivers callbacks on
+ * (the main thread on Android).
+ */
+public class UsernamePrefetcher {
+
+    public static final int MIN_DEPTH = 1;
+    public static final int MAX_DEPTH = 10;
+    public static final int DEFAULT_DEPTH = 5;
+
+    private static final int MAX_GENERATOR_RETRIES = 8;
+    // Answers in a row with nothing usable in them before a waiting request is failed
+    private static final int MAX_EMPTY_BATCHES = 2;
+
+    public interface Listener {
+        void onUsername(UsernameModel usernameModel);
+        void onFailure(RetrofitError error);
+    }
+
+    private final UsernameBatchFetcher batchFetcher;
+    private final ArrayDeque<UsernameModel> queue;
+    private Listener listener;
+    private UsernameCache cache;
+    private UsernameGenerator fallback;
+    private TakenUsernameFilter takenFilter;
+    private SeenUsernameSet seenSet;
+    private boolean offline;
+    private boolean onDemand;
+    private int maxBatchSize = Integer.MAX_VALUE;
+
+    private int depth;
+    private int inFlight;
+    private int waiting;
+    private int emptyBatches;
+
+    private long requestCount;
+    private long hitCount;
+    private long emptyCount;
+    private long fetchCount;
+    private long failureCount;
+    private long generatedCount;
+    private long duplicateCount;
+
+    public UsernamePrefetcher(UsernamesService usernamesService, int depth) {
+        this(new UsernameBatchFetcher(usernamesService, UsernameBatchFetcher.DEFAULT_CONCURRENCY), depth);
+    }
+
+    public UsernamePrefetcher(UsernameBatchFetcher batchFetcher, int depth) {
+        this.batchFetcher = batchFetcher;
+        this.depth = clampDepth(depth);
+        this.queue = new ArrayDeque<UsernameModel>(MAX_DEPTH);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Seeds the queue with candidates the cache holds from an earlier session and records
+     * every username fetched from now on, so a later cold start can serve them. Cached
+     * candidates are screened like fetched ones, so set the taken filter and the seen set
+     * first.
+     */
+    public void setCache(UsernameCache cache) {
+        this.cache = cache;
+        if (cache != null) {
+            queue.addAll(takeCached(depth - queue.size()));
+        }
+    }
+
+    /**
+     * Filter every fetched candidate is screened against before it is queued, candidates
+     * known to be taken everywhere are dropped.
+     */
+    public void setTakenFilter(TakenUsernameFilter takenFilter) {
+        this.takenFilter = takenFilter;
+    }
+
+    /**
+     * Usernames already shown, a fetched candidate found in it is dropped and every username
+     * handed to the listener is added to it.
+     */
+    public void setSeenSet(SeenUsernameSet seenSet) {
+        this.seenSet = seenSet;
+    }
+
+    /**
+     * Generator used to answer waiting requests when a fetch fails, and for every request
+     * while offline, once the cache has no unseen candidates left. Without one failures are
+     * passed on to the listener.
+     */
+    public void setFallback(UsernameGenerator fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * While offline requests are served from the queue and then from the fallback generator,
+     * nothing is fetched. Without a fallback a request the queue cannot answer fails straight
+     * away.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * When on demand only usernames someone is waiting for are fetched, the queue is not
+     * filled ahead, e.g. on a metered network or a low battery. See {@link FetchPolicy}.
+     */
+    public void setOnDemand(boolean onDemand) {
+        this.onDemand = onDemand;
+    }
+
+    public boolean isOnDemand() {
+        return onDemand;
+    }
+
+    /** Most usernames asked for in one request. */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        batchFetcher.setMaxConcurrency(maxConcurrency);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * A lower depth only stops refills until the queue drains below it, usernames already
+     * fetched are still handed out.
+     */
+    public void setDepth(int depth) {
+        this.depth = clampDepth(depth);
+    }
+
+    /**
+     * Hands the next username to the listener, synchronously when one is queued. When the
+     * queue ran empty the username is delivered as soon as the next fetch completes.
+     */
+    public void request() {
+        requestCount++;
+        UsernameModel next = queue.poll();
+        if (next != null) {
+            hitCount++;
+            deliver(next);
+        } else if (offline && fallback != null) {
+            emptyCount++;
+            deliverFallback();
+        } else if (offline) {
+            emptyCount++;
+            if (listener != null) {
+                listener.onFailure(RetrofitError.networkError(null, new IOException("Offline")));
+            }
+        } else {
+            emptyCount++;
+            waiting++;
+        }
+        refill();
+    }
+
+    /**
+     * Issues enough fetches to bring the queue back up to its depth, counting requests that
+     * are already in flight.
+     */
+    public void refill() {
+        if (offline) {
+            return;
+        }
+        int missing = (onDemand ? waiting : depth + waiting) - queue.size() - inFlight;
+        if (missing > 0) {
+            int count = Math.min(missing, maxBatchSize);
+            inFlight += count;
+            batchFetcher.fetch(count, new BatchListener(count));
+        }
+    }
+
+    public void clear() {
+        queue.clear();
+        waiting = 0;
+    }
+
+    /** Number of usernames currently ready to be handed out. */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /** Number of requests that found the queue empty and had to wait on the network. */
+    public long getEmptyCount() {
+        return emptyCount;
+    }
+
+    public long getFetchCount() {
+        return fetchCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /** Number of usernames the fallback generator made up because nothing else was left. */
+    public long getGeneratedCount() {
+        return generatedCount;
+    }
+
+    /** Number of fetched, cached or generated usernames dropped because they were shown before. */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    private void deliver(UsernameModel usernameModel) {
+        if (seenSet != null) {
+            seenSet.add(usernameModel.getUsername());
+        }
+        if (listener != null) {
+            listener.onUsername(usernameModel);
+        }
+    }
+
+    private void deliverFallback() {
+        if (cache != null) {
+            List<UsernameModel> cached = takeCached(1);
+            if (!cached.isEmpty()) {
+                deliver(cached.get(0));
+                return;
+            }
+        }
+        UsernameModel generated = fallback.next();
+        // The generator has no memory, give it a few tries at something new
+        for (int i = 0; i < MAX_GENERATOR_RETRIES && isSeen(generated); i++) {
+            duplicateCount++;
+            generated = fallback.next();
+        }
+        generatedCount++;
+        deliver(generated);
+    }
+
+    /**
+     * Up to max unseen candidates from the cache that pass the same screening as fetched
+     * ones. Those that do not are taken out of the cache all the same.
+     */
+    private List<UsernameModel> takeCached(int max) {
+        List<UsernameModel> taken = new ArrayList<UsernameModel>(Math.max(0, max));
+        while (taken.size() < max) {
+            List<UsernameModel> cached = cache.takeUnseen(max - taken.size());
+            if (cached.isEmpty()) {
+                break;
+            }
+            for (UsernameModel usernameModel : cached) {
+                if (isUsable(usernameModel)) {
+                    taken.add(usernameModel);
+                }
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * False for candidates known to be taken everywhere or shown before.
+     */
+    private boolean isUsable(UsernameModel usernameModel) {
+        if (takenFilter != null && takenFilter.reject(usernameModel)) {
+            return false;
+        }
+        if (isSeen(usernameModel)) {
+            duplicateCount++;
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isSeen(UsernameModel usernameModel) {
+        return seenSet != null && seenSet.contains(usernameModel.getUsername());
+    }
+
+    private static int clampDepth(int depth) {
+        return Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, depth));
+    }
+
+    private class BatchListener implements UsernameBatchFetcher.Listener {
+        private final int count;
+
+        BatchListener(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void onUsernames(List<UsernameModel> usernameModels) {
+            inFlight -= count;
+            int accepted = 0;
+            for (UsernameModel usernameModel : usernameModels) {
+                if (usernameModel == null) {
+                    continue;
+                }
+                fetchCount++;
+                if (!isUsable(usernameModel)) {
+                    continue;
+                }
+                if (cache != null) {
+                    cache.putFetched(usernameModel);
+                }
+                if (waiting > 0) {
+                    waiting--;
+                    accepted++;
+                    deliver(usernameModel);
+                } else if (queue.size() < depth) {
+                    accepted++;
+                    queue.offer(usernameModel);
+                }
+            }
+            // A short or capped batch leaves the queue below its depth, ask again for whatever is
+            // still missing.
+            if (accepted > 0) {
+                emptyBatches = 0;
+                refill();
+            } else if (waiting > 0) {
+                // Nothing usable came back for a request someone is waiting on, e.g. every name
+                // was filtered out. That is not an error so it has to be handled here
+                if (fallback != null) {
+                    for (; waiting > 0; waiting--) {
+                        deliverFallback();
+                    }
+                } else if (++emptyBatches < MAX_EMPTY_BATCHES) {
+                    refill();
+                } else {
+                    emptyBatches = 0;
+                    waiting = 0;
+                    if (listener != null) {
+                        listener.onFailure(RetrofitError.unexpectedError(null,
+                                new IOException("usernames.io returned no usernames")));
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(RetrofitError error) {
+            inFlight -= count;
+            failureCount++;
+            // Only waiting requests are told about a failure, a failed background refill
+            // is retried on the next request rather than straight away.
+            if (waiting > 0 && fallback != null) {
+                for (; waiting > 0; waiting--) {
+                    deliverFallback();
+                }
+            } else if (waiting > 0) {
+                waiting = 0;
+                if (listener != null) {
+                    listener.onFailure(error);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+
+import java.util.List;
+
+import retrofit.Callback;
+import retrofit.http.GET;
+import retrofit.http.Path;
+import retrofit.http.Query;
+
+/**
+ * Created by matthewmichaud on 10/23/14.
+ */
+public interface UsernamesService {
+    @GET("/username")
+    void getUsername(Callback<UsernameModel> callback);
+
+    /**
+     * Fetches up to count candidates in a single request. Servers without batch support
+     * answer with a 404, see {@link UsernameBatchFetcher} for the fallback.
+     */
+    @GET("/usernames")
+    void getUsernames(@Query("count") int count, Callback<List<UsernameModel>> callback);
+
+    /**
+     * Availability of one name the user typed, see {@link UsernameLookup}.
+     */
+    @GET("/check/{username}")
+    void checkUsername(@Path("username") String username, Callback<UsernameModel> callback);
+}
@@ -0,0 +1,56 @@
+package com.io.usernames.models;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Maps every service a username is checked against to a small integer id, so availability
+ * can be kept as bits in {@link UsernameModel} instead of one object per service.
+ */
+public final class ServiceRegistry {
+
+    public static final int URL = 0;
+    public static final int FACEBOOK = 1;
+    public static final int TWITTER = 2;
+    public static final int GITHUB = 3;
+    public static final int LINKEDIN = 4;
+
+    public static final int COUNT = 5;
+    public static final int ALL_MASK = (1 << COUNT) - 1;
+
+    private static final String[] NAMES = {"url", "facebook", "twitter", "github", "linkedin"};
+
+    private static final HashMap<String, Integer> IDS = new HashMap<String, Integer>();
+
+    static {
+        for (int id = 0; id < COUNT; id++) {
+            IDS.put(NAMES[id], id);
+        }
+        // Other names the backend has used for the ".com" row
+        IDS.put("domain", URL);
+        IDS.put("com", URL);
+        IDS.put(".com", URL);
+    }
+
+    private ServiceRegistry() {
+    }
+
+    /**
+     * @return the id of the named service, or -1 if it is not one the app shows
+     */
+    public static int idOf(String service) {
+        if (service == null) {
+            return -1;
+        }
+        Integer id = IDS.get(service.toLowerCase(Locale.US));
+        return id != null ? id : -1;
+    }
+
+    public static String nameOf(int id) {
+        return NAMES[id];
+    }
+
+    public static int bit(int id) {
+        return 1 << id;
+    }
+}
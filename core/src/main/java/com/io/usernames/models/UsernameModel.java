@@ -0,0 +1,54 @@
+package com.io.usernames.models;
+
+/**
+ * Created by matthewmichaud on 10/23/14.
+ */
+public class UsernameModel {
+    String username;
+
+    /*
+     * One bit per ServiceRegistry id. A service is only meaningful in availableMask when its
+     * bit is set in knownMask as well.
+     */
+    int knownMask;
+    int availableMask;
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public boolean isKnown(int serviceId) {
+        return (knownMask & ServiceRegistry.bit(serviceId)) != 0;
+    }
+
+    public boolean isAvailable(int serviceId) {
+        return (availableMask & knownMask & ServiceRegistry.bit(serviceId)) != 0;
+    }
+
+    public void setAvailable(int serviceId, boolean available) {
+        int bit = ServiceRegistry.bit(serviceId);
+        knownMask |= bit;
+        if (available) {
+            availableMask |= bit;
+        } else {
+            availableMask &= ~bit;
+        }
+    }
+
+    public int getKnownMask() {
+        return knownMask;
+    }
+
+    public int getAvailableMask() {
+        return availableMask;
+    }
+
+    public void setMasks(int knownMask, int availableMask) {
+        this.knownMask = knownMask & ServiceRegistry.ALL_MASK;
+        this.availableMask = availableMask & this.knownMask;
+    }
+}
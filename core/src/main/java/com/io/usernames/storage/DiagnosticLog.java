@@ -0,0 +1,315 @@
+package com.io.usernames.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Log sink for field diagnostics. Callers copy a record into a fixed-size ring and return;
+ * a background thread drains the ring into a compact binary file, rotating it once it
+ * grows past maxFileBytes. When the writer falls behind, new records are dropped and
+ * counted rather than making the caller wait.
+ *
+ * A file is a header [int magic][long base time millis] followed by records
+ *
+ *   [byte 0][varint tag id][UTF tag]                      defines a tag id
+ *   [byte priority][varint tag id][varint millis since base][UTF message]
+ *
+ * Tags are written once per file. Priorities are the android.util.Log ones.
+ */
+public class DiagnosticLog {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_MAX_FILE_BYTES = 128 * 1024;
+    public static final int DEFAULT_MAX_FILES = 3;
+
+    private static final int MAGIC = 0x554e4c31; // "UNL1"
+    private static final byte TAG_DEFINITION = 0;
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+    private static final long IDLE_FLUSH_MILLIS = 2000;
+
+    private final File directory;
+    private final String name;
+    private final int maxFileBytes;
+    private final int maxFiles;
+
+    // Ring, guarded by this
+    private final long[] times;
+    private final byte[] priorities;
+    private final String[] tags;
+    private final String[] messages;
+    private int head;
+    private int count;
+    private long droppedCount;
+    private boolean closed;
+
+    // Writer thread only
+    private final Map<String, Integer> tagIds = new HashMap<String, Integer>();
+    private DataOutputStream out;
+    private long fileBytes;
+    private long baseTimeMillis;
+
+    private final Thread writer = new Thread("usernames-log") {
+        @Override
+        public void run() {
+            drainLoop();
+        }
+    };
+
+    public DiagnosticLog(File directory, String name, int capacity, int maxFileBytes, int maxFiles) {
+        this.directory = directory;
+        this.name = name;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        times = new long[capacity];
+        priorities = new byte[capacity];
+        tags = new String[capacity];
+        messages = new String[capacity];
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /**
+     * Never blocks on I/O.
+     *
+     * @return false if the ring was full and the record was dropped
+     */
+    public synchronized boolean log(int priority, String tag, String message) {
+        if (closed || count == times.length) {
+            droppedCount++;
+            return false;
+        }
+        int slot = (head + count) % times.length;
+        times[slot] = System.currentTimeMillis();
+        priorities[slot] = (byte) priority;
+        tags[slot] = tag;
+        messages[slot] = message;
+        count++;
+        if (count == times.length / 2) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Writes out everything logged so far and stops the writer thread.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join(IDLE_FLUSH_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Log files from newest to oldest, the ones that exist.
+     */
+    public File[] getFiles() {
+        File[] files = new File[maxFiles];
+        int found = 0;
+        for (int i = 0; i < maxFiles; i++) {
+            File file = file(i);
+            if (file.exists()) {
+                files[found++] = file;
+            }
+        }
+        File[] result = new File[found];
+        System.arraycopy(files, 0, result, 0, found);
+        return result;
+    }
+
+    /**
+     * Decodes file into one line per record, for a bug report or a debug screen.
+     */
+    public static void appendTo(File file, StringBuilder builder) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a log file: " + file);
+            }
+            long base = in.readLong();
+            Map<Integer, String> tags = new HashMap<Integer, String>();
+            while (true) {
+                int kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                int tagId = (int) readVarint(in);
+                if (kind == TAG_DEFINITION) {
+                    tags.put(tagId, in.readUTF());
+                    continue;
+                }
+                long time = base + readVarint(in);
+                builder.append(time).append(' ').append(priorityName(kind)).append(" [")
+                        .append(tags.get(tagId)).append("] ").append(in.readUTF()).append('\n');
+            }
+        } catch (EOFException e) {
+            // Torn last record
+        } finally {
+            in.close();
+        }
+    }
+
+    private void drainLoop() {
+        int capacity = times.length;
+        long[] batchTimes = new long[capacity];
+        byte[] batchPriorities = new byte[capacity];
+        String[] batchTags = new String[capacity];
+        String[] batchMessages = new String[capacity];
+        while (true) {
+            int batch;
+            boolean last;
+            synchronized (this) {
+                if (count == 0 && !closed) {
+                    try {
+                        wait(IDLE_FLUSH_MILLIS);
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                batch = count;
+                for (int i = 0; i < batch; i++) {
+                    int slot = (head + i) % capacity;
+                    batchTimes[i] = times[slot];
+                    batchPriorities[i] = priorities[slot];
+                    batchTags[i] = tags[slot];
+                    batchMessages[i] = messages[slot];
+                    tags[slot] = null;
+                    messages[slot] = null;
+                }
+                head = (head + batch) % capacity;
+                count = 0;
+                last = closed;
+            }
+            try {
+                for (int i = 0; i < batch; i++) {
+                    write(batchTimes[i], batchPriorities[i], batchTags[i], batchMessages[i]);
+                    batchTags[i] = null;
+                    batchMessages[i] = null;
+                }
+                if (out != null) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Diagnostics are best effort, start a fresh file with the next record
+                closeFile();
+            }
+            if (last) {
+                closeFile();
+                return;
+            }
+        }
+    }
+
+    private void write(long time, byte priority, String tag, String message) throws IOException {
+        if (out == null || fileBytes >= maxFileBytes) {
+            rotate(time);
+        }
+        if (tag == null) {
+            tag = "";
+        }
+        Integer tagId = tagIds.get(tag);
+        if (tagId == null) {
+            tagId = tagIds.size();
+            tagIds.put(tag, tagId);
+            out.writeByte(TAG_DEFINITION);
+            writeVarint(tagId);
+            out.writeUTF(tag);
+        }
+        out.writeByte(priority);
+        writeVarint(tagId);
+        writeVarint(Math.max(0, time - baseTimeMillis));
+        if (message == null) {
+            message = "null";
+        } else if (message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        out.writeUTF(message);
+        fileBytes = out.size();
+    }
+
+    private void rotate(long time) throws IOException {
+        closeFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        file(maxFiles - 1).delete();
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File file = file(i);
+            if (file.exists()) {
+                file.renameTo(file(i + 1));
+            }
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file(0))));
+        tagIds.clear();
+        baseTimeMillis = time;
+        out.writeInt(MAGIC);
+        out.writeLong(baseTimeMillis);
+        fileBytes = out.size();
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+
+    private File file(int index) {
+        return new File(directory, name + "." + index + ".bin");
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 64);
+        return value;
+    }
+
+    private static char priorityName(int priority) {
+        switch (priority) {
+            case 2: return 'V';
+            case 3: return 'D';
+            case 4: return 'I';
+            case 5: return 'W';
+            case 6: return 'E';
+            default: return 'A';
+        }
+    }
+}
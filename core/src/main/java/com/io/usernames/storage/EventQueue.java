@@ -0,0 +1,296 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.util.MemoryPressure;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects analytics events without blocking the caller and hands them to a {@link Sink} in
+ * batches, from a background thread, every flush interval or as soon as a batch is full.
+ * Adding an event only puts it on a lock-free queue; a moment later the background thread
+ * appends whatever was added since in one go to a spool file, so a killed process loses at
+ * most that moment. The spool is only deleted once the sink took its events. Events the
+ * process did not live to send go out on the first flush of a later one.
+ */
+public class EventQueue implements MemoryPressure.Trimmable {
+
+    public static final int DEFAULT_BATCH_SIZE = 20;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 60 * 1000;
+
+    private static final int MAGIC = 0x554e4531; // "UNE1"
+    private static final int MAX_SPOOLED_EVENTS = 500;
+    // Long enough for a burst of events to share one write
+    private static final long SPOOL_DELAY_MILLIS = 250;
+
+    public interface Sink {
+        void send(List<Event> events) throws IOException;
+    }
+
+    public static class Event {
+        public final String action;
+        public final String label;
+        public final long timeMillis;
+
+        public Event(String action, String label, long timeMillis) {
+            this.action = action;
+            this.label = label;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Event> added = new ConcurrentLinkedQueue<Event>();
+    // Approximate, an event can be counted a moment before or after it is on the queue
+    private final AtomicInteger addedCount = new AtomicInteger();
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+    private final AtomicBoolean spoolPending = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final File spoolFile;
+    private final Sink sink;
+    private final int batchSize;
+
+    // Only touched on the executor: events the spool could not take
+    private final List<Event> unspooled = new ArrayList<Event>();
+
+    // Only written on the executor
+    private volatile int unsentCount;
+    private volatile long sentCount;
+    private volatile long spooledCount;
+    private volatile long droppedCount;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushPending.set(false);
+            drain();
+        }
+    };
+
+    private final Runnable spoolTask = new Runnable() {
+        @Override
+        public void run() {
+            spoolPending.set(false);
+            spoolAdded();
+        }
+    };
+
+    public EventQueue(File spoolFile, Sink sink, int batchSize, long flushIntervalMillis) {
+        this.spoolFile = spoolFile;
+        this.sink = sink;
+        this.batchSize = batchSize;
+        // The first run also sends whatever a previous process left in the spool, or rewrites
+        // it without a torn last event before anything is appended
+        executor.scheduleWithFixedDelay(flushTask, 0, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Safe to call from any thread, the event is written and sent on the background thread.
+     */
+    public void add(String action, String label) {
+        added.offer(new Event(action, label, System.currentTimeMillis()));
+        if (addedCount.incrementAndGet() >= batchSize) {
+            flush();
+        } else if (spoolPending.compareAndSet(false, true)) {
+            try {
+                executor.schedule(spoolTask, SPOOL_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignored) {
+                // Shut down
+            }
+        }
+    }
+
+    /**
+     * Sends everything added or spooled so far on the background thread, e.g. when the app
+     * goes to the background and may be killed.
+     */
+    public void flush() {
+        if (flushPending.compareAndSet(false, true)) {
+            try {
+                executor.execute(flushTask);
+            } catch (RejectedExecutionException ignored) {
+                // Shut down
+            }
+        }
+    }
+
+    /**
+     * Sends what is queued once the app is no longer visible, the process may be killed any
+     * time from then on.
+     */
+    @Override
+    public void trim(int level) {
+        if (level >= MemoryPressure.TRIM_UI_HIDDEN) {
+            flush();
+        }
+    }
+
+    public void shutdown() {
+        flush();
+        executor.shutdown();
+    }
+
+    /** Events added or left by an earlier process that were not sent yet. */
+    public int getQueuedCount() {
+        return addedCount.get() + unsentCount;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    public long getSpooledCount() {
+        return spooledCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Moves what was added to the spool, without sending it.
+     */
+    private void spoolAdded() {
+        List<Event> batch = new ArrayList<Event>();
+        Event event;
+        while ((event = added.poll()) != null) {
+            batch.add(event);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            appendSpool(batch);
+            spooledCount += batch.size();
+        } catch (IOException e) {
+            // Still sent with the next batch, unless the process dies first
+            unspooled.addAll(batch);
+        }
+        unsentCount += batch.size();
+        addedCount.addAndGet(-batch.size());
+    }
+
+    private void drain() {
+        spoolAdded();
+        List<Event> events = readSpool();
+        events.addAll(unspooled);
+        unspooled.clear();
+        unsentCount = 0;
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            sink.send(events);
+            sentCount += events.size();
+            // Sent, they must not go out again with the next batch
+            spoolFile.delete();
+        } catch (IOException e) {
+            writeSpool(events);
+        } catch (RuntimeException e) {
+            writeSpool(events);
+        }
+    }
+
+    private List<Event> readSpool() {
+        List<Event> events = new ArrayList<Event>();
+        if (!spoolFile.exists()) {
+            return events;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile)));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a spool file");
+            }
+            while (true) {
+                String action = in.readUTF();
+                String label = in.readBoolean() ? in.readUTF() : null;
+                events.add(new Event(action, label, in.readLong()));
+            }
+        } catch (EOFException e) {
+            // The end, or a torn write, keep what was read
+        } catch (IOException e) {
+            spoolFile.delete();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return events;
+    }
+
+    private void appendSpool(List<Event> events) throws IOException {
+        boolean created = !spoolFile.exists() || spoolFile.length() == 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile, true)));
+        try {
+            if (created) {
+                out.writeInt(MAGIC);
+            }
+            for (Event event : events) {
+                writeEvent(out, event);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Replaces the spool with the newest events the sink could not take.
+     */
+    private void writeSpool(List<Event> events) {
+        int from = Math.max(0, events.size() - MAX_SPOOLED_EVENTS);
+        droppedCount += from;
+        File tmp = new File(spoolFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            for (int i = from; i < events.size(); i++) {
+                writeEvent(out, events.get(i));
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(spoolFile)) {
+                droppedCount += events.size() - from;
+                return;
+            }
+            unsentCount = events.size() - from;
+        } catch (IOException e) {
+            droppedCount += events.size() - from;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void writeEvent(DataOutputStream out, Event event) throws IOException {
+        out.writeUTF(event.action);
+        out.writeBoolean(event.label != null);
+        if (event.label != null) {
+            out.writeUTF(event.label);
+        }
+        out.writeLong(event.timeMillis);
+    }
+}
@@ -0,0 +1,323 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Usernames the user kept, with the availability last seen for each service and when it was
+ * checked. Sized for tens of thousands of entries.
+ *
+ * On disk it is a {@link RecordLog} where a PUT payload is [UTF username][long added millis][byte known][byte available]
+ * followed by an int of seconds since the epoch for every known service, lowest id first,
+ * and a REMOVE payload is [UTF username]. Once superseded records make up most of the file
+ * it is rewritten with only the live entries.
+ *
+ * In memory, names are kept lower-cased in a sorted array next to the map of entries, so a
+ * prefix search is a binary search plus a scan over the matches.
+ */
+public class FavoritesStore {
+
+    private static final int MAGIC = 0x554e4631; // "UNF1"
+    private static final int MAX_RECORD_SIZE = 1024;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    private static final byte KIND_PUT = 1;
+    private static final byte KIND_REMOVE = 2;
+
+    public static class Favorite {
+        private final String username;
+        private final long addedMillis;
+        private final int knownMask;
+        private final int availableMask;
+        private final long[] checkedMillis;
+
+        Favorite(String username, long addedMillis, int knownMask, int availableMask, long[] checkedMillis) {
+            this.username = username;
+            this.addedMillis = addedMillis;
+            this.knownMask = knownMask;
+            this.availableMask = availableMask;
+            this.checkedMillis = checkedMillis;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getAddedMillis() {
+            return addedMillis;
+        }
+
+        public boolean isKnown(int serviceId) {
+            return (knownMask & ServiceRegistry.bit(serviceId)) != 0;
+        }
+
+        public boolean isAvailable(int serviceId) {
+            return (availableMask & ServiceRegistry.bit(serviceId)) != 0;
+        }
+
+        /**
+         * When the availability for serviceId was last seen, 0 if it never was.
+         */
+        public long getCheckedMillis(int serviceId) {
+            return checkedMillis[serviceId];
+        }
+
+        public UsernameModel toUsernameModel() {
+            UsernameModel usernameModel = new UsernameModel();
+            usernameModel.setUsername(username);
+            usernameModel.setMasks(knownMask, availableMask);
+            return usernameModel;
+        }
+    }
+
+    private final RecordLog log;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+
+    private final HashMap<String, Favorite> favorites = new HashMap<String, Favorite>();
+    private String[] keys = new String[16];
+    private int keyCount;
+
+    private int recordCount;
+
+    public FavoritesStore(File file) throws IOException {
+        log = new RecordLog(file, MAGIC, MAX_RECORD_SIZE);
+        log.open(new RecordLog.Reader() {
+            @Override
+            public void read(byte kind, DataInputStream in) throws IOException {
+                if (kind == KIND_PUT) {
+                    Favorite favorite = readPut(in);
+                    favorites.put(key(favorite.username), favorite);
+                } else if (kind == KIND_REMOVE) {
+                    favorites.remove(key(in.readUTF()));
+                }
+                recordCount++;
+            }
+        });
+        keys = favorites.keySet().toArray(new String[Math.max(16, favorites.size())]);
+        keyCount = favorites.size();
+        Arrays.sort(keys, 0, keyCount);
+    }
+
+    public static String key(String username) {
+        return username.toLowerCase(Locale.US);
+    }
+
+    public synchronized int size() {
+        return keyCount;
+    }
+
+    public synchronized boolean contains(String username) {
+        return username != null && favorites.containsKey(key(username));
+    }
+
+    public synchronized Favorite get(String username) {
+        return username != null ? favorites.get(key(username)) : null;
+    }
+
+    /**
+     * Keeps usernameModel, or refreshes its snapshot if it is already kept.
+     */
+    public synchronized void add(UsernameModel usernameModel) {
+        if (usernameModel == null || usernameModel.getUsername() == null) {
+            return;
+        }
+        Favorite previous = favorites.get(key(usernameModel.getUsername()));
+        put(merge(previous, usernameModel, previous != null ? previous.addedMillis : System.currentTimeMillis()));
+    }
+
+    /**
+     * Records newer availability for a kept username, does nothing for any other.
+     */
+    public synchronized void update(UsernameModel usernameModel) {
+        if (usernameModel == null || usernameModel.getUsername() == null) {
+            return;
+        }
+        Favorite previous = favorites.get(key(usernameModel.getUsername()));
+        if (previous != null) {
+            put(merge(previous, usernameModel, previous.addedMillis));
+        }
+    }
+
+    public synchronized boolean remove(String username) {
+        if (username == null) {
+            return false;
+        }
+        String key = key(username);
+        Favorite removed = favorites.remove(key);
+        if (removed == null) {
+            return false;
+        }
+        removeKey(key);
+        try {
+            buffer.reset();
+            bufferOut.writeUTF(removed.username);
+            append(KIND_REMOVE, buffer.toByteArray());
+        } catch (IOException ignored) {
+            // Stays removed in memory
+        }
+        return true;
+    }
+
+    /**
+     * Kept usernames starting with prefix, ignoring case, in alphabetical order.
+     */
+    public synchronized List<Favorite> search(String prefix, int limit) {
+        String keyPrefix = key(prefix);
+        int index = Arrays.binarySearch(keys, 0, keyCount, keyPrefix);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        List<Favorite> matches = new ArrayList<Favorite>(Math.min(limit, 16));
+        for (int i = index; i < keyCount && matches.size() < limit && keys[i].startsWith(keyPrefix); i++) {
+            matches.add(favorites.get(keys[i]));
+        }
+        return matches;
+    }
+
+    /**
+     * Up to limit kept usernames in alphabetical order, starting at the from-th one.
+     */
+    public synchronized List<Favorite> list(int from, int limit) {
+        int to = Math.min(keyCount, from + limit);
+        List<Favorite> page = new ArrayList<Favorite>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            page.add(favorites.get(keys[i]));
+        }
+        return page;
+    }
+
+    /** Size of the log on disk, including appends still queued on the writer. */
+    public long getSizeBytes() {
+        return log.getLength();
+    }
+
+    /**
+     * Waits for pending appends and releases the file.
+     */
+    public void close() {
+        log.close();
+    }
+
+    private static Favorite merge(Favorite previous, UsernameModel usernameModel, long addedMillis) {
+        long now = System.currentTimeMillis();
+        long[] checkedMillis = new long[ServiceRegistry.COUNT];
+        int knownMask = usernameModel.getKnownMask();
+        int availableMask = usernameModel.getAvailableMask();
+        if (previous != null) {
+            System.arraycopy(previous.checkedMillis, 0, checkedMillis, 0, ServiceRegistry.COUNT);
+            // Keep what was seen before for services this model knows nothing about
+            int keep = previous.knownMask & ~knownMask;
+            availableMask |= previous.availableMask & keep;
+            knownMask |= keep;
+        }
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            if (usernameModel.isKnown(id)) {
+                checkedMillis[id] = now;
+            }
+        }
+        return new Favorite(usernameModel.getUsername(), addedMillis, knownMask, availableMask, checkedMillis);
+    }
+
+    private void put(Favorite favorite) {
+        String key = key(favorite.username);
+        if (favorites.put(key, favorite) == null) {
+            insertKey(key);
+        }
+        try {
+            buffer.reset();
+            writePut(bufferOut, favorite);
+            append(KIND_PUT, buffer.toByteArray());
+        } catch (IOException ignored) {
+            // Kept in memory, persisted with the next compaction
+        }
+    }
+
+    private void insertKey(String key) {
+        int index = -Arrays.binarySearch(keys, 0, keyCount, key) - 1;
+        if (keyCount == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, keyCount - index);
+        keys[index] = key;
+        keyCount++;
+    }
+
+    private void removeKey(String key) {
+        int index = Arrays.binarySearch(keys, 0, keyCount, key);
+        if (index >= 0) {
+            System.arraycopy(keys, index + 1, keys, index, keyCount - index - 1);
+            keys[--keyCount] = null;
+        }
+    }
+
+    private static void writePut(DataOutputStream out, Favorite favorite) throws IOException {
+        out.writeUTF(favorite.username);
+        out.writeLong(favorite.addedMillis);
+        out.writeByte(favorite.knownMask);
+        out.writeByte(favorite.availableMask);
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            if ((favorite.knownMask & ServiceRegistry.bit(id)) != 0) {
+                out.writeInt((int) (favorite.checkedMillis[id] / 1000));
+            }
+        }
+    }
+
+    private static Favorite readPut(DataInputStream in) throws IOException {
+        String username = in.readUTF();
+        long addedMillis = in.readLong();
+        int knownMask = in.readUnsignedByte();
+        int availableMask = in.readUnsignedByte();
+        long[] checkedMillis = new long[ServiceRegistry.COUNT];
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            if ((knownMask & ServiceRegistry.bit(id)) != 0) {
+                checkedMillis[id] = (in.readInt() & 0xFFFFFFFFL) * 1000;
+            }
+        }
+        return new Favorite(username, addedMillis, knownMask, availableMask, checkedMillis);
+    }
+
+    private void append(byte kind, byte[] payload) throws IOException {
+        byte[] record = log.frame(kind, payload);
+        if (record == null) {
+            return;
+        }
+        recordCount++;
+        // Rewrite once superseded and removed records outnumber the live ones
+        if (recordCount > MIN_COMPACT_RECORDS && recordCount > 2 * keyCount) {
+            log.replace(snapshot());
+            recordCount = keyCount;
+        } else {
+            log.append(record);
+        }
+    }
+
+    /**
+     * Encodes the live entries as a fresh log.
+     */
+    private byte[] snapshot() throws IOException {
+        ByteArrayOutputStream out = log.newSnapshot(keyCount * 32);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+        for (int i = 0; i < keyCount; i++) {
+            payload.reset();
+            writePut(payloadOut, favorites.get(keys[i]));
+            byte[] record = log.frame(KIND_PUT, payload.toByteArray());
+            if (record != null) {
+                out.write(record, 0, record.length);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,499 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.UsernameModel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only file of usernames addressed by their position. Records go to a data file and
+ * the offset each one ends at to an index file of fixed size entries, so nothing but the two
+ * file handles and the entries not written yet is kept in memory however many are stored.
+ *
+ * Entries are encoded on the caller's thread and written on a background one, reads of an
+ * entry still queued are answered from memory. Like {@link RecordLog} the writer only takes
+ * the files' own lock, so a write never holds up the caller.
+ *
+ * The store outlives the process but keeps at most maxEntries. Once an open finds a quarter
+ * more than that, the oldest are dropped by rewriting both files on the background thread.
+ * Positions are never reused, {@link #getFirst} is the oldest one still stored. Trimming only
+ * happens on open, so the entries of a running session stay readable.
+ *
+ * An entry counts once its index entry is complete and the data it points to exists, whatever
+ * a write cut short by the process dying left behind is dropped on open.
+ */
+public class HistoryStore {
+
+    public static final int DEFAULT_MAX_ENTRIES = 5000;
+
+    private static final String DATA_FILE = "history.dat";
+    private static final String INDEX_FILE = "history.idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Followed by the position of the first entry. Never the end of an entry, stores from
+    // before trimming existed have no header and start at position 0.
+    private static final long INDEX_MAGIC = 0xFFFFFFFF48495354L; // -1, "HIST"
+    private static final int INDEX_HEADER_SIZE = 16;
+
+    private final File directory;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+
+    // Guarded by this: positions, the entries not written yet and who still reads the store
+    private final int first;
+    private int count;
+    // Entries from here on are still queued, in order
+    private int written;
+    private final List<byte[]> unwritten = new ArrayList<byte[]>();
+    // Updates of entries already written that are still queued, by position
+    private final Map<Integer, byte[]> unwrittenUpdates = new HashMap<Integer, byte[]>();
+    private boolean writeFailed;
+    // The owner and every snapshot still reading, the files are closed when it drops to 0
+    private int references = 1;
+
+    // Guards the files and where things are in them, taken by the writer and by reads
+    private final Object fileLock = new Object();
+    private RandomAccessFile data;
+    private RandomAccessFile index;
+    private int indexHeaderSize;
+    // Position of the first entry in the files, behind first until a trim was written
+    private int fileFirst;
+    // Where the last entry written ends, the next one is written from here
+    private long fileEnd;
+
+    /**
+     * Opens the store in directory with the entries earlier sessions left there, keeping up
+     * to {@link #DEFAULT_MAX_ENTRIES}.
+     */
+    public HistoryStore(File directory) throws IOException {
+        this(directory, DEFAULT_MAX_ENTRIES);
+    }
+
+    public HistoryStore(File directory, int maxEntries) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        finishTrim();
+        openFiles();
+        try {
+            recover();
+        } catch (IOException e) {
+            closeFiles();
+            throw e;
+        }
+        written = count;
+        maxEntries = Math.max(1, maxEntries);
+        if (count - fileFirst > maxEntries + maxEntries / 4) {
+            final int newFirst = count - maxEntries;
+            first = newFirst;
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    trim(newFirst);
+                }
+            });
+        } else {
+            first = fileFirst;
+        }
+    }
+
+    /** One past the newest position, including entries still queued. */
+    public synchronized int size() {
+        return count;
+    }
+
+    /** Entries queued that the background thread did not write yet. */
+    public synchronized int getUnwrittenCount() {
+        return unwritten.size();
+    }
+
+    /** The oldest position still stored, earlier ones were trimmed. */
+    public int getFirst() {
+        return first;
+    }
+
+    /**
+     * Queues usernameModel to be written at position {@link #size}.
+     *
+     * @throws IOException when an earlier write failed, nothing is stored after it
+     */
+    public synchronized void append(UsernameModel usernameModel) throws IOException {
+        if (writeFailed) {
+            throw new IOException("History store failed to write");
+        }
+        final byte[] entry = encode(usernameModel);
+        final int position = count;
+        unwritten.add(entry);
+        count++;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                write(position, entry);
+            }
+        });
+    }
+
+    /**
+     * Reads up to length entries starting at position, the ones already written with a single
+     * read of the data file.
+     */
+    public List<UsernameModel> read(int position, int length) throws IOException {
+        List<byte[]> queued;
+        int fromFile;
+        Map<Integer, byte[]> updates = null;
+        synchronized (this) {
+            if (position < first || position >= count) {
+                throw new IndexOutOfBoundsException("Position " + position + ", stored " + first + " to " + count);
+            }
+            length = Math.min(length, count - position);
+            fromFile = Math.max(0, Math.min(length, written - position));
+            int queuedFrom = Math.max(0, position + fromFile - written);
+            queued = new ArrayList<byte[]>(unwritten.subList(queuedFrom, Math.max(queuedFrom, position + length - written)));
+            for (Map.Entry<Integer, byte[]> update : unwrittenUpdates.entrySet()) {
+                if (update.getKey() >= position && update.getKey() < position + fromFile) {
+                    if (updates == null) {
+                        updates = new HashMap<Integer, byte[]>();
+                    }
+                    updates.put(update.getKey(), update.getValue());
+                }
+            }
+        }
+        List<UsernameModel> usernameModels = new ArrayList<UsernameModel>(length);
+        if (fromFile > 0) {
+            byte[] bytes;
+            synchronized (fileLock) {
+                if (data == null) {
+                    throw new IOException("History store closed");
+                }
+                long start = startOf(position - fileFirst);
+                bytes = new byte[(int) (readEnd(position + fromFile - 1 - fileFirst) - start)];
+                data.seek(start);
+                data.readFully(bytes);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            for (int i = 0; i < fromFile; i++) {
+                UsernameModel usernameModel = UsernameModelCodec.read(in);
+                byte[] update = updates != null ? updates.get(position + i) : null;
+                usernameModels.add(update != null ? decode(update) : usernameModel);
+            }
+        }
+        for (int i = 0; i < queued.size(); i++) {
+            usernameModels.add(decode(queued.get(i)));
+        }
+        return usernameModels;
+    }
+
+    /**
+     * Queues overwriting the entry at position in place, e.g. after an availability check
+     * finished for it. Only its masks may differ, an entry whose username changed length on
+     * disk is left as it was.
+     */
+    public synchronized void update(final int position, UsernameModel usernameModel) throws IOException {
+        if (position < first || position >= count) {
+            throw new IndexOutOfBoundsException("Position " + position + ", stored " + first + " to " + count);
+        }
+        final byte[] entry = encode(usernameModel);
+        if (position >= written) {
+            if (unwritten.get(position - written).length != entry.length) {
+                throw new IOException("Entry " + position + " changed size");
+            }
+            unwritten.set(position - written, entry);
+        } else {
+            unwrittenUpdates.put(position, entry);
+        }
+        // Ordered after the append of the entry, so it is overwritten even if it was queued
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                overwrite(position, entry);
+            }
+        });
+    }
+
+    /**
+     * Keeps the files open for another reader until it calls {@link #close} as well.
+     *
+     * @return false when the store was closed already
+     */
+    public synchronized boolean retain() {
+        if (references == 0) {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    /**
+     * Lets go of the store. Once the last reader let go of it too, queued writes are waited
+     * for and the files are closed.
+     */
+    public void close() {
+        synchronized (this) {
+            if (references == 0 || --references > 0) {
+                return;
+            }
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (fileLock) {
+            closeFiles();
+        }
+    }
+
+    private byte[] encode(UsernameModel usernameModel) throws IOException {
+        buffer.reset();
+        UsernameModelCodec.write(bufferOut, usernameModel);
+        return buffer.toByteArray();
+    }
+
+    private static UsernameModel decode(byte[] entry) throws IOException {
+        return UsernameModelCodec.read(new DataInputStream(new ByteArrayInputStream(entry)));
+    }
+
+    private void execute(Runnable write) {
+        try {
+            writer.execute(write);
+        } catch (RejectedExecutionException ignored) {
+            // Closed, late changes are not persisted
+        }
+    }
+
+    /**
+     * Runs on the writer. After a failure the entry stays queued in memory, and so does every
+     * one after it, so positions in the files keep matching.
+     */
+    private void write(int position, byte[] entry) {
+        synchronized (this) {
+            if (writeFailed) {
+                return;
+            }
+        }
+        boolean ok;
+        synchronized (fileLock) {
+            try {
+                data.seek(fileEnd);
+                data.write(entry);
+                index.seek(indexHeaderSize + (position - fileFirst) * 8L);
+                index.writeLong(fileEnd + entry.length);
+                fileEnd += entry.length;
+                ok = true;
+            } catch (IOException e) {
+                ok = false;
+            }
+        }
+        synchronized (this) {
+            if (ok) {
+                unwritten.remove(0);
+                written++;
+            } else {
+                writeFailed = true;
+            }
+        }
+    }
+
+    /** Runs on the writer. */
+    private void overwrite(int position, byte[] entry) {
+        synchronized (this) {
+            if (position >= written) {
+                // Its append failed, the queued copy is already up to date
+                return;
+            }
+        }
+        synchronized (fileLock) {
+            if (data == null) {
+                return;
+            }
+            try {
+                long start = startOf(position - fileFirst);
+                if (readEnd(position - fileFirst) - start == entry.length) {
+                    data.seek(start);
+                    data.write(entry);
+                }
+            } catch (IOException ignored) {
+                // The entry keeps its old masks
+            }
+        }
+        synchronized (this) {
+            // Unless it was updated again meanwhile
+            if (unwrittenUpdates.get(position) == entry) {
+                unwrittenUpdates.remove(position);
+            }
+        }
+    }
+
+    /**
+     * Runs on the writer before anything is appended. Copies the entries from newFirst on to
+     * temporary files and renames them over the old ones, data first. An open that finds
+     * only the index left to rename renames it, see {@link #finishTrim}.
+     */
+    private void trim(int newFirst) {
+        synchronized (fileLock) {
+            File dataTemp = new File(directory, DATA_FILE + TEMP_SUFFIX);
+            File indexTemp = new File(directory, INDEX_FILE + TEMP_SUFFIX);
+            long start;
+            try {
+                int keepFrom = newFirst - fileFirst;
+                int kept = (int) ((index.length() - indexHeaderSize) / 8) - keepFrom;
+                start = startOf(keepFrom);
+                ByteBuffer ends = ByteBuffer.allocate(INDEX_HEADER_SIZE + kept * 8);
+                ends.putLong(INDEX_MAGIC).putLong(newFirst);
+                for (int i = 0; i < kept; i++) {
+                    ends.putLong(readEnd(keepFrom + i) - start);
+                }
+                RandomAccessFile out = new RandomAccessFile(dataTemp, "rw");
+                try {
+                    out.setLength(0);
+                    data.getChannel().transferTo(start, fileEnd - start, out.getChannel());
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+                out = new RandomAccessFile(indexTemp, "rw");
+                try {
+                    out.setLength(0);
+                    out.write(ends.array());
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                // The old files are untouched, tried again on the next open
+                dataTemp.delete();
+                indexTemp.delete();
+                return;
+            }
+            closeFiles();
+            boolean replaced = dataTemp.renameTo(new File(directory, DATA_FILE));
+            if (!replaced) {
+                dataTemp.delete();
+                indexTemp.delete();
+            } else if (indexTemp.renameTo(new File(directory, INDEX_FILE))) {
+                indexHeaderSize = INDEX_HEADER_SIZE;
+                fileFirst = newFirst;
+                fileEnd -= start;
+            } else {
+                // The old index does not match the new data, the files stay closed until
+                // finishTrim completes the rename on the next open
+                failWrites();
+                return;
+            }
+            try {
+                openFiles();
+            } catch (IOException e) {
+                closeFiles();
+                failWrites();
+            }
+        }
+    }
+
+    private synchronized void failWrites() {
+        writeFailed = true;
+    }
+
+    /**
+     * Completes or rolls back a trim the process died in the middle of. A data file still
+     * waiting to be renamed means the old files are intact, an index on its own means the
+     * data was already replaced.
+     */
+    private void finishTrim() throws IOException {
+        File dataTemp = new File(directory, DATA_FILE + TEMP_SUFFIX);
+        File indexTemp = new File(directory, INDEX_FILE + TEMP_SUFFIX);
+        if (dataTemp.exists()) {
+            dataTemp.delete();
+            indexTemp.delete();
+        } else if (indexTemp.exists() && !indexTemp.renameTo(new File(directory, INDEX_FILE))) {
+            throw new IOException("Could not replace " + INDEX_FILE);
+        }
+    }
+
+    /**
+     * Drops a partly written index entry and any entries whose data is missing, then the data
+     * past the last entry that is left.
+     */
+    private void recover() throws IOException {
+        long indexLength = index.length();
+        if (indexLength == 0) {
+            index.writeLong(INDEX_MAGIC);
+            index.writeLong(0);
+            indexLength = INDEX_HEADER_SIZE;
+        }
+        if (indexLength >= INDEX_HEADER_SIZE && readLong(index, 0) == INDEX_MAGIC) {
+            indexHeaderSize = INDEX_HEADER_SIZE;
+            fileFirst = (int) readLong(index, 8);
+        } else {
+            indexHeaderSize = 0;
+            fileFirst = 0;
+        }
+        int entries = (int) ((indexLength - indexHeaderSize) / 8);
+        long dataLength = data.length();
+        // A negative end is a header torn before its first entry was written
+        while (entries > 0 && (readEnd(entries - 1) > dataLength || readEnd(entries - 1) < 0)) {
+            entries--;
+        }
+        fileEnd = entries > 0 ? readEnd(entries - 1) : 0;
+        count = fileFirst + entries;
+        if (indexLength != indexHeaderSize + entries * 8L) {
+            index.setLength(indexHeaderSize + entries * 8L);
+        }
+        if (dataLength != fileEnd) {
+            data.setLength(fileEnd);
+        }
+    }
+
+    private void openFiles() throws IOException {
+        data = new RandomAccessFile(new File(directory, DATA_FILE), "rw");
+        try {
+            index = new RandomAccessFile(new File(directory, INDEX_FILE), "rw");
+        } catch (IOException e) {
+            closeFiles();
+            throw e;
+        }
+    }
+
+    private void closeFiles() {
+        try {
+            if (data != null) {
+                data.close();
+            }
+            if (index != null) {
+                index.close();
+            }
+        } catch (IOException ignored) {
+        }
+        data = null;
+        index = null;
+    }
+
+    /** Where the entry at offset in the files starts. */
+    private long startOf(int offset) throws IOException {
+        return offset > 0 ? readEnd(offset - 1) : 0;
+    }
+
+    private long readEnd(int offset) throws IOException {
+        return readLong(index, indexHeaderSize + offset * 8L);
+    }
+
+    private static long readLong(RandomAccessFile file, long at) throws IOException {
+        file.seek(at);
+        return file.readLong();
+    }
+}
@@ -0,0 +1,230 @@
+package com.io.usernames.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file the stores keep their state in, a magic number followed by records
+ *
+ *   [int length][int crc32][byte kind][payload]
+ *
+ * where kind and payload are up to the store. The log is read back through a memory-mapped
+ * buffer on open; a record torn by the process dying mid-write fails its length or checksum
+ * test and is cut off together with anything after it. Compaction writes the store's live
+ * state to a new file, which then replaces the old one with an atomic rename.
+ *
+ * Records are framed on the caller's thread and written on a background one. The writer only
+ * takes the file's own lock, so a write, sync or compaction never holds up the store.
+ */
+class RecordLog {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    interface Reader {
+        /**
+         * Called on open for every intact record, oldest first.
+         */
+        void read(byte kind, DataInputStream in) throws IOException;
+    }
+
+    private final File file;
+    private final int magic;
+    private final int maxRecordSize;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final CRC32 crc = new CRC32();
+
+    // Guards raf once the log is open, taken by the writer thread and close only
+    private final Object fileLock = new Object();
+    private RandomAccessFile raf;
+    private long length;
+
+    /**
+     * @param maxRecordSize largest kind plus payload accepted, longer records are dropped
+     */
+    RecordLog(File file, int magic, int maxRecordSize) {
+        this.file = file;
+        this.magic = magic;
+        this.maxRecordSize = maxRecordSize;
+    }
+
+    /**
+     * Opens the file and hands every intact record to reader. A missing file, or one that
+     * does not start with the magic number, is replaced by an empty log.
+     */
+    synchronized void open(Reader reader) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        long fileLength = raf.length();
+        if (fileLength < HEADER_SIZE) {
+            reset();
+            return;
+        }
+        FileChannel channel = raf.getChannel();
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+        if (mapped.getInt() != magic) {
+            reset();
+            return;
+        }
+        byte[] record = new byte[maxRecordSize];
+        while (mapped.remaining() >= RECORD_HEADER_SIZE) {
+            int start = mapped.position();
+            int recordLength = mapped.getInt();
+            int checksum = mapped.getInt();
+            if (recordLength <= 1 || recordLength > maxRecordSize || recordLength > mapped.remaining()) {
+                mapped.position(start);
+                break;
+            }
+            mapped.get(record, 0, recordLength);
+            crc.reset();
+            crc.update(record, 0, recordLength);
+            if ((int) crc.getValue() != checksum) {
+                mapped.position(start);
+                break;
+            }
+            reader.read(record[0], new DataInputStream(new ByteArrayInputStream(record, 1, recordLength - 1)));
+        }
+        length = mapped.position();
+        if (length < fileLength) {
+            // Drop the torn tail left by a write that never finished
+            raf.setLength(length);
+        }
+    }
+
+    /**
+     * The record for kind and payload, ready to append or add to a snapshot. Null when it
+     * is larger than maxRecordSize.
+     */
+    synchronized byte[] frame(byte kind, byte[] payload) {
+        int recordLength = 1 + payload.length;
+        if (recordLength > maxRecordSize) {
+            return null;
+        }
+        byte[] bytes = new byte[RECORD_HEADER_SIZE + recordLength];
+        bytes[RECORD_HEADER_SIZE] = kind;
+        System.arraycopy(payload, 0, bytes, RECORD_HEADER_SIZE + 1, payload.length);
+        crc.reset();
+        crc.update(bytes, RECORD_HEADER_SIZE, recordLength);
+        ByteBuffer.wrap(bytes).putInt(recordLength).putInt((int) crc.getValue());
+        return bytes;
+    }
+
+    /**
+     * Queues a record from {@link #frame} to be written at the end of the log.
+     */
+    synchronized void append(final byte[] record) {
+        length += record.length;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (fileLock) {
+                    try {
+                        raf.seek(raf.length());
+                        raf.write(record);
+                    } catch (IOException ignored) {
+                        // The store's state stays correct in memory, a later compaction rewrites the file
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Start of a compacted log, the store writes its framed records after it and passes the
+     * result to {@link #replace}.
+     */
+    ByteArrayOutputStream newSnapshot(int expectedSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(HEADER_SIZE, expectedSize));
+        out.write(ByteBuffer.allocate(HEADER_SIZE).putInt(magic).array(), 0, HEADER_SIZE);
+        return out;
+    }
+
+    /**
+     * Queues replacing the whole log with snapshot.
+     */
+    synchronized void replace(final byte[] snapshot) {
+        length = snapshot.length;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (fileLock) {
+                    try {
+                        replaceWith(snapshot);
+                    } catch (IOException ignored) {
+                        // Tried again with the next compaction
+                    }
+                }
+            }
+        });
+    }
+
+    /** Size of the log on disk, including writes still queued. */
+    synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Waits for queued writes and releases the file.
+     */
+    void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (fileLock) {
+            closeQuietly();
+        }
+    }
+
+    private void execute(Runnable write) {
+        try {
+            writer.execute(write);
+        } catch (RejectedExecutionException ignored) {
+            // Closed, late changes are not persisted
+        }
+    }
+
+    private void reset() throws IOException {
+        raf.setLength(0);
+        raf.writeInt(magic);
+        length = HEADER_SIZE;
+    }
+
+    private void replaceWith(byte[] snapshot) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            out.write(snapshot);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        closeQuietly();
+        boolean renamed = temp.renameTo(file);
+        raf = new RandomAccessFile(file, "rw");
+        if (!renamed) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            raf.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.util.BloomFilter;
+import com.io.usernames.util.LongHashSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Usernames the user has already been shown, so the backend handing one out again does not
+ * put it in front of them twice. Only a 64-bit hash of each trimmed, lower-cased name is
+ * kept, in a {@link LongHashSet} capped at maxSize that forgets the oldest names first.
+ *
+ * The file is [int magic][int count] followed by count hashes, oldest first, rewritten
+ * through a temporary file on save.
+ */
+public class SeenUsernameSet {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static final int MAGIC = 0x554e5331; // "UNS1"
+
+    private final File file;
+    private final LongHashSet hashes;
+    private boolean dirty;
+
+    private SeenUsernameSet(File file, LongHashSet hashes) {
+        this.file = file;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Loads the names saved in file, keeping the newest maxSize of them, or starts empty.
+     */
+    public static SeenUsernameSet open(File file, int maxSize) {
+        LongHashSet hashes = new LongHashSet(maxSize);
+        if (file.exists()) {
+            try {
+                read(file, hashes);
+            } catch (IOException e) {
+                // Start over, at worst a few names show up again
+                hashes.clear();
+            }
+        }
+        return new SeenUsernameSet(file, hashes);
+    }
+
+    public synchronized boolean contains(String username) {
+        return username != null && hashes.contains(key(username));
+    }
+
+    /**
+     * Remembers username as shown.
+     *
+     * @return false if it was already
+     */
+    public synchronized boolean add(String username) {
+        if (username == null || !hashes.add(key(username))) {
+            return false;
+        }
+        dirty = true;
+        return true;
+    }
+
+    public synchronized int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Writes the set to a temporary file and renames it over the saved one.
+     */
+    public void save() throws IOException {
+        long[] snapshot;
+        int count;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = new long[hashes.size()];
+            count = hashes.toArray(snapshot);
+            dirty = false;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(snapshot[i]);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * The same for every variant of a name that only differs in case or surrounding blanks.
+     */
+    private static long key(String username) {
+        return BloomFilter.hash(username.trim());
+    }
+
+    private static void read(File file, LongHashSet hashes) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a seen set: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                hashes.add(in.readLong());
+            }
+        } catch (EOFException e) {
+            // Torn write, keep what was read
+        } finally {
+            in.close();
+        }
+    }
+}
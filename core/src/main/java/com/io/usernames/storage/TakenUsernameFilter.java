@@ -0,0 +1,184 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.util.BloomFilter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Remembers usernames known to be taken on every service in a {@link BloomFilter}, so a
+ * candidate that would only show red X's can be dropped before it is queued for display.
+ * The filter is built from availability results, kept in a file between sessions and can
+ * be seeded from a snapshot built with the same parameters.
+ */
+public class TakenUsernameFilter {
+
+    public static final int DEFAULT_EXPECTED_INSERTIONS = 50000;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+
+    private final File file;
+    private final int maxBytes;
+    private final BloomFilter filter;
+    private boolean dirty;
+
+    private long checkedCount;
+    private long filteredCount;
+
+    private TakenUsernameFilter(File file, int maxBytes, BloomFilter filter) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.filter = filter;
+    }
+
+    /**
+     * Loads the filter saved in file, or starts an empty one when there is none or it was
+     * created with other parameters.
+     */
+    public static TakenUsernameFilter open(File file, int expectedInsertions, double falsePositiveRate,
+                                           int maxBytes) {
+        BloomFilter empty = BloomFilter.create(expectedInsertions, falsePositiveRate, maxBytes);
+        BloomFilter filter = empty;
+        if (file.exists()) {
+            try {
+                BloomFilter saved = read(new FileInputStream(file), maxBytes);
+                if (saved.isCompatible(empty)) {
+                    filter = saved;
+                }
+            } catch (IOException ignored) {
+                // Start over with an empty filter
+            }
+        }
+        return new TakenUsernameFilter(file, maxBytes, filter);
+    }
+
+    /**
+     * Records usernameModel if it is taken everywhere.
+     *
+     * @return true if the candidate should not be shown, either because its own results say
+     * it is taken everywhere or because the filter has seen it before
+     */
+    public synchronized boolean reject(UsernameModel usernameModel) {
+        String username = usernameModel.getUsername();
+        if (username == null) {
+            return false;
+        }
+        checkedCount++;
+        if (isTakenEverywhere(usernameModel)) {
+            put(username);
+            filteredCount++;
+            return true;
+        }
+        // Fresh results showing a free service win over the filter
+        if (usernameModel.getAvailableMask() == 0 && filter.mightContain(username)) {
+            filteredCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records usernameModel if its results say it is taken everywhere, e.g. once the client
+     * side checks filled in the rest.
+     */
+    public synchronized void record(UsernameModel usernameModel) {
+        if (usernameModel.getUsername() != null && isTakenEverywhere(usernameModel)) {
+            put(usernameModel.getUsername());
+        }
+    }
+
+    public synchronized boolean mightBeTaken(String username) {
+        return filter.mightContain(username);
+    }
+
+    /**
+     * Merges a downloaded snapshot into the filter.
+     */
+    public synchronized void seed(InputStream snapshot) throws IOException {
+        BloomFilter seed = read(snapshot, maxBytes);
+        if (!seed.isCompatible(filter)) {
+            throw new IOException("Snapshot was built with other parameters");
+        }
+        filter.merge(seed);
+        dirty = true;
+    }
+
+    /**
+     * Writes the filter to a temporary file and renames it over the saved one. Only copying
+     * the bits holds the lock, the disk work does not hold up {@link #reject} or {@link #record}.
+     */
+    public void save() throws IOException {
+        BloomFilter snapshot;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = filter.copy();
+            dirty = false;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                snapshot.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+    }
+
+    public synchronized long getCheckedCount() {
+        return checkedCount;
+    }
+
+    /** Number of candidates dropped since the filter was opened. */
+    public synchronized long getFilteredCount() {
+        return filteredCount;
+    }
+
+    public synchronized int getSizeBytes() {
+        return filter.getSizeBytes();
+    }
+
+    public synchronized double getExpectedFalsePositiveRate() {
+        return filter.getExpectedFalsePositiveRate();
+    }
+
+    private void put(String username) {
+        if (!filter.mightContain(username)) {
+            filter.put(username);
+            dirty = true;
+        }
+    }
+
+    private static boolean isTakenEverywhere(UsernameModel usernameModel) {
+        return usernameModel.getKnownMask() == ServiceRegistry.ALL_MASK
+                && usernameModel.getAvailableMask() == 0;
+    }
+
+    private static BloomFilter read(InputStream in, int maxBytes) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        try {
+            return BloomFilter.readFrom(data, maxBytes);
+        } finally {
+            data.close();
+        }
+    }
+}
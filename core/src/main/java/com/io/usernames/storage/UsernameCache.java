@@ -0,0 +1,171 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.UsernameModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Persistent cache of fetched usernames so a cold start can show something before the first
+ * network response. It is a {@link RecordLog} whose records are a kind, saying whether the
+ * username was fetched or shown, and its {@link UsernameModelCodec} form. Once the log grows
+ * past maxBytes it is compacted to only the last shown username and the newest unseen
+ * candidates.
+ *
+ * Reads come from memory, appends are written on the log's background thread.
+ */
+public class UsernameCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024;
+
+    private static final int MAGIC = 0x554e4332; // "UNC2"
+    private static final int MAX_RECORD_SIZE = 4096;
+
+    private static final byte KIND_FETCHED = 1;
+    private static final byte KIND_SHOWN = 2;
+
+    private final long maxBytes;
+    private final RecordLog log;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+
+    private UsernameModel lastShown;
+    private final LinkedHashMap<String, UsernameModel> unseen = new LinkedHashMap<String, UsernameModel>();
+
+    public UsernameCache(File file, long maxBytes) throws IOException {
+        this.maxBytes = maxBytes;
+        this.log = new RecordLog(file, MAGIC, MAX_RECORD_SIZE);
+        log.open(new RecordLog.Reader() {
+            @Override
+            public void read(byte kind, DataInputStream in) throws IOException {
+                apply(kind, UsernameModelCodec.read(in));
+            }
+        });
+    }
+
+    /** The username that was on screen last, or null on a first launch. */
+    public synchronized UsernameModel getLastShown() {
+        return lastShown;
+    }
+
+    public synchronized int getUnseenCount() {
+        return unseen.size();
+    }
+
+    /**
+     * Removes and returns up to max fetched usernames that were never shown, oldest first.
+     */
+    public synchronized List<UsernameModel> takeUnseen(int max) {
+        List<UsernameModel> taken = new ArrayList<UsernameModel>(Math.min(max, unseen.size()));
+        Iterator<UsernameModel> iterator = unseen.values().iterator();
+        while (taken.size() < max && iterator.hasNext()) {
+            taken.add(iterator.next());
+            iterator.remove();
+        }
+        return taken;
+    }
+
+    public synchronized void putFetched(UsernameModel usernameModel) {
+        if (usernameModel == null || usernameModel.getUsername() == null) {
+            return;
+        }
+        unseen.put(usernameModel.getUsername(), usernameModel);
+        append(KIND_FETCHED, usernameModel);
+    }
+
+    public synchronized void markShown(UsernameModel usernameModel) {
+        if (usernameModel == null || usernameModel.getUsername() == null) {
+            return;
+        }
+        unseen.remove(usernameModel.getUsername());
+        lastShown = usernameModel;
+        append(KIND_SHOWN, usernameModel);
+    }
+
+    /** Size of the log on disk, including appends still queued on the writer. */
+    public long getSizeBytes() {
+        return log.getLength();
+    }
+
+    /**
+     * Waits for pending appends and releases the file.
+     */
+    public void close() {
+        log.close();
+    }
+
+    private void apply(byte kind, UsernameModel usernameModel) {
+        if (usernameModel == null || usernameModel.getUsername() == null) {
+            return;
+        }
+        if (kind == KIND_SHOWN) {
+            unseen.remove(usernameModel.getUsername());
+            lastShown = usernameModel;
+        } else if (kind == KIND_FETCHED) {
+            unseen.remove(usernameModel.getUsername());
+            unseen.put(usernameModel.getUsername(), usernameModel);
+        }
+    }
+
+    private void append(byte kind, UsernameModel usernameModel) {
+        byte[] record = encode(kind, usernameModel);
+        if (record == null) {
+            return;
+        }
+        if (log.getLength() + record.length > maxBytes) {
+            log.replace(snapshot());
+        } else {
+            log.append(record);
+        }
+    }
+
+    /**
+     * The framed record, null when it cannot be encoded or is too large to keep.
+     */
+    private byte[] encode(byte kind, UsernameModel usernameModel) {
+        buffer.reset();
+        try {
+            UsernameModelCodec.write(bufferOut, usernameModel);
+        } catch (IOException e) {
+            // Not thrown by an in-memory stream
+            return null;
+        }
+        return log.frame(kind, buffer.toByteArray());
+    }
+
+    /**
+     * Encodes the live state as a fresh log, dropping the oldest unseen entries until it fits
+     * in half of maxBytes so compaction does not run again straight away.
+     */
+    private byte[] snapshot() {
+        List<byte[]> records = new ArrayList<byte[]>(unseen.size() + 1);
+        byte[] shown = lastShown != null ? encode(KIND_SHOWN, lastShown) : null;
+        int size = shown != null ? shown.length : 0;
+        List<UsernameModel> candidates = new ArrayList<UsernameModel>(unseen.values());
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            byte[] record = encode(KIND_FETCHED, candidates.get(i));
+            if (record == null || size + record.length > maxBytes / 2) {
+                unseen.remove(candidates.get(i).getUsername());
+                continue;
+            }
+            records.add(record);
+            size += record.length;
+        }
+        ByteArrayOutputStream out = log.newSnapshot(size + 4);
+        if (shown != null) {
+            out.write(shown, 0, shown.length);
+        }
+        // Collected newest first, written oldest first
+        for (int i = records.size() - 1; i >= 0; i--) {
+            out.write(records.get(i), 0, records.get(i).length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,261 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Writes usernames with their availability on every service to a file, as CSV or as one
+ * JSON object per line. Records are read from storage a chunk at a time and encoded straight
+ * into a fixed buffer that is written to a {@link FileChannel} whenever it fills up, so
+ * neither the list nor the output is ever held in memory as a whole.
+ *
+ * Every record has the username, where it came from ("history" or "favorite") and for each
+ * service in {@link ServiceRegistry} order whether it is available, taken or unknown:
+ *
+ *   username,source,url,facebook,twitter,github,linkedin
+ *   frobnik,history,available,taken,,available,taken
+ *
+ *   {"username":"frobnik","source":"history","url":true,"facebook":false,"twitter":null,...}
+ */
+public class UsernameExporter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final String SOURCE_HISTORY = "history";
+    public static final String SOURCE_FAVORITE = "favorite";
+
+    private static final int CHUNK_SIZE = 256;
+    // Most bytes one char can take once escaped, "\\u001f" in JSON
+    private static final int MAX_CHAR_BYTES = 6;
+
+    public enum Format {
+        CSV("csv", "text/csv"),
+        NDJSON("ndjson", "application/x-ndjson");
+
+        public final String extension;
+        public final String mimeType;
+
+        Format(String extension, String mimeType) {
+            this.extension = extension;
+            this.mimeType = mimeType;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Format format;
+    private final ByteBuffer buffer;
+    private int recordCount;
+
+    public UsernameExporter(FileChannel channel, Format format, int bufferSize) {
+        this.channel = channel;
+        this.format = format;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(1024, bufferSize));
+    }
+
+    /**
+     * Exports the history of every session followed by the favorites into file, replacing it.
+     *
+     * @param favorites may be null
+     * @return the number of records written
+     */
+    public static int export(File file, Format format, UsernameHistory.Snapshot history,
+                             FavoritesStore favorites) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            UsernameExporter exporter = new UsernameExporter(out.getChannel(), format, DEFAULT_BUFFER_SIZE);
+            exporter.writeHeader();
+            for (int position = 0; position < history.size(); ) {
+                List<UsernameModel> chunk = history.read(position, CHUNK_SIZE);
+                for (int i = 0; i < chunk.size(); i++) {
+                    exporter.write(chunk.get(i), SOURCE_HISTORY);
+                }
+                position += chunk.size();
+            }
+            if (favorites != null) {
+                List<FavoritesStore.Favorite> chunk;
+                for (int from = 0; !(chunk = favorites.list(from, CHUNK_SIZE)).isEmpty(); from += chunk.size()) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        exporter.write(chunk.get(i).toUsernameModel(), SOURCE_FAVORITE);
+                    }
+                }
+            }
+            exporter.flush();
+            return exporter.getRecordCount();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * The CSV header line, nothing for NDJSON.
+     */
+    public void writeHeader() throws IOException {
+        if (format != Format.CSV) {
+            return;
+        }
+        putAscii("username,source");
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            putByte(',');
+            putAscii(ServiceRegistry.nameOf(id));
+        }
+        putByte('\n');
+    }
+
+    public void write(UsernameModel usernameModel, String source) throws IOException {
+        if (usernameModel == null || usernameModel.getUsername() == null) {
+            return;
+        }
+        if (format == Format.CSV) {
+            writeCsv(usernameModel, source);
+        } else {
+            writeJson(usernameModel, source);
+        }
+        recordCount++;
+    }
+
+    /**
+     * Writes out whatever is still buffered.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    private void writeCsv(UsernameModel usernameModel, String source) throws IOException {
+        putCsvField(usernameModel.getUsername());
+        putByte(',');
+        putAscii(source);
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            putByte(',');
+            if (usernameModel.isKnown(id)) {
+                putAscii(usernameModel.isAvailable(id) ? "available" : "taken");
+            }
+        }
+        putByte('\n');
+    }
+
+    private void writeJson(UsernameModel usernameModel, String source) throws IOException {
+        putAscii("{\"username\":");
+        putJsonString(usernameModel.getUsername());
+        putAscii(",\"source\":\"");
+        putAscii(source);
+        putByte('"');
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            putAscii(",\"");
+            putAscii(ServiceRegistry.nameOf(id));
+            putAscii("\":");
+            if (usernameModel.isKnown(id)) {
+                putAscii(usernameModel.isAvailable(id) ? "true" : "false");
+            } else {
+                putAscii("null");
+            }
+        }
+        putAscii("}\n");
+    }
+
+    private void putCsvField(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            putUtf8(value);
+            return;
+        }
+        putByte('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                putByte('"');
+            }
+            i += putChar(value, i) - 1;
+        }
+        putByte('"');
+    }
+
+    private void putJsonString(String value) throws IOException {
+        putByte('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                putByte('\\');
+                putByte(c);
+            } else if (c < 0x20) {
+                ensure(MAX_CHAR_BYTES);
+                buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put((byte) Character.forDigit(c >> 4, 16)).put((byte) Character.forDigit(c & 0xF, 16));
+            } else {
+                i += putChar(value, i) - 1;
+            }
+        }
+        putByte('"');
+    }
+
+    private void putUtf8(String value) throws IOException {
+        for (int i = 0; i < value.length(); ) {
+            i += putChar(value, i);
+        }
+    }
+
+    /**
+     * Encodes the code point at index as UTF-8.
+     *
+     * @return the number of chars it took, 2 for a surrogate pair
+     */
+    private int putChar(String value, int index) throws IOException {
+        int c = value.codePointAt(index);
+        ensure(4);
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            // A lone half of a pair has no encoding
+            buffer.put((byte) '?');
+        } else if (c < 0x10000) {
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else {
+            buffer.put((byte) (0xF0 | (c >> 18)));
+            buffer.put((byte) (0x80 | ((c >> 12) & 0x3F)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+        return Character.charCount(c);
+    }
+
+    private void putAscii(String value) throws IOException {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer.put((byte) value.charAt(i));
+        }
+    }
+
+    private void putByte(int b) throws IOException {
+        ensure(1);
+        buffer.put((byte) b);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
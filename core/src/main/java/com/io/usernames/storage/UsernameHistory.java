@@ -0,0 +1,307 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.util.MemoryPressure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * List of every username shown in a session that only keeps the most recent windowSize
+ * entries on the heap. Every entry is written to a {@link HistoryStore} as it is added, the
+ * older ones are then dropped from the heap and read back a page at a time when something
+ * asks for them again, e.g. the user swiping backwards. The store keeps the entries of
+ * earlier sessions too, the list starts after them.
+ *
+ * Entries cannot be removed, the history only grows.
+ *
+ * Under memory pressure the cached pages are dropped and, once the app is in the
+ * background, everything before the visible position is paged out. Only the visible entry
+ * and its neighbours, the pages the pager keeps, stay on the heap. The window grows back
+ * with new entries.
+ */
+public class UsernameHistory extends AbstractList<UsernameModel> implements MemoryPressure.Trimmable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 32;
+    private static final int PAGE_SIZE = 8;
+    private static final int MAX_CACHED_PAGES = 2;
+    // The pager keeps the current page and one on either side
+    private static final int VISIBLE_NEIGHBOURS = 1;
+
+    private final HistoryStore store;
+    // Store position of this session's first entry
+    private final int base;
+    private final int windowSize;
+    private final List<UsernameModel> window;
+    // Entries of this session no longer in the window
+    private int pagedCount;
+    // Entries of this session in the store. After a failed write the rest stay on the heap.
+    private int storedCount;
+    // Entries with an availability check running, mapped to their store position or to -1
+    // when they could not be stored
+    private final IdentityHashMap<UsernameModel, Integer> checking = new IdentityHashMap<UsernameModel, Integer>();
+    // The pager's current item, -1 for the last entry
+    private int visiblePosition = -1;
+
+    private final LinkedHashMap<Integer, List<UsernameModel>> pageCache =
+            new LinkedHashMap<Integer, List<UsernameModel>>(MAX_CACHED_PAGES + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<UsernameModel>> eldest) {
+                    return size() > MAX_CACHED_PAGES;
+                }
+            };
+
+    /**
+     * Starts a session after whatever store already holds.
+     *
+     * @param store where entries are written to, or null to keep everything in memory
+     */
+    public UsernameHistory(HistoryStore store, int windowSize) {
+        this(store, store != null ? store.size() : 0, windowSize);
+    }
+
+    /**
+     * Continues a session whose first entry is at base in store, the entries stored from
+     * there on start out paged out. When the store trimmed the start of the session, it
+     * continues from the first entry left.
+     */
+    public UsernameHistory(HistoryStore store, int base, int windowSize) {
+        this.store = store;
+        int size = store != null ? store.size() : 0;
+        // Anything before the store's first entry was trimmed
+        this.base = Math.max(store != null ? store.getFirst() : 0, Math.min(base, size));
+        this.pagedCount = size - this.base;
+        this.storedCount = pagedCount;
+        this.windowSize = Math.max(1, windowSize);
+        this.window = new ArrayList<UsernameModel>(this.windowSize + 1);
+    }
+
+    /**
+     * Returns null when a paged out entry could not be read back from the store, the caller
+     * shows an error in its place. The read is tried again on the next call.
+     */
+    @Override
+    public UsernameModel get(int location) {
+        if (location < 0 || location >= size()) {
+            throw new IndexOutOfBoundsException("Location " + location + ", size " + size());
+        }
+        if (location >= pagedCount) {
+            return window.get(location - pagedCount);
+        }
+        int page = location / PAGE_SIZE;
+        List<UsernameModel> entries = pageCache.get(page);
+        if (entries == null) {
+            try {
+                entries = readPage(page);
+            } catch (IOException e) {
+                return null;
+            }
+            pageCache.put(page, entries);
+        }
+        return entries.get(location - page * PAGE_SIZE);
+    }
+
+    @Override
+    public int size() {
+        return pagedCount + window.size();
+    }
+
+    @Override
+    public boolean add(UsernameModel usernameModel) {
+        window.add(usernameModel);
+        modCount++;
+        // Positions in the store have to match the list, so nothing is written after a failure
+        if (store != null && storedCount == size() - 1) {
+            try {
+                store.append(usernameModel);
+                storedCount++;
+            } catch (IOException ignored) {
+                // Kept on the heap from here on
+            }
+        }
+        while (window.size() > windowSize && pagedCount < storedCount) {
+            pageOut();
+        }
+        return true;
+    }
+
+    /**
+     * Marks an entry of this list as being checked, so {@link #update} can write the answers
+     * to the store even after it was paged out. Ended with {@link #finishCheck}.
+     */
+    public void startCheck(UsernameModel usernameModel) {
+        for (int i = window.size() - 1; i >= 0; i--) {
+            if (window.get(i) == usernameModel) {
+                int location = pagedCount + i;
+                checking.put(usernameModel, location < storedCount ? base + location : -1);
+                return;
+            }
+        }
+    }
+
+    public void finishCheck(UsernameModel usernameModel) {
+        checking.remove(usernameModel);
+    }
+
+    /**
+     * Writes the masks of an entry being checked to the store. Returns the copy of the entry
+     * a cached page holds once it was paged out, which the caller refreshes as well, or null
+     * when there is none.
+     */
+    public UsernameModel update(UsernameModel usernameModel) {
+        Integer position = checking.get(usernameModel);
+        if (position == null || position < 0) {
+            return null;
+        }
+        try {
+            store.update(position, usernameModel);
+        } catch (IOException e) {
+            return null;
+        }
+        int location = position - base;
+        if (location >= pagedCount) {
+            // Still the instance in the window
+            return null;
+        }
+        List<UsernameModel> entries = pageCache.get(location / PAGE_SIZE);
+        if (entries == null) {
+            return null;
+        }
+        UsernameModel copy = entries.get(location % PAGE_SIZE);
+        copy.setMasks(usernameModel.getKnownMask(), usernameModel.getAvailableMask());
+        return copy;
+    }
+
+    /** Number of entries currently held on the heap. */
+    public int getWindowCount() {
+        return window.size();
+    }
+
+    public int getPagedCount() {
+        return pagedCount;
+    }
+
+    /**
+     * Store position of this session's first entry, to continue the session from after the
+     * process was killed. -1 when the store does not hold the whole session.
+     */
+    public int getStoreBase() {
+        return store != null && storedCount == size() ? base : -1;
+    }
+
+    /**
+     * A view of every entry the store holds, earlier sessions included, that another thread can
+     * read while this list keeps changing. Only entries that could not be stored are copied.
+     * The store stays open for it until it is closed, even once this list was.
+     */
+    public Snapshot snapshot() {
+        if (store != null && !store.retain()) {
+            throw new IllegalStateException("History is closed");
+        }
+        int unstored = size() - storedCount;
+        return new Snapshot(store, store != null ? store.getFirst() : 0, base + storedCount,
+                new ArrayList<UsernameModel>(window.subList(window.size() - unstored, window.size())));
+    }
+
+    /**
+     * The entry on screen, trimming keeps it and its neighbours on the heap.
+     */
+    public void setVisiblePosition(int position) {
+        visiblePosition = position;
+    }
+
+    @Override
+    public void trim(int level) {
+        int visible = visiblePosition >= 0 && visiblePosition < size() ? visiblePosition : size() - 1;
+        int keepFrom = Math.max(0, visible - VISIBLE_NEIGHBOURS);
+        int keepTo = Math.min(size() - 1, visible + VISIBLE_NEIGHBOURS);
+        if (level >= MemoryPressure.TRIM_RUNNING_MODERATE) {
+            // Only the pages holding visible entries that were already paged out
+            int firstPage = keepFrom / PAGE_SIZE;
+            int lastPage = keepTo >= 0 && keepTo < pagedCount ? keepTo / PAGE_SIZE : -1;
+            Iterator<Integer> pages = pageCache.keySet().iterator();
+            while (pages.hasNext()) {
+                int page = pages.next();
+                if (page < firstPage || page > lastPage) {
+                    pages.remove();
+                }
+            }
+        }
+        if (level >= MemoryPressure.TRIM_BACKGROUND) {
+            while (pagedCount < keepFrom && pagedCount < storedCount) {
+                pageOut();
+            }
+        }
+    }
+
+    public void close() {
+        pageCache.clear();
+        checking.clear();
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    public static class Snapshot implements Closeable {
+        private final HistoryStore store;
+        // Store position of the first entry
+        private final int first;
+        private final int storedCount;
+        private final List<UsernameModel> unstored;
+
+        Snapshot(HistoryStore store, int first, int storedEnd, List<UsernameModel> unstored) {
+            this.store = store;
+            this.first = first;
+            this.storedCount = storedEnd - first;
+            this.unstored = unstored;
+        }
+
+        public int size() {
+            return storedCount + unstored.size();
+        }
+
+        /**
+         * Up to length entries from position on, stored ones in one read of the store.
+         */
+        public List<UsernameModel> read(int position, int length) throws IOException {
+            length = Math.min(length, size() - position);
+            if (length <= 0) {
+                return Collections.emptyList();
+            }
+            if (position >= storedCount) {
+                return unstored.subList(position - storedCount, position - storedCount + length);
+            }
+            // A read never crosses from the store into the heap, the caller asks again
+            return store.read(first + position, Math.min(length, storedCount - position));
+        }
+
+        @Override
+        public void close() {
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
+
+    private List<UsernameModel> readPage(int page) throws IOException {
+        return store.read(base + page * PAGE_SIZE, Math.min(PAGE_SIZE, pagedCount - page * PAGE_SIZE));
+    }
+
+    /**
+     * Drops the oldest entry of the window, it is already in the store.
+     */
+    private void pageOut() {
+        window.remove(0);
+        // The page this entry lands on may be cached without it
+        pageCache.remove(pagedCount / PAGE_SIZE);
+        pagedCount++;
+    }
+}
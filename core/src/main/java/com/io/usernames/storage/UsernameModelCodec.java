@@ -0,0 +1,86 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.UsernameModel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary form of a {@link UsernameModel} used by the on-disk stores.
+ */
+public final class UsernameModelCodec {
+
+    private static final int FLAG_PRESENT = 1;
+    private static final int FLAG_USERNAME = 1 << 1;
+
+    private UsernameModelCodec() {
+    }
+
+    public static void write(DataOutput out, UsernameModel usernameModel) throws IOException {
+        if (usernameModel == null) {
+            out.writeByte(0);
+            return;
+        }
+        String username = usernameModel.getUsername();
+        out.writeByte(FLAG_PRESENT | (username != null ? FLAG_USERNAME : 0));
+        if (username != null) {
+            out.writeUTF(username);
+        }
+        // ServiceRegistry.COUNT fits in a byte
+        out.writeByte(usernameModel.getKnownMask());
+        out.writeByte(usernameModel.getAvailableMask());
+    }
+
+    public static UsernameModel read(DataInput in) throws IOException {
+        int flags = in.readUnsignedByte();
+        if ((flags & FLAG_PRESENT) == 0) {
+            return null;
+        }
+        UsernameModel usernameModel = new UsernameModel();
+        if ((flags & FLAG_USERNAME) != 0) {
+            usernameModel.setUsername(in.readUTF());
+        }
+        int knownMask = in.readUnsignedByte();
+        usernameModel.setMasks(knownMask, in.readUnsignedByte());
+        return usernameModel;
+    }
+
+    /**
+     * Packs usernameModels into one array, e.g. for a saved instance state Bundle.
+     */
+    public static byte[] toBytes(List<UsernameModel> usernameModels) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * usernameModels.size() + 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(usernameModels.size());
+            for (UsernameModel usernameModel : usernameModels) {
+                write(out, usernameModel);
+            }
+            out.close();
+        } catch (IOException e) {
+            // Not thrown by an in-memory stream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<UsernameModel> fromBytes(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int count = in.readInt();
+        if (count < 0 || count > bytes.length) {
+            throw new IOException("Bad count " + count);
+        }
+        List<UsernameModel> usernameModels = new ArrayList<UsernameModel>(count);
+        for (int i = 0; i < count; i++) {
+            usernameModels.add(read(in));
+        }
+        return usernameModels;
+    }
+}
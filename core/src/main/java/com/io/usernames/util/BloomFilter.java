@@ -0,0 +1,153 @@
+package com.io.usernames.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Fixed-size Bloom filter over case-insensitive strings. Bits live in a long[]; the k probe
+ * positions are derived from one 64-bit hash by double hashing, so a lookup allocates
+ * nothing.
+ */
+public class BloomFilter {
+
+    private static final int MAX_HASHES = 16;
+    private static final double LN2 = Math.log(2);
+
+    private final long[] words;
+    private final long bitCount;
+    private final int hashCount;
+    private long insertions;
+
+    BloomFilter(long[] words, int hashCount) {
+        this.words = words;
+        this.bitCount = words.length * 64L;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Sizes a filter for expectedInsertions at falsePositiveRate, but never larger than
+     * maxBytes. When the cap wins the real false positive rate ends up higher than asked.
+     */
+    public static BloomFilter create(int expectedInsertions, double falsePositiveRate, int maxBytes) {
+        expectedInsertions = Math.max(1, expectedInsertions);
+        double bits = -expectedInsertions * Math.log(falsePositiveRate) / (LN2 * LN2);
+        long wordCount = (long) Math.ceil(bits / 64);
+        wordCount = Math.max(1, Math.min(wordCount, Math.max(1, maxBytes / 8)));
+        int hashCount = (int) Math.round(wordCount * 64.0 / expectedInsertions * LN2);
+        hashCount = Math.max(1, Math.min(MAX_HASHES, hashCount));
+        return new BloomFilter(new long[(int) wordCount], hashCount);
+    }
+
+    public void put(CharSequence value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            words[(int) (index >>> 6)] |= 1L << index;
+        }
+        insertions++;
+    }
+
+    public boolean mightContain(CharSequence value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((words[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** An independent filter with the same bits, e.g. to write out without holding a lock. */
+    public BloomFilter copy() {
+        BloomFilter copy = new BloomFilter(words.clone(), hashCount);
+        copy.insertions = insertions;
+        return copy;
+    }
+
+    public boolean isCompatible(BloomFilter other) {
+        return other.words.length == words.length && other.hashCount == hashCount;
+    }
+
+    /**
+     * Adds everything in other, which must have been created with the same size.
+     */
+    public void merge(BloomFilter other) {
+        if (!isCompatible(other)) {
+            throw new IllegalArgumentException("Filters differ in size");
+        }
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+        insertions += other.insertions;
+    }
+
+    public int getSizeBytes() {
+        return words.length * 8;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public long getInsertions() {
+        return insertions;
+    }
+
+    /** False positive rate expected for the number of insertions so far. */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashCount * (double) insertions / bitCount), hashCount);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(words.length);
+        out.writeByte(hashCount);
+        out.writeLong(insertions);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    public static BloomFilter readFrom(DataInput in, int maxBytes) throws IOException {
+        int wordCount = in.readInt();
+        if (wordCount <= 0 || wordCount > Math.max(1, maxBytes / 8)) {
+            throw new IOException("Filter of " + wordCount + " words exceeds the cap");
+        }
+        int hashCount = in.readUnsignedByte();
+        if (hashCount < 1 || hashCount > MAX_HASHES) {
+            throw new IOException("Bad hash count " + hashCount);
+        }
+        long insertions = in.readLong();
+        long[] words = new long[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            words[i] = in.readLong();
+        }
+        BloomFilter filter = new BloomFilter(words, hashCount);
+        filter.insertions = insertions;
+        return filter;
+    }
+
+    /**
+     * 64-bit FNV-1a over the lower-cased chars, finished with the MurmurHash3 mixer so both
+     * halves are usable as independent hashes. Also the key {@link LongHashSet}s of usernames
+     * are built on.
+     */
+    public static long hash(CharSequence value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            hash ^= Character.toLowerCase(value.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,50 @@
+package com.io.usernames.util;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Holds a value that is built on first use. {@link #prime(Executor)} starts building it on
+ * a background thread ahead of time; a caller that asks for it before that finishes waits
+ * for the one build in progress instead of starting a second one. A null result is kept
+ * like any other, create is not retried.
+ */
+public abstract class Lazy<T> {
+
+    private volatile boolean created;
+    private T value;
+
+    protected abstract T create();
+
+    public final T get() {
+        if (created) {
+            return value;
+        }
+        synchronized (this) {
+            if (!created) {
+                value = create();
+                created = true;
+            }
+            return value;
+        }
+    }
+
+    public final boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * The value if it was built already, otherwise null without waiting or building it.
+     */
+    public final T peek() {
+        return created ? value : null;
+    }
+
+    public final void prime(Executor executor) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                get();
+            }
+        });
+    }
+}
@@ -0,0 +1,69 @@
+package com.io.usernames.util;
+
+/**
+ * The level check and "{}" formatting behind the app's UsernameLog, kept free of Android so
+ * it can be run on a plain JVM. A call below the level costs one comparison: the message is
+ * only formatted once it is going to be written, the one and two argument forms need no
+ * varargs array and the long ones box nothing. Priorities are the android.util.Log ones.
+ */
+public abstract class LogGate {
+
+    // Lowest priority anything is written at
+    private volatile int level;
+
+    protected LogGate(int level) {
+        this.level = level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public boolean isLoggable(int priority) {
+        return priority >= level;
+    }
+
+    public final void log(int priority, String tag, String message) {
+        if (priority >= level) {
+            write(priority, tag, message);
+        }
+    }
+
+    public final void log(int priority, String tag, String format, Object arg1, Object arg2, int argCount) {
+        if (priority >= level) {
+            write(priority, tag, format(format, arg1, arg2, argCount));
+        }
+    }
+
+    public final void log(int priority, String tag, String format, long arg1, long arg2, int argCount) {
+        if (priority >= level) {
+            write(priority, tag, format(format, arg1, arg2, argCount));
+        }
+    }
+
+    /**
+     * Called for every record at or above the level, the implementation may apply finer
+     * levels of its own.
+     */
+    protected abstract void write(int priority, String tag, String message);
+
+    /**
+     * Replaces the first argCount "{}" in format with the arguments, in order.
+     */
+    public static String format(String format, Object arg1, Object arg2, int argCount) {
+        if (format == null) {
+            return "null";
+        }
+        StringBuilder builder = new StringBuilder(format.length() + 32);
+        int from = 0;
+        for (int i = 0; i < argCount; i++) {
+            int at = format.indexOf("{}", from);
+            if (at < 0) {
+                break;
+            }
+            builder.append(format, from, at).append(i == 0 ? arg1 : arg2);
+            from = at + 2;
+        }
+        return builder.append(format, from, format.length()).toString();
+    }
+}
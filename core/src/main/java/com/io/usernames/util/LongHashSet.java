@@ -0,0 +1,133 @@
+package com.io.usernames.util;
+
+import java.util.Arrays;
+
+/**
+ * Set of at most maxSize longs that forgets its oldest entries to make room for new ones.
+ * Keys live in a linear probing table of twice maxSize, rounded up to a power of two, and
+ * a ring of the same keys in insertion order decides which one goes next. Nothing is boxed,
+ * contains and add allocate nothing.
+ *
+ * Keys are expected to be well mixed hashes, the table uses their low bits as they are, and
+ * 0 shares its slot with one other arbitrary value.
+ */
+public class LongHashSet {
+
+    // Marks a free slot, a key of 0 is stored as ZERO_KEY instead
+    private static final long EMPTY = 0;
+    private static final long ZERO_KEY = 0x9e3779b97f4a7c15L;
+
+    private final long[] table;
+    private final int mask;
+    private final long[] ring;
+    private int head;
+    private int size;
+
+    public LongHashSet(int maxSize) {
+        maxSize = Math.max(1, maxSize);
+        int capacity = Integer.highestOneBit(Math.max(2, maxSize * 2 - 1)) << 1;
+        table = new long[capacity];
+        mask = capacity - 1;
+        ring = new long[maxSize];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return ring.length;
+    }
+
+    public boolean contains(long key) {
+        key = key == EMPTY ? ZERO_KEY : key;
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            long slot = table[i];
+            if (slot == key) {
+                return true;
+            }
+            if (slot == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds key, evicting the oldest key when the set is full.
+     *
+     * @return false if key was already there, its age is left as it was
+     */
+    public boolean add(long key) {
+        key = key == EMPTY ? ZERO_KEY : key;
+        int i = index(key);
+        for (; table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == key) {
+                return false;
+            }
+        }
+        if (size == ring.length) {
+            long oldest = ring[head];
+            ring[head] = key;
+            head = head + 1 == ring.length ? 0 : head + 1;
+            delete(oldest);
+            // The deletion may have shifted the free slot found above, probe again
+            i = index(key);
+            while (table[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+        } else {
+            int tail = head + size;
+            ring[tail < ring.length ? tail : tail - ring.length] = key;
+            size++;
+        }
+        table[i] = key;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Copies the keys into into, oldest first, and returns how many there are. into must
+     * hold at least {@link #size()} keys.
+     */
+    public int toArray(long[] into) {
+        for (int i = 0; i < size; i++) {
+            int at = head + i;
+            into[i] = ring[at < ring.length ? at : at - ring.length];
+        }
+        return size;
+    }
+
+    private int index(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * Removes key and moves later entries of its probe run back, so lookups never need
+     * tombstones.
+     */
+    private void delete(long key) {
+        int i = index(key);
+        while (table[i] != key) {
+            if (table[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            int home = index(table[j]);
+            // Move j into the hole unless its home lies cyclically in (hole, j]
+            boolean stays = hole <= j ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (!stays) {
+                table[hole] = table[j];
+                hole = j;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+}
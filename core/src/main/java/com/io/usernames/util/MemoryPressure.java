@@ -0,0 +1,74 @@
+package com.io.usernames.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Passes the system's requests to trim memory on to every cache and pool that registered.
+ * Levels have the values of android.content.ComponentCallbacks2, the application forwards
+ * onTrimMemory and onLowMemory here, and nothing else in here depends on Android, so a
+ * trim can be driven from a plain JVM by calling {@link #trim(int)}.
+ *
+ * What gets released grows with the level, each registrant decides with {@code >=}:
+ *
+ *   RUNNING_MODERATE and up  drop anything that is read back from disk cheaply
+ *   RUNNING_LOW and up       drop what can be fetched or inflated again, e.g. pooled views
+ *   UI_HIDDEN and up         flush pending queues to disk, the process may go any time now
+ *   BACKGROUND and up        shrink in-memory state to what is on screen
+ */
+public class MemoryPressure {
+
+    public static final int TRIM_RUNNING_MODERATE = 5;
+    public static final int TRIM_RUNNING_LOW = 10;
+    public static final int TRIM_RUNNING_CRITICAL = 15;
+    public static final int TRIM_UI_HIDDEN = 20;
+    public static final int TRIM_BACKGROUND = 40;
+    public static final int TRIM_MODERATE = 60;
+    public static final int TRIM_COMPLETE = 80;
+
+    public interface Trimmable {
+        /**
+         * Called on the thread the trim was requested on, the main thread on Android.
+         */
+        void trim(int level);
+    }
+
+    private final CopyOnWriteArrayList<Trimmable> trimmables = new CopyOnWriteArrayList<Trimmable>();
+    private volatile int lastLevel;
+    private volatile long trimCount;
+
+    public void register(Trimmable trimmable) {
+        trimmables.addIfAbsent(trimmable);
+    }
+
+    public void unregister(Trimmable trimmable) {
+        trimmables.remove(trimmable);
+    }
+
+    public void trim(int level) {
+        lastLevel = level;
+        trimCount++;
+        for (Trimmable trimmable : trimmables) {
+            trimmable.trim(level);
+        }
+    }
+
+    /**
+     * The pre ICS callback, handled as the most severe level.
+     */
+    public void lowMemory() {
+        trim(TRIM_COMPLETE);
+    }
+
+    public int getRegisteredCount() {
+        return trimmables.size();
+    }
+
+    /** The level of the latest trim, 0 before the first one. */
+    public int getLastLevel() {
+        return lastLevel;
+    }
+
+    public long getTrimCount() {
+        return trimCount;
+    }
+}
@@ -0,0 +1,83 @@
+package com.io.usernames.util;
+
+/**
+ * Latency histograms for the path from a "Try Another" tap to a new page on screen.
+ */
+public final class PerfStats {
+
+    /** Tap on "Try Another" until the next username is handed to the adapter. */
+    public static final LatencyHistogram TAP_TO_USERNAME = new LatencyHistogram("tap_to_username");
+    /** One HTTP round trip to usernames.io, until the response headers are in. */
+    public static final LatencyHistogram NETWORK_RTT = new LatencyHistogram("network_rtt");
+    /** Parsing one response body. */
+    public static final LatencyHistogram PARSE = new LatencyHistogram("parse");
+    /** instantiateItem, inflating when the pool is cold plus binding. */
+    public static final LatencyHistogram INSTANTIATE_ITEM = new LatencyHistogram("instantiate_item");
+    /** Process start until the first username is on screen. */
+    public static final LatencyHistogram COLD_START = new LatencyHistogram("cold_start_first_username");
+    /**
+     * Activity created in an already running process, e.g. back from the background, until
+     * its first username is on screen. Configuration changes do not count.
+     */
+    public static final LatencyHistogram WARM_START = new LatencyHistogram("warm_start_first_username");
+
+    private static final LatencyHistogram[] ALL = {
+            TAP_TO_USERNAME, NETWORK_RTT, PARSE, INSTANTIATE_ITEM, COLD_START, WARM_START
+    };
+
+    private static volatile long processStartNanos;
+    private static volatile long activityStartNanos;
+    private static volatile boolean firstUsernameShown;
+
+    private PerfStats() {
+    }
+
+    /**
+     * Called as early as possible in the process, from the Application.
+     */
+    public static void markProcessStart() {
+        processStartNanos = System.nanoTime();
+        firstUsernameShown = false;
+    }
+
+    /**
+     * Called from Activity.onCreate, the start of a warm start when the process was already
+     * running. Not called when the activity is only recreated for a configuration change.
+     */
+    public static void markActivityStart() {
+        activityStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Records the cold start time the first time it is called after markProcessStart, and
+     * the warm start time the first time it is called after any later markActivityStart.
+     */
+    public static void markFirstUsernameShown() {
+        long activityStart = activityStartNanos;
+        activityStartNanos = 0;
+        if (!firstUsernameShown && processStartNanos != 0) {
+            firstUsernameShown = true;
+            COLD_START.recordSince(processStartNanos);
+        } else if (activityStart != 0) {
+            WARM_START.recordSince(activityStart);
+        }
+    }
+
+    /**
+     * Snapshot of every histogram, one per line.
+     */
+    public static String dump() {
+        StringBuilder builder = new StringBuilder(256);
+        for (LatencyHistogram histogram : ALL) {
+            histogram.appendTo(builder);
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : ALL) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.io.usernames.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded pool of objects that are expensive to build, e.g. inflated pages. It lets go of
+ * everything it holds once memory runs low, the owner builds new ones as needed. Not thread
+ * safe, owners use it from one thread.
+ */
+public class Pool<T> implements MemoryPressure.Trimmable {
+
+    private final int maxSize;
+    private final ArrayDeque<T> items;
+
+    public Pool(int maxSize) {
+        this.maxSize = maxSize;
+        this.items = new ArrayDeque<T>(maxSize);
+    }
+
+    /** A pooled object, or null when the pool is empty. */
+    public T poll() {
+        return items.poll();
+    }
+
+    /**
+     * @return false when the pool is full and item was not kept
+     */
+    public boolean offer(T item) {
+        return items.size() < maxSize && items.offer(item);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public void clear() {
+        items.clear();
+    }
+
+    @Override
+    public void trim(int level) {
+        if (level >= MemoryPressure.TRIM_RUNNING_LOW) {
+            items.clear();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AvailabilityCheckEngineTest {
+
+    private static final long TIMEOUT_MILLIS = 200;
+
+    private final ExecutorService callbacks = Executors.newSingleThreadExecutor();
+    private AvailabilityCheckEngine engine;
+
+    @After
+    public void tearDown() {
+        if (engine != null) {
+            engine.shutdown();
+        }
+        callbacks.shutdownNow();
+    }
+
+    @Test
+    public void mergesAnswersThenFinishesOnce() throws InterruptedException {
+        engine = engine(answering(ServiceRegistry.GITHUB, ServiceChecker.AVAILABLE),
+                answering(ServiceRegistry.TWITTER, ServiceChecker.TAKEN));
+        UsernameModel usernameModel = model("frobnik", ServiceRegistry.GITHUB, ServiceRegistry.TWITTER);
+        RecordingListener listener = new RecordingListener();
+        engine.check(usernameModel, listener);
+
+        listener.awaitFinished();
+        assertEquals(2, listener.checked.size());
+        assertTrue(listener.checked.containsAll(Arrays.asList(ServiceRegistry.GITHUB, ServiceRegistry.TWITTER)));
+        assertTrue(usernameModel.isAvailable(ServiceRegistry.GITHUB));
+        assertTrue(usernameModel.isKnown(ServiceRegistry.TWITTER));
+        assertFalse(usernameModel.isAvailable(ServiceRegistry.TWITTER));
+        assertFinishedOnce(listener);
+    }
+
+    @Test
+    public void skipsServicesTheBackendAnswered() throws InterruptedException {
+        CountingChecker github = answering(ServiceRegistry.GITHUB, ServiceChecker.TAKEN);
+        engine = engine(github);
+        RecordingListener listener = new RecordingListener();
+        engine.check(model("frobnik"), listener);
+
+        listener.awaitFinished();
+        assertEquals(0, github.calls);
+        assertTrue(listener.checked.isEmpty());
+        assertFinishedOnce(listener);
+    }
+
+    @Test
+    public void failedAndUnclearChecksStayUnknown() throws InterruptedException {
+        ServiceChecker failing = new CountingChecker(ServiceRegistry.GITHUB, ServiceChecker.UNKNOWN) {
+            @Override
+            public int check(String username) throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        engine = engine(failing, answering(ServiceRegistry.TWITTER, ServiceChecker.UNKNOWN));
+        UsernameModel usernameModel = model("frobnik", ServiceRegistry.GITHUB, ServiceRegistry.TWITTER);
+        RecordingListener listener = new RecordingListener();
+        engine.check(usernameModel, listener);
+
+        listener.awaitFinished();
+        assertTrue(listener.checked.isEmpty());
+        assertFalse(usernameModel.isKnown(ServiceRegistry.GITHUB));
+        assertFalse(usernameModel.isKnown(ServiceRegistry.TWITTER));
+    }
+
+    @Test
+    public void slowChecksAreCancelledAtTheTimeout() throws InterruptedException {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        ServiceChecker hanging = new CountingChecker(ServiceRegistry.GITHUB, ServiceChecker.AVAILABLE) {
+            @Override
+            public int check(String username) {
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return ServiceChecker.AVAILABLE;
+            }
+        };
+        engine = engine(hanging, answering(ServiceRegistry.TWITTER, ServiceChecker.TAKEN));
+        UsernameModel usernameModel = model("frobnik", ServiceRegistry.GITHUB, ServiceRegistry.TWITTER);
+        RecordingListener listener = new RecordingListener();
+        long start = System.nanoTime();
+        engine.check(usernameModel, listener);
+
+        listener.awaitFinished();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(ServiceRegistry.TWITTER), listener.checked);
+        // The answer the interrupted check still returned came too late
+        drainCallbacks();
+        assertFalse(usernameModel.isKnown(ServiceRegistry.GITHUB));
+        assertFinishedOnce(listener);
+    }
+
+    @Test
+    public void queuedChecksGetTheirWholeTimeout() throws InterruptedException {
+        // Five checks on two threads, the last ones start well after the first timed out
+        ServiceChecker[] checkers = new ServiceChecker[ServiceRegistry.COUNT];
+        int[] unknownIds = new int[ServiceRegistry.COUNT];
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            unknownIds[id] = id;
+            checkers[id] = new CountingChecker(id, ServiceChecker.TAKEN) {
+                @Override
+                public int check(String username) throws IOException {
+                    try {
+                        Thread.sleep(TIMEOUT_MILLIS * 3 / 5);
+                    } catch (InterruptedException e) {
+                        return ServiceChecker.UNKNOWN;
+                    }
+                    return super.check(username);
+                }
+            };
+        }
+        engine = engine(checkers);
+        UsernameModel usernameModel = model("frobnik", unknownIds);
+        RecordingListener listener = new RecordingListener();
+        long start = System.nanoTime();
+        engine.check(usernameModel, listener);
+
+        listener.awaitFinished();
+        assertTrue(System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+        assertEquals(ServiceRegistry.COUNT, listener.checked.size());
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            assertTrue(usernameModel.isKnown(id));
+        }
+        assertFinishedOnce(listener);
+    }
+
+    @Test
+    public void checksEvictedFromAFullQueueStillFinish() throws InterruptedException {
+        // Thirty usernames of five services each overflow the queue many times over
+        final int usernames = 30;
+        ServiceChecker[] checkers = new ServiceChecker[ServiceRegistry.COUNT];
+        int[] unknownIds = new int[ServiceRegistry.COUNT];
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            unknownIds[id] = id;
+            checkers[id] = new CountingChecker(id, ServiceChecker.TAKEN) {
+                @Override
+                public int check(String username) throws IOException {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return ServiceChecker.UNKNOWN;
+                    }
+                    return super.check(username);
+                }
+            };
+        }
+        engine = engine(checkers);
+        final CountDownLatch finished = new CountDownLatch(usernames);
+        final List<String> finishedUsernames = Collections.synchronizedList(new ArrayList<String>());
+        AvailabilityCheckEngine.Listener listener = new AvailabilityCheckEngine.Listener() {
+            @Override
+            public void onServiceChecked(UsernameModel usernameModel, int serviceId) {
+            }
+
+            @Override
+            public void onCheckFinished(UsernameModel usernameModel) {
+                finishedUsernames.add(usernameModel.getUsername());
+                finished.countDown();
+            }
+        };
+        for (int i = 0; i < usernames; i++) {
+            engine.check(model("frobnik" + i, unknownIds), listener);
+        }
+
+        assertTrue("Only " + finishedUsernames.size() + " checks finished",
+                finished.await(10, TimeUnit.SECONDS));
+        Thread.sleep(TIMEOUT_MILLIS + 100);
+        drainCallbacks();
+        assertEquals(usernames, finishedUsernames.size());
+        for (int i = 0; i < usernames; i++) {
+            assertTrue(finishedUsernames.contains("frobnik" + i));
+        }
+    }
+
+    private AvailabilityCheckEngine engine(ServiceChecker... checkers) {
+        return new AvailabilityCheckEngine(Arrays.asList(checkers), callbacks, 2, TIMEOUT_MILLIS);
+    }
+
+    private void assertFinishedOnce(RecordingListener listener) throws InterruptedException {
+        // Leave time for a stray second call before counting
+        Thread.sleep(TIMEOUT_MILLIS + 100);
+        drainCallbacks();
+        assertEquals(1, listener.finishedCount);
+    }
+
+    private void drainCallbacks() throws InterruptedException {
+        final CountDownLatch drained = new CountDownLatch(1);
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                drained.countDown();
+            }
+        });
+        assertTrue(drained.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * A model whose services are all known except unknownIds.
+     */
+    private static UsernameModel model(String username, int... unknownIds) {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername(username);
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            boolean unknown = false;
+            for (int unknownId : unknownIds) {
+                unknown |= unknownId == id;
+            }
+            if (!unknown) {
+                usernameModel.setAvailable(id, false);
+            }
+        }
+        return usernameModel;
+    }
+
+    private static CountingChecker answering(int serviceId, int answer) {
+        return new CountingChecker(serviceId, answer);
+    }
+
+    private static class CountingChecker implements ServiceChecker {
+        private final int serviceId;
+        private final int answer;
+        volatile int calls;
+
+        CountingChecker(int serviceId, int answer) {
+            this.serviceId = serviceId;
+            this.answer = answer;
+        }
+
+        @Override
+        public int getServiceId() {
+            return serviceId;
+        }
+
+        @Override
+        public int check(String username) throws IOException {
+            calls++;
+            return answer;
+        }
+    }
+
+    /**
+     * Only called on the callback executor.
+     */
+    private static class RecordingListener implements AvailabilityCheckEngine.Listener {
+        final List<Integer> checked = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile int finishedCount;
+
+        @Override
+        public void onServiceChecked(UsernameModel usernameModel, int serviceId) {
+            checked.add(serviceId);
+        }
+
+        @Override
+        public void onCheckFinished(UsernameModel usernameModel) {
+            finishedCount++;
+            finished.countDown();
+        }
+
+        void awaitFinished() throws InterruptedException {
+            assertTrue("Check never finished", finished.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.io.usernames.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DefaultFetchPolicyTest {
+
+    private final DefaultFetchPolicy policy = new DefaultFetchPolicy();
+
+    @Test
+    public void noConnectionIsOffline() {
+        assertEquals(DefaultFetchPolicy.OFFLINE, policy.plan(state(false, false, true, 100, true)));
+    }
+
+    @Test
+    public void meteredFetchesOnDemand() {
+        assertEquals(DefaultFetchPolicy.ON_DEMAND, policy.plan(state(true, true, true, 100, true)));
+    }
+
+    @Test
+    public void backgroundFetchesOnDemand() {
+        assertEquals(DefaultFetchPolicy.ON_DEMAND, policy.plan(state(true, false, true, 100, false)));
+    }
+
+    @Test
+    public void lowBatteryFetchesOnDemandUnlessCharging() {
+        int low = DefaultFetchPolicy.LOW_BATTERY_PERCENT;
+        assertEquals(DefaultFetchPolicy.ON_DEMAND, policy.plan(state(true, false, false, low, true)));
+        assertEquals(DefaultFetchPolicy.REGULAR, policy.plan(state(true, false, false, low + 1, true)));
+        assertEquals(DefaultFetchPolicy.AGGRESSIVE, policy.plan(state(true, false, true, low, true)));
+    }
+
+    @Test
+    public void unknownBatteryIsNotLow() {
+        assertEquals(DefaultFetchPolicy.REGULAR,
+                policy.plan(state(true, false, false, DeviceState.UNKNOWN_BATTERY, true)));
+    }
+
+    @Test
+    public void unmeteredChargingForegroundFillsTheQueue() {
+        FetchPlan plan = policy.plan(state(true, false, true, 50, true));
+        assertEquals(DefaultFetchPolicy.AGGRESSIVE, plan);
+        assertEquals(UsernamePrefetcher.MAX_DEPTH, plan.getPrefetchDepth());
+    }
+
+    @Test
+    public void planIsAppliedToThePrefetcher() {
+        UsernamePrefetcher prefetcher = new UsernamePrefetcher(new FakeUsernamesService(), UsernamePrefetcher.DEFAULT_DEPTH);
+        policy.plan(state(true, false, true, 50, true)).applyTo(prefetcher);
+        assertEquals(UsernamePrefetcher.MAX_DEPTH, prefetcher.getDepth());
+        policy.plan(state(true, true, true, 50, true)).applyTo(prefetcher);
+        assertEquals(UsernamePrefetcher.MIN_DEPTH, prefetcher.getDepth());
+    }
+
+    private static DeviceState state(boolean connected, boolean metered, boolean charging, int batteryPercent,
+                                     boolean foreground) {
+        return new DeviceState(connected, metered, charging, batteryPercent, foreground);
+    }
+}
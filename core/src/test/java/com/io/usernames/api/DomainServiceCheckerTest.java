@@ -0,0 +1,43 @@
+package com.io.usernames.api;
+
+import org.junit.Test;
+
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class DomainServiceCheckerTest {
+
+    @Test
+    public void resolvingNameIsTaken() {
+        assertEquals(ServiceChecker.TAKEN, checker("example.com", "frobnik.com").check("frobnik"));
+    }
+
+    @Test
+    public void unresolvedNameIsAvailableWhileTheResolverWorks() {
+        assertEquals(ServiceChecker.AVAILABLE, checker("example.com").check("frobnik"));
+    }
+
+    @Test
+    public void unresolvedNameIsUnknownWhileOffline() {
+        assertEquals(ServiceChecker.UNKNOWN, checker().check("frobnik"));
+    }
+
+    /**
+     * A checker whose resolver only knows hosts.
+     */
+    private static DomainServiceChecker checker(String... hosts) {
+        final Set<String> known = new HashSet<String>(Arrays.asList(hosts));
+        return new DomainServiceChecker() {
+            @Override
+            void resolve(String host) throws UnknownHostException {
+                if (!known.contains(host)) {
+                    throw new UnknownHostException(host);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,124 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Records every call instead of sending it, the test answers them one at a time.
+ */
+class FakeUsernamesService implements UsernamesService {
+
+    static final String URL = "http://usernames.test";
+
+    static class Request {
+        final int count;
+        final String username;
+        private final Callback<UsernameModel> single;
+        private final Callback<List<UsernameModel>> batch;
+
+        Request(int count, String username, Callback<UsernameModel> single, Callback<List<UsernameModel>> batch) {
+            this.count = count;
+            this.username = username;
+            this.single = single;
+            this.batch = batch;
+        }
+
+        boolean isBatch() {
+            return batch != null;
+        }
+
+        /**
+         * Answers a single request with the first name, a batch with all of them.
+         */
+        void succeed(String... usernames) {
+            Response response = new Response(URL, 200, "OK", Collections.<Header>emptyList(), null);
+            if (batch != null) {
+                List<UsernameModel> usernameModels = new ArrayList<UsernameModel>(usernames.length);
+                for (String username : usernames) {
+                    usernameModels.add(model(username));
+                }
+                batch.success(usernameModels, response);
+            } else {
+                single.success(model(usernames[0]), response);
+            }
+        }
+
+        /**
+         * A 200 whose body was empty or could not be converted.
+         */
+        void succeedWithNothing() {
+            Response response = new Response(URL, 200, "OK", Collections.<Header>emptyList(), null);
+            if (batch != null) {
+                batch.success(null, response);
+            } else {
+                single.success(null, response);
+            }
+        }
+
+        void fail(RetrofitError error) {
+            if (batch != null) {
+                batch.failure(error);
+            } else {
+                single.failure(error);
+            }
+        }
+    }
+
+    private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+
+    @Override
+    public void getUsername(Callback<UsernameModel> callback) {
+        requests.add(new Request(1, null, callback, null));
+    }
+
+    @Override
+    public void getUsernames(int count, Callback<List<UsernameModel>> callback) {
+        requests.add(new Request(count, null, null, callback));
+    }
+
+    @Override
+    public void checkUsername(String username, Callback<UsernameModel> callback) {
+        requests.add(new Request(1, username, callback, null));
+    }
+
+    /**
+     * The oldest unanswered request, waiting a little for one sent from another thread.
+     */
+    Request take() throws InterruptedException {
+        Request request = requests.poll(2, TimeUnit.SECONDS);
+        assertNotNull("No request was sent", request);
+        return request;
+    }
+
+    int getPendingCount() {
+        return requests.size();
+    }
+
+    static UsernameModel model(String username) {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername(username);
+        return usernameModel;
+    }
+
+    static RetrofitError networkError() {
+        return RetrofitError.networkError(URL, new IOException("Unreachable"));
+    }
+
+    static RetrofitError httpError(int status) {
+        return RetrofitError.httpError(URL, new Response(URL, status, "Error", Collections.<Header>emptyList(), null),
+                null, null);
+    }
+}
@@ -0,0 +1,101 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the checker against a local server standing in for a service's profile pages.
+ */
+public class ProfileServiceCheckerTest {
+
+    private HttpServer server;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private ProfileServiceChecker checker;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getRawPath();
+                requests.add(exchange.getRequestMethod() + " " + path);
+                int status;
+                if (path.equals("/taken")) {
+                    status = 200;
+                } else if (path.equals("/moved")) {
+                    exchange.getResponseHeaders().add("Location", "/taken");
+                    status = 302;
+                } else if (path.equals("/broken")) {
+                    status = 503;
+                } else {
+                    status = 404;
+                }
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        checker = new ProfileServiceChecker(ServiceRegistry.GITHUB,
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/%s", 2000);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void okIsTaken() throws IOException {
+        assertEquals(ServiceChecker.TAKEN, checker.check("taken"));
+        assertEquals("HEAD /taken", requests.get(0));
+    }
+
+    @Test
+    public void notFoundIsAvailable() throws IOException {
+        assertEquals(ServiceChecker.AVAILABLE, checker.check("frobnik"));
+    }
+
+    @Test
+    public void redirectIsUnknownAndNotFollowed() throws IOException {
+        assertEquals(ServiceChecker.UNKNOWN, checker.check("moved"));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void serverErrorIsUnknown() throws IOException {
+        assertEquals(ServiceChecker.UNKNOWN, checker.check("broken"));
+    }
+
+    @Test
+    public void usernameIsEncoded() throws IOException {
+        checker.check("a b/c");
+        assertEquals("HEAD /a+b%2Fc", requests.get(0));
+    }
+
+    @Test
+    public void unreachableServiceThrows() {
+        server.stop(0);
+        try {
+            checker.check("taken");
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScheduledUsernamesServiceTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    static class Recorder implements Callback<UsernameModel> {
+        volatile int successes;
+        volatile int failures;
+
+        @Override
+        public void success(UsernameModel usernameModel, Response response) {
+            successes++;
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            failures++;
+        }
+    }
+
+    static class BatchRecorder implements Callback<List<UsernameModel>> {
+        final List<String> usernames = new ArrayList<String>();
+        volatile int failures;
+
+        @Override
+        public void success(List<UsernameModel> usernameModels, Response response) {
+            for (UsernameModel usernameModel : usernameModels) {
+                usernames.add(usernameModel.getUsername());
+            }
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            failures++;
+        }
+    }
+
+    private FakeUsernamesService fake;
+    private ScheduledUsernamesService service;
+    private long now = 1000000;
+
+    @Before
+    public void setUp() {
+        fake = new FakeUsernamesService();
+        service = new ScheduledUsernamesService(fake, FakeUsernamesService.URL, DIRECT, 1) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+
+            @Override
+            long backoffMillis(int attempt) {
+                return 0;
+            }
+        };
+    }
+
+    @Test
+    public void retriesNetworkErrorsBeforeFailing() throws InterruptedException {
+        Recorder callback = new Recorder();
+        service.getUsername(callback);
+        for (int attempt = 0; attempt < ScheduledUsernamesService.MAX_RETRIES; attempt++) {
+            fake.take().fail(FakeUsernamesService.networkError());
+        }
+        fake.take().succeed("frobnik");
+        assertEquals(1, callback.successes);
+        assertEquals(0, callback.failures);
+        assertEquals(ScheduledUsernamesService.MAX_RETRIES, service.getRetryCount());
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailuresAndFailsFast() throws InterruptedException {
+        openCircuit();
+        assertEquals(ScheduledUsernamesService.CircuitState.OPEN, service.getState());
+        assertFalse(service.isHealthy());
+
+        Recorder callback = new Recorder();
+        service.getUsername(callback);
+        assertEquals(1, callback.failures);
+        assertEquals(0, fake.getPendingCount());
+        assertEquals(1, service.getFailFastCount());
+    }
+
+    @Test
+    public void closesAgainAfterSuccessfulTrial() throws InterruptedException {
+        openCircuit();
+        now += ScheduledUsernamesService.OPEN_MILLIS;
+
+        Recorder trial = new Recorder();
+        service.getUsername(trial);
+        assertEquals(ScheduledUsernamesService.CircuitState.HALF_OPEN, service.getState());
+        FakeUsernamesService.Request request = fake.take();
+
+        // Only the trial goes out while half open
+        Recorder other = new Recorder();
+        service.getUsername(other);
+        assertEquals(1, other.failures);
+
+        request.succeed("frobnik");
+        assertEquals(1, trial.successes);
+        assertEquals(ScheduledUsernamesService.CircuitState.CLOSED, service.getState());
+        assertTrue(service.isHealthy());
+    }
+
+    @Test
+    public void failedTrialReopensForLonger() throws InterruptedException {
+        openCircuit();
+        now += ScheduledUsernamesService.OPEN_MILLIS;
+
+        Recorder trial = new Recorder();
+        service.getUsername(trial);
+        fake.take().fail(FakeUsernamesService.networkError());
+        assertEquals(1, trial.failures);
+        assertEquals(ScheduledUsernamesService.CircuitState.OPEN, service.getState());
+
+        // The cool-down doubled
+        now += ScheduledUsernamesService.OPEN_MILLIS;
+        Recorder early = new Recorder();
+        service.getUsername(early);
+        assertEquals(1, early.failures);
+        assertEquals(ScheduledUsernamesService.CircuitState.OPEN, service.getState());
+
+        now += ScheduledUsernamesService.OPEN_MILLIS;
+        service.getUsername(new Recorder());
+        assertEquals(ScheduledUsernamesService.CircuitState.HALF_OPEN, service.getState());
+    }
+
+    @Test
+    public void clientErrorsDoNotCountTowardsOpening() throws InterruptedException {
+        for (int i = 0; i < ScheduledUsernamesService.FAILURE_THRESHOLD - 1; i++) {
+            failCompletely();
+        }
+        Recorder callback = new Recorder();
+        service.getUsername(callback);
+        fake.take().fail(FakeUsernamesService.httpError(404));
+        assertEquals(1, callback.failures);
+
+        for (int i = 0; i < ScheduledUsernamesService.FAILURE_THRESHOLD - 1; i++) {
+            failCompletely();
+        }
+        assertEquals(ScheduledUsernamesService.CircuitState.CLOSED, service.getState());
+    }
+
+    @Test
+    public void coalescesQueuedBatchesAndSplitsTheResult() throws InterruptedException {
+        // Takes the only slot, so both batches wait in the queue
+        service.getUsername(new Recorder());
+        BatchRecorder first = new BatchRecorder();
+        BatchRecorder second = new BatchRecorder();
+        service.getUsernames(3, first);
+        service.getUsernames(2, second);
+        assertEquals(1, service.getCoalescedCount());
+
+        fake.take().succeed("frobnik");
+        FakeUsernamesService.Request batch = fake.take();
+        assertTrue(batch.isBatch());
+        assertEquals(5, batch.count);
+        assertEquals(0, fake.getPendingCount());
+
+        batch.succeed("a", "b", "c", "d", "e");
+        assertEquals(names("a", "b", "c"), first.usernames);
+        assertEquals(names("d", "e"), second.usernames);
+    }
+
+    @Test
+    public void shortCoalescedBatchFillsEarlierCallersFirst() throws InterruptedException {
+        service.getUsername(new Recorder());
+        BatchRecorder first = new BatchRecorder();
+        BatchRecorder second = new BatchRecorder();
+        service.getUsernames(3, first);
+        service.getUsernames(2, second);
+        fake.take().succeed("frobnik");
+
+        fake.take().succeed("a", "b", "c", "d");
+        assertEquals(names("a", "b", "c"), first.usernames);
+        assertEquals(names("d"), second.usernames);
+    }
+
+    @Test
+    public void failedCoalescedBatchFailsEveryCaller() throws InterruptedException {
+        service.getUsername(new Recorder());
+        BatchRecorder first = new BatchRecorder();
+        BatchRecorder second = new BatchRecorder();
+        service.getUsernames(3, first);
+        service.getUsernames(2, second);
+        fake.take().succeed("frobnik");
+
+        fake.take().fail(FakeUsernamesService.httpError(404));
+        assertEquals(1, first.failures);
+        assertEquals(1, second.failures);
+    }
+
+    @Test
+    public void batchesFailFastWhileOpenInsteadOfCoalescing() throws InterruptedException {
+        openCircuit();
+        BatchRecorder first = new BatchRecorder();
+        BatchRecorder second = new BatchRecorder();
+        service.getUsernames(3, first);
+        service.getUsernames(2, second);
+        assertEquals(1, first.failures);
+        assertEquals(1, second.failures);
+        assertEquals(0, service.getCoalescedCount());
+        assertEquals(2, service.getFailFastCount());
+        assertEquals(0, service.getPendingCount());
+        assertEquals(0, fake.getPendingCount());
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<String>(names.length);
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private void openCircuit() throws InterruptedException {
+        for (int i = 0; i < ScheduledUsernamesService.FAILURE_THRESHOLD; i++) {
+            failCompletely();
+        }
+    }
+
+    /**
+     * Sends one request and fails it and every retry.
+     */
+    private void failCompletely() throws InterruptedException {
+        Recorder callback = new Recorder();
+        service.getUsername(callback);
+        for (int attempt = 0; attempt <= ScheduledUsernamesService.MAX_RETRIES; attempt++) {
+            fake.take().fail(FakeUsernamesService.networkError());
+        }
+        assertEquals(1, callback.failures);
+    }
+}
@@ -0,0 +1,164 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import retrofit.RetrofitError;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UsernameBatchFetcherTest {
+
+    static class Recorder implements UsernameBatchFetcher.Listener {
+        List<String> usernames;
+        RetrofitError error;
+        int calls;
+
+        @Override
+        public void onUsernames(List<UsernameModel> usernameModels) {
+            calls++;
+            usernames = new ArrayList<String>();
+            for (UsernameModel usernameModel : usernameModels) {
+                usernames.add(usernameModel.getUsername());
+            }
+        }
+
+        @Override
+        public void onFailure(RetrofitError error) {
+            calls++;
+            this.error = error;
+        }
+    }
+
+    private FakeUsernamesService fake;
+    private Recorder listener;
+
+    @Before
+    public void setUp() {
+        fake = new FakeUsernamesService();
+        listener = new Recorder();
+    }
+
+    @Test
+    public void asksForEverythingInOneBatch() throws InterruptedException {
+        UsernameBatchFetcher fetcher = new UsernameBatchFetcher(fake, 2);
+        fetcher.fetch(3, listener);
+        FakeUsernamesService.Request batch = fake.take();
+        assertTrue(batch.isBatch());
+        assertEquals(3, batch.count);
+        assertEquals(0, fake.getPendingCount());
+
+        batch.succeed("alpha", "beta", "gamma");
+        assertEquals(Arrays.asList("alpha", "beta", "gamma"), listener.usernames);
+        assertEquals(1, listener.calls);
+    }
+
+    @Test
+    public void fansOutWhenTheBatchEndpointIsUnsupported() throws InterruptedException {
+        UsernameBatchFetcher fetcher = new UsernameBatchFetcher(fake, 4);
+        fetcher.fetch(2, listener);
+        fake.take().fail(FakeUsernamesService.httpError(404));
+        assertFalse(fetcher.isBatchSupported());
+        FakeUsernamesService.Request first = fake.take();
+        FakeUsernamesService.Request second = fake.take();
+        assertFalse(first.isBatch());
+        assertFalse(second.isBatch());
+        first.succeed("alpha");
+        second.succeed("beta");
+        assertEquals(Arrays.asList("alpha", "beta"), listener.usernames);
+
+        // Remembered, the next fetch does not try the batch endpoint again
+        fetcher.fetch(1, new Recorder());
+        assertFalse(fake.take().isBatch());
+    }
+
+    @Test
+    public void otherBatchErrorsArePassedOn() throws InterruptedException {
+        UsernameBatchFetcher fetcher = new UsernameBatchFetcher(fake, 4);
+        fetcher.fetch(3, listener);
+        fake.take().fail(FakeUsernamesService.httpError(500));
+        assertTrue(fetcher.isBatchSupported());
+        assertEquals(0, fake.getPendingCount());
+        assertEquals(500, listener.error.getResponse().getStatus());
+        assertNull(listener.usernames);
+    }
+
+    @Test
+    public void mergesInRequestOrderWhateverOrderAnswersArriveIn() throws InterruptedException {
+        UsernameBatchFetcher fetcher = unsupported(3);
+        fetcher.fetch(3, listener);
+        FakeUsernamesService.Request first = fake.take();
+        FakeUsernamesService.Request second = fake.take();
+        FakeUsernamesService.Request third = fake.take();
+        third.succeed("gamma");
+        first.succeed("alpha");
+        assertEquals(0, listener.calls);
+        second.succeed("beta");
+        assertEquals(Arrays.asList("alpha", "beta", "gamma"), listener.usernames);
+        assertEquals(1, listener.calls);
+    }
+
+    @Test
+    public void keepsAtMostMaxConcurrencyInFlight() throws InterruptedException {
+        UsernameBatchFetcher fetcher = unsupported(2);
+        fetcher.fetch(5, listener);
+        List<FakeUsernamesService.Request> inFlight = new ArrayList<FakeUsernamesService.Request>();
+        inFlight.add(fake.take());
+        inFlight.add(fake.take());
+        for (int answered = 0; answered < 5; answered++) {
+            assertEquals(0, fake.getPendingCount());
+            inFlight.remove(0).succeed("name" + answered);
+            if (answered < 3) {
+                // One answer makes room for exactly one more request
+                inFlight.add(fake.take());
+            }
+        }
+        assertEquals(0, fake.getPendingCount());
+        assertEquals(Arrays.asList("name0", "name1", "name2", "name3", "name4"), listener.usernames);
+    }
+
+    @Test
+    public void aFailedSingleRequestOnlyLosesItsOwnUsername() throws InterruptedException {
+        UsernameBatchFetcher fetcher = unsupported(3);
+        fetcher.fetch(3, listener);
+        FakeUsernamesService.Request first = fake.take();
+        FakeUsernamesService.Request second = fake.take();
+        FakeUsernamesService.Request third = fake.take();
+        first.succeed("alpha");
+        second.fail(FakeUsernamesService.networkError());
+        third.succeed("gamma");
+        assertEquals(Arrays.asList("alpha", "gamma"), listener.usernames);
+        assertNull(listener.error);
+    }
+
+    @Test
+    public void failsWhenEverySingleRequestFailed() throws InterruptedException {
+        UsernameBatchFetcher fetcher = unsupported(2);
+        fetcher.fetch(2, listener);
+        fake.take().fail(FakeUsernamesService.networkError());
+        fake.take().fail(FakeUsernamesService.networkError());
+        assertEquals(1, listener.calls);
+        assertEquals(RetrofitError.Kind.NETWORK, listener.error.getKind());
+    }
+
+    /**
+     * A fetcher that already found out the batch endpoint is missing.
+     */
+    private UsernameBatchFetcher unsupported(int maxConcurrency) throws InterruptedException {
+        UsernameBatchFetcher fetcher = new UsernameBatchFetcher(fake, maxConcurrency);
+        fetcher.fetch(1, new Recorder());
+        fake.take().fail(FakeUsernamesService.httpError(405));
+        fake.take().succeed("warmup");
+        assertFalse(fetcher.isBatchSupported());
+        return fetcher;
+    }
+}
@@ -0,0 +1,89 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UsernameGeneratorTest {
+
+    private static final String MODEL = "# A comment before the first section\n"
+            + "#onsets\n"
+            + "b  fr\n"
+            + "\n"
+            + "#nuclei\n"
+            + "  a o  \n"
+            + "#codas\n"
+            + "n k\n";
+
+    @Test
+    public void loadsEverySection() throws IOException {
+        UsernameGenerator generator = UsernameGenerator.load(stream(MODEL), 42);
+        Pattern syllables = Pattern.compile("((b|fr)(a|o)(n|k)?){2,3}([1-9][0-9])?");
+        for (int i = 0; i < 1000; i++) {
+            String username = generator.nextUsername();
+            assertTrue(username, syllables.matcher(username).matches());
+        }
+    }
+
+    @Test
+    public void aMissingSectionIsRejected() throws IOException {
+        try {
+            UsernameGenerator.load(stream("#onsets\nb fr\n#codas\nn k\n"), 42);
+            fail("Loaded a model without nuclei");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            UsernameGenerator.load(stream("#onsets\nb fr\n#nuclei\n#codas\nn k\n"), 42);
+            fail("Loaded a model with empty nuclei");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void neverGoesPastMaxLength() {
+        // Three long syllables with codas would be 27 chars
+        char[][] parts = {"strrrr".toCharArray()};
+        UsernameGenerator generator = new UsernameGenerator(parts, parts, parts, 7);
+        char[] buffer = new char[UsernameGenerator.MAX_LENGTH];
+        for (int i = 0; i < 1000; i++) {
+            int length = generator.generate(buffer);
+            assertTrue(length <= UsernameGenerator.MAX_LENGTH);
+            assertTrue(generator.nextUsername().length() <= UsernameGenerator.MAX_LENGTH);
+        }
+    }
+
+    @Test
+    public void theSameSeedMakesTheSameUsernames() throws IOException {
+        UsernameGenerator first = UsernameGenerator.load(stream(MODEL), 1234);
+        UsernameGenerator second = UsernameGenerator.load(stream(MODEL), 1234);
+        UsernameGenerator other = UsernameGenerator.load(stream(MODEL), 4321);
+        boolean differs = false;
+        for (int i = 0; i < 100; i++) {
+            String username = first.nextUsername();
+            assertEquals(username, second.nextUsername());
+            differs |= !username.equals(other.nextUsername());
+        }
+        assertTrue(differs);
+    }
+
+    @Test
+    public void modelsStartWithEveryServiceUnknown() throws IOException {
+        UsernameModel usernameModel = UsernameGenerator.load(stream(MODEL), 42).next();
+        assertFalse(usernameModel.getUsername().isEmpty());
+        assertEquals(0, usernameModel.getKnownMask());
+    }
+
+    private static InputStream stream(String model) throws IOException {
+        return new ByteArrayInputStream(model.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,178 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.util.MemoryPressure;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit.RetrofitError;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UsernameLookupTest {
+
+    private FakeUsernamesService service;
+    private final List<String> results = new ArrayList<String>();
+    private final List<String> failures = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        service = new FakeUsernamesService();
+    }
+
+    @Test
+    public void normalizesTypedNames() {
+        assertEquals("frobnik", UsernameLookup.normalize("  @Frobnik "));
+        assertEquals("a.b-c_1", UsernameLookup.normalize("A.b-C_1"));
+        assertNull(UsernameLookup.normalize("@"));
+        assertNull(UsernameLookup.normalize("two words"));
+        assertNull(UsernameLookup.normalize("abcdefghijklmnopqrstuvwxyz0123456"));
+    }
+
+    @Test
+    public void invalidNamesAreNotLookedUp() {
+        UsernameLookup lookup = lookup(4, UsernameLookup.DEFAULT_TTL_MILLIS);
+        assertFalse(lookup.lookup("no way"));
+        assertEquals(0, service.getPendingCount());
+    }
+
+    @Test
+    public void answersFromTheCacheWithoutARequest() throws InterruptedException {
+        UsernameLookup lookup = lookup(4, UsernameLookup.DEFAULT_TTL_MILLIS);
+        lookup.lookup("frobnik");
+        service.take().succeed("frobnik");
+        assertTrue(lookup.lookup("@Frobnik"));
+
+        assertEquals(0, service.getPendingCount());
+        assertEquals(2, results.size());
+        assertEquals(1, lookup.getRequestCount());
+        assertEquals(1, lookup.getHitCount());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedName() throws InterruptedException {
+        UsernameLookup lookup = lookup(2, UsernameLookup.DEFAULT_TTL_MILLIS);
+        answer(lookup, "alpha");
+        answer(lookup, "beta");
+        // Touching alpha makes beta the eldest
+        assertNotNull(lookup.peek("alpha"));
+        answer(lookup, "gamma");
+
+        assertNotNull(lookup.peek("alpha"));
+        assertNull(lookup.peek("beta"));
+        assertNotNull(lookup.peek("gamma"));
+    }
+
+    @Test
+    public void expiredResultsAreLookedUpAgain() throws InterruptedException {
+        UsernameLookup lookup = lookup(4, 20);
+        answer(lookup, "frobnik");
+        Thread.sleep(60);
+        assertNull(lookup.peek("frobnik"));
+        lookup.lookup("frobnik");
+
+        assertEquals("frobnik", service.take().username);
+        assertEquals(2, lookup.getRequestCount());
+    }
+
+    @Test
+    public void onlyTheLatestNameWaitsBehindTheOneInFlight() throws InterruptedException {
+        UsernameLookup lookup = lookup(4, UsernameLookup.DEFAULT_TTL_MILLIS);
+        lookup.lookup("a");
+        lookup.lookup("ab");
+        lookup.lookup("abc");
+        FakeUsernamesService.Request first = service.take();
+        assertEquals(0, service.getPendingCount());
+
+        first.succeed("a");
+        // The stale answer is cached but not delivered
+        assertTrue(results.isEmpty());
+        assertEquals(1, lookup.getStaleCount());
+        assertNotNull(lookup.peek("a"));
+
+        FakeUsernamesService.Request second = service.take();
+        assertEquals("abc", second.username);
+        second.succeed("abc");
+        assertEquals(1, results.size());
+        assertEquals("abc", results.get(0));
+        assertEquals(2, lookup.getRequestCount());
+    }
+
+    @Test
+    public void cancelledQueriesAreNotDelivered() throws InterruptedException {
+        UsernameLookup lookup = lookup(4, UsernameLookup.DEFAULT_TTL_MILLIS);
+        lookup.lookup("frobnik");
+        FakeUsernamesService.Request request = service.take();
+        lookup.lookup("frobnikz");
+        lookup.cancel();
+        request.fail(FakeUsernamesService.networkError());
+
+        assertTrue(results.isEmpty());
+        assertTrue(failures.isEmpty());
+        assertEquals(1, lookup.getStaleCount());
+        // Nothing was waiting once cancelled
+        assertEquals(0, service.getPendingCount());
+    }
+
+    @Test
+    public void failuresOfTheCurrentQueryAreDelivered() throws InterruptedException {
+        UsernameLookup lookup = lookup(4, UsernameLookup.DEFAULT_TTL_MILLIS);
+        lookup.lookup("frobnik");
+        service.take().fail(FakeUsernamesService.httpError(500));
+        assertEquals(1, failures.size());
+        assertNull(lookup.peek("frobnik"));
+    }
+
+    @Test
+    public void emptyAnswersAreDeliveredAsFailures() throws InterruptedException {
+        UsernameLookup lookup = lookup(4, UsernameLookup.DEFAULT_TTL_MILLIS);
+        lookup.lookup("frobnik");
+        service.take().succeedWithNothing();
+        assertTrue(results.isEmpty());
+        assertEquals(1, failures.size());
+        assertNull(lookup.peek("frobnik"));
+        // Nothing is stuck in flight
+        lookup.lookup("frobnik");
+        service.take().succeed("frobnik");
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void trimmingDropsTheCache() throws InterruptedException {
+        UsernameLookup lookup = lookup(4, UsernameLookup.DEFAULT_TTL_MILLIS);
+        answer(lookup, "frobnik");
+        lookup.trim(MemoryPressure.TRIM_RUNNING_MODERATE);
+        assertNotNull(lookup.peek("frobnik"));
+        lookup.trim(MemoryPressure.TRIM_RUNNING_LOW);
+        assertNull(lookup.peek("frobnik"));
+    }
+
+    private UsernameLookup lookup(int cacheSize, long ttlMillis) {
+        UsernameLookup lookup = new UsernameLookup(service, cacheSize, ttlMillis);
+        lookup.setListener(new UsernameLookup.Listener() {
+            @Override
+            public void onResult(String name, UsernameModel usernameModel) {
+                results.add(name);
+            }
+
+            @Override
+            public void onFailure(String name, RetrofitError error) {
+                failures.add(name);
+            }
+        });
+        return lookup;
+    }
+
+    private void answer(UsernameLookup lookup, String name) throws InterruptedException {
+        lookup.lookup(name);
+        service.take().succeed(name);
+    }
+}
@@ -0,0 +1,120 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import retrofit.converter.ConversionException;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedOutput;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UsernameModelConverterTest {
+
+    private static final Type USERNAME_LIST = new ParameterizedType() {
+        @Override
+        public Type[] getActualTypeArguments() {
+            return new Type[]{UsernameModel.class};
+        }
+
+        @Override
+        public Type getRawType() {
+            return List.class;
+        }
+
+        @Override
+        public Type getOwnerType() {
+            return null;
+        }
+    };
+
+    private final UsernameModelConverter converter = new UsernameModelConverter();
+
+    @Test
+    public void readsAUsernameAndItsResults() throws Exception {
+        UsernameModel usernameModel = (UsernameModel) converter.fromBody(body("{\"username\":\"frobnik\","
+                + "\"results\":[{\"service\":\"twitter\",\"available\":true},"
+                + "{\"service\":\".com\",\"available\":false},"
+                + "{\"service\":\"myspace\",\"available\":true},"
+                + "{\"service\":\"github\",\"available\":null}],\"extra\":{\"a\":[1]}}"), UsernameModel.class);
+        assertEquals("frobnik", usernameModel.getUsername());
+        assertTrue(usernameModel.isKnown(ServiceRegistry.TWITTER));
+        assertTrue(usernameModel.isAvailable(ServiceRegistry.TWITTER));
+        assertTrue(usernameModel.isKnown(ServiceRegistry.URL));
+        assertFalse(usernameModel.isAvailable(ServiceRegistry.URL));
+        assertFalse(usernameModel.isKnown(ServiceRegistry.GITHUB));
+        assertFalse(usernameModel.isKnown(ServiceRegistry.FACEBOOK));
+    }
+
+    @Test
+    public void readsBareAndWrappedBatches() throws Exception {
+        List<?> bare = (List<?>) converter.fromBody(body("[{\"username\":\"a\"},null,{\"username\":\"b\"}]"),
+                USERNAME_LIST);
+        assertEquals(2, bare.size());
+        assertEquals("b", ((UsernameModel) bare.get(1)).getUsername());
+
+        List<?> wrapped = (List<?>) converter.fromBody(body("{\"count\":1,\"usernames\":[{\"username\":\"c\"}]}"),
+                USERNAME_LIST);
+        assertEquals(1, wrapped.size());
+        assertEquals("c", ((UsernameModel) wrapped.get(0)).getUsername());
+
+        assertTrue(((List<?>) converter.fromBody(body("{}"), USERNAME_LIST)).isEmpty());
+    }
+
+    @Test
+    public void honoursTheCharsetOfTheBody() throws Exception {
+        byte[] bytes = "{\"username\":\"caf\u00e9\"}".getBytes("ISO-8859-1");
+        UsernameModel usernameModel = (UsernameModel) converter.fromBody(
+                new TypedByteArray("application/json; charset=\"ISO-8859-1\"", bytes), UsernameModel.class);
+        assertEquals("caf\u00e9", usernameModel.getUsername());
+    }
+
+    @Test
+    public void writesWhatItReads() throws Exception {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername("frobnik");
+        usernameModel.setAvailable(ServiceRegistry.FACEBOOK, true);
+        usernameModel.setAvailable(ServiceRegistry.LINKEDIN, false);
+        TypedOutput output = converter.toBody(usernameModel);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        output.writeTo(out);
+        assertEquals("{\"username\":\"frobnik\",\"results\":[{\"service\":\"facebook\",\"available\":true},"
+                + "{\"service\":\"linkedin\",\"available\":false}]}", out.toString("UTF-8"));
+
+        UsernameModel read = (UsernameModel) converter.fromBody(
+                new TypedByteArray(output.mimeType(), out.toByteArray()), UsernameModel.class);
+        assertEquals(usernameModel.getKnownMask(), read.getKnownMask());
+        assertEquals(usernameModel.getAvailableMask(), read.getAvailableMask());
+    }
+
+    @Test
+    public void malformedBodiesFailToConvert() throws IOException {
+        assertConversionFails("{\"username\":", UsernameModel.class);
+        assertConversionFails("{\"results\":{\"service\":\"twitter\"}}", UsernameModel.class);
+        assertConversionFails("[]", String.class);
+    }
+
+    private void assertConversionFails(String json, Type type) throws UnsupportedEncodingException {
+        try {
+            converter.fromBody(body(json), type);
+            fail("Converted " + json);
+        } catch (ConversionException expected) {
+        }
+    }
+
+    private static TypedByteArray body(String json) throws UnsupportedEncodingException {
+        return new TypedByteArray("application/json; charset=UTF-8", json.getBytes("UTF-8"));
+    }
+}
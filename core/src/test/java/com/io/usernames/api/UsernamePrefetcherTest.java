@@ -0,0 +1,270 @@
+package com.io.usernames.api;
+
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.storage.SeenUsernameSet;
+import com.io.usernames.storage.TakenUsernameFilter;
+import com.io.usernames.storage.UsernameCache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit.RetrofitError;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UsernamePrefetcherTest {
+
+    static class Recorder implements UsernamePrefetcher.Listener {
+        final List<String> usernames = new ArrayList<String>();
+        int failures;
+
+        @Override
+        public void onUsername(UsernameModel usernameModel) {
+            usernames.add(usernameModel.getUsername());
+        }
+
+        @Override
+        public void onFailure(RetrofitError error) {
+            failures++;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeUsernamesService fake;
+    private UsernamePrefetcher prefetcher;
+    private Recorder listener;
+
+    @Before
+    public void setUp() {
+        fake = new FakeUsernamesService();
+        prefetcher = new UsernamePrefetcher(fake, 2);
+        listener = new Recorder();
+        prefetcher.setListener(listener);
+    }
+
+    @Test
+    public void firstRequestWaitsForOneBatch() throws InterruptedException {
+        prefetcher.request();
+        assertTrue(listener.usernames.isEmpty());
+
+        FakeUsernamesService.Request request = fake.take();
+        assertTrue(request.isBatch());
+        // The one waiting plus a full queue behind it
+        assertEquals(3, request.count);
+        request.succeed("alpha", "beta", "gamma");
+
+        assertEquals(names("alpha"), listener.usernames);
+        assertEquals(2, prefetcher.getQueueDepth());
+        assertEquals(0, fake.getPendingCount());
+    }
+
+    @Test
+    public void servesFromQueueAndRefillsWhatWasTaken() throws InterruptedException {
+        prefetcher.request();
+        fake.take().succeed("alpha", "beta", "gamma");
+
+        prefetcher.request();
+        assertEquals(names("alpha", "beta"), listener.usernames);
+        assertEquals(1, prefetcher.getHitCount());
+        FakeUsernamesService.Request refill = fake.take();
+        assertEquals(1, refill.count);
+        refill.succeed("delta");
+        assertEquals(2, prefetcher.getQueueDepth());
+    }
+
+    @Test
+    public void loweringDepthKeepsWhatWasFetched() throws InterruptedException {
+        prefetcher.setDepth(UsernamePrefetcher.MAX_DEPTH);
+        prefetcher.refill();
+        fake.take().succeed("a", "b", "c", "d", "e", "f", "g", "h", "i", "j");
+        assertEquals(10, prefetcher.getQueueDepth());
+
+        prefetcher.setDepth(UsernamePrefetcher.MIN_DEPTH);
+        assertEquals(10, prefetcher.getQueueDepth());
+        for (int i = 0; i < 9; i++) {
+            prefetcher.request();
+        }
+        // Nothing fetched until the queue drained below the new depth
+        assertEquals(0, fake.getPendingCount());
+        assertEquals(names("a", "b", "c", "d", "e", "f", "g", "h", "i"), listener.usernames);
+
+        prefetcher.request();
+        assertEquals(1, fake.take().count);
+    }
+
+    @Test
+    public void shortBatchAsksAgainForTheRest() throws InterruptedException {
+        prefetcher.refill();
+        fake.take().succeed("alpha");
+        assertEquals(1, prefetcher.getQueueDepth());
+        assertEquals(1, fake.take().count);
+    }
+
+    @Test
+    public void failureWithoutFallbackIsReported() throws InterruptedException {
+        prefetcher.request();
+        fake.take().fail(FakeUsernamesService.networkError());
+        assertEquals(1, listener.failures);
+        assertTrue(listener.usernames.isEmpty());
+        // A failed refill is not retried until the next request
+        assertEquals(0, fake.getPendingCount());
+    }
+
+    @Test
+    public void failureFallsBackToGenerator() throws InterruptedException {
+        prefetcher.setFallback(generator());
+        prefetcher.request();
+        prefetcher.request();
+        fake.take().fail(FakeUsernamesService.networkError());
+        assertEquals(0, listener.failures);
+        assertEquals(2, listener.usernames.size());
+        assertEquals(2, prefetcher.getGeneratedCount());
+    }
+
+    @Test
+    public void emptyBatchFallsBackForWaitingRequest() throws InterruptedException {
+        prefetcher.setFallback(generator());
+        prefetcher.request();
+        fake.take().succeed();
+        assertEquals(1, listener.usernames.size());
+        assertEquals(1, prefetcher.getGeneratedCount());
+    }
+
+    @Test
+    public void emptyBatchWithoutFallbackAsksAgainThenFails() throws InterruptedException {
+        prefetcher.request();
+        fake.take().succeed();
+        FakeUsernamesService.Request retry = fake.take();
+        assertEquals(3, retry.count);
+        retry.succeed();
+        assertEquals(1, listener.failures);
+        assertEquals(0, fake.getPendingCount());
+
+        // The next request starts counting again
+        prefetcher.request();
+        fake.take().succeed("alpha");
+        assertEquals(names("alpha"), listener.usernames);
+    }
+
+    @Test
+    public void offlineAnswersFromGeneratorWithoutFetching() {
+        prefetcher.setFallback(generator());
+        prefetcher.setOffline(true);
+        prefetcher.request();
+        assertEquals(1, listener.usernames.size());
+        assertEquals(0, fake.getPendingCount());
+    }
+
+    @Test
+    public void batchOfOnlySeenNamesCountsAsEmpty() throws InterruptedException, IOException {
+        SeenUsernameSet seen = SeenUsernameSet.open(folder.newFile(), 16);
+        seen.add("alpha");
+        seen.add("beta");
+        prefetcher.setSeenSet(seen);
+        prefetcher.request();
+        fake.take().succeed("alpha", "beta");
+        FakeUsernamesService.Request retry = fake.take();
+        retry.succeed("beta", "alpha");
+        assertEquals(1, listener.failures);
+        assertTrue(listener.usernames.isEmpty());
+        assertEquals(4, prefetcher.getDuplicateCount());
+        assertEquals(0, fake.getPendingCount());
+    }
+
+    @Test
+    public void cachedCandidatesAreScreenedLikeFetchedOnes() throws IOException {
+        UsernameCache cache = new UsernameCache(folder.newFile(), UsernameCache.DEFAULT_MAX_BYTES);
+        cache.putFetched(FakeUsernamesService.model("alpha"));
+        cache.putFetched(takenEverywhere("beta"));
+        cache.putFetched(FakeUsernamesService.model("gamma"));
+        cache.putFetched(FakeUsernamesService.model("delta"));
+        SeenUsernameSet seen = SeenUsernameSet.open(folder.newFile(), 16);
+        seen.add("gamma");
+        prefetcher.setTakenFilter(TakenUsernameFilter.open(folder.newFile(), 100, 0.01, 1024));
+        prefetcher.setSeenSet(seen);
+        prefetcher.setCache(cache);
+        assertEquals(2, prefetcher.getQueueDepth());
+        assertEquals(1, prefetcher.getDuplicateCount());
+
+        prefetcher.request();
+        prefetcher.request();
+        assertEquals(names("alpha", "delta"), listener.usernames);
+        cache.close();
+    }
+
+    @Test
+    public void cachedFallbackCandidatesAreScreened() throws IOException {
+        UsernameCache cache = new UsernameCache(folder.newFile(), UsernameCache.DEFAULT_MAX_BYTES);
+        SeenUsernameSet seen = SeenUsernameSet.open(folder.newFile(), 16);
+        prefetcher.setSeenSet(seen);
+        prefetcher.setCache(cache);
+        cache.putFetched(FakeUsernamesService.model("alpha"));
+        cache.putFetched(FakeUsernamesService.model("beta"));
+        seen.add("alpha");
+        prefetcher.setFallback(generator());
+        prefetcher.setOffline(true);
+        prefetcher.request();
+        assertEquals(names("beta"), listener.usernames);
+        assertEquals(0, prefetcher.getGeneratedCount());
+        cache.close();
+    }
+
+    @Test
+    public void offlineWithoutFallbackFailsStraightAway() throws InterruptedException {
+        prefetcher.setOffline(true);
+        prefetcher.request();
+        assertEquals(1, listener.failures);
+        assertEquals(0, fake.getPendingCount());
+
+        // Nothing is left waiting for when the network comes back
+        prefetcher.setOffline(false);
+        prefetcher.refill();
+        assertEquals(2, fake.take().count);
+    }
+
+    @Test
+    public void fansOutWhenBatchesAreUnsupported() throws InterruptedException {
+        prefetcher.request();
+        fake.take().fail(FakeUsernamesService.httpError(404));
+        for (int i = 0; i < 3; i++) {
+            FakeUsernamesService.Request single = fake.take();
+            assertFalse(single.isBatch());
+            single.succeed("single" + i);
+        }
+        assertEquals(names("single0"), listener.usernames);
+        assertEquals(2, prefetcher.getQueueDepth());
+    }
+
+    static UsernameGenerator generator() {
+        return new UsernameGenerator(new char[][]{"b".toCharArray(), "fr".toCharArray()},
+                new char[][]{"a".toCharArray(), "o".toCharArray()},
+                new char[][]{"n".toCharArray(), "k".toCharArray()}, 42);
+    }
+
+    private static UsernameModel takenEverywhere(String username) {
+        UsernameModel usernameModel = FakeUsernamesService.model(username);
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            usernameModel.setAvailable(id, false);
+        }
+        return usernameModel;
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<String>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+}
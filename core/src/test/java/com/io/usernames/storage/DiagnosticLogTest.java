@@ -0,0 +1,96 @@
+package com.io.usernames.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiagnosticLogTest {
+
+    private static final int DEBUG = 3;
+    private static final int WARN = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesRecordsThatDecodeToLines() throws IOException {
+        DiagnosticLog log = new DiagnosticLog(folder.getRoot(), "test", 16, 64 * 1024, 2);
+        assertTrue(log.log(DEBUG, "Fetch", "batch of 20"));
+        assertTrue(log.log(WARN, "Fetch", "retrying"));
+        assertTrue(log.log(DEBUG, null, null));
+        log.close();
+
+        File[] files = log.getFiles();
+        assertEquals(1, files.length);
+        String[] lines = decode(files[0]).split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" D [Fetch] batch of 20"));
+        assertTrue(lines[1], lines[1].endsWith(" W [Fetch] retrying"));
+        assertTrue(lines[2], lines[2].endsWith(" D [] null"));
+    }
+
+    @Test
+    public void fullRingDropsRecordsInsteadOfWaiting() throws IOException {
+        DiagnosticLog log = new DiagnosticLog(folder.getRoot(), "test", 8, 64 * 1024, 2);
+        // Holding the ring's lock keeps the writer from draining it
+        synchronized (log) {
+            for (int i = 0; i < 8; i++) {
+                assertTrue(log.log(DEBUG, "t", "kept " + i));
+            }
+            assertFalse(log.log(DEBUG, "t", "dropped"));
+            assertFalse(log.log(DEBUG, "t", "dropped"));
+            assertEquals(2, log.getDroppedCount());
+        }
+        log.close();
+        assertFalse(log.log(DEBUG, "t", "after close"));
+
+        String decoded = decode(log.getFiles()[0]);
+        assertEquals(8, decoded.split("\n").length);
+        assertFalse(decoded.contains("dropped"));
+    }
+
+    @Test
+    public void rotatesAndKeepsTheNewestFiles() throws IOException {
+        DiagnosticLog log = new DiagnosticLog(folder.getRoot(), "test", 256, 256, 3);
+        for (int i = 0; i < 100; i++) {
+            log.log(DEBUG, "t", "record number " + i);
+        }
+        log.close();
+
+        File[] files = log.getFiles();
+        assertEquals(3, files.length);
+        assertTrue(decode(files[0]).endsWith("record number 99\n"));
+        for (File file : files) {
+            assertTrue(file + " has " + file.length() + " bytes", file.length() < 256 + 64);
+        }
+        // The oldest records were rotated out
+        assertFalse(decode(files[2]).contains("record number 0\n"));
+    }
+
+    @Test
+    public void truncatesLongMessages() throws IOException {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            message.append('x');
+        }
+        DiagnosticLog log = new DiagnosticLog(folder.getRoot(), "test", 16, 64 * 1024, 2);
+        log.log(DEBUG, "t", message.toString());
+        log.close();
+
+        String line = decode(log.getFiles()[0]).trim();
+        assertEquals(4096, line.length() - line.indexOf("] ") - 2);
+    }
+
+    private static String decode(File file) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        DiagnosticLog.appendTo(file, builder);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.util.MemoryPressure;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventQueueTest {
+
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    static class RecordingSink implements EventQueue.Sink {
+        final List<String> actions = new ArrayList<String>();
+        volatile boolean failing;
+        volatile int failures;
+
+        @Override
+        public synchronized void send(List<EventQueue.Event> events) throws IOException {
+            if (failing) {
+                failures++;
+                throw new IOException("Offline");
+            }
+            for (EventQueue.Event event : events) {
+                actions.add(event.action);
+            }
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addedEventsSurviveWithoutAFlush() throws Exception {
+        File spool = new File(folder.getRoot(), "events.spool");
+        RecordingSink sink = new RecordingSink();
+        EventQueue queue = new EventQueue(spool, sink, 100, NEVER);
+        // Past the flush every queue starts with
+        Thread.sleep(50);
+        queue.add("tap", null);
+        queue.add("swipe", "left");
+        awaitSpooled(queue, 2);
+        assertTrue(spool.exists());
+        assertEquals(2, queue.getQueuedCount());
+        assertEquals(0, queue.getSentCount());
+        // Killed before anything flushed, a later process sends them
+        RecordingSink nextSink = new RecordingSink();
+        EventQueue next = new EventQueue(spool, nextSink, 100, NEVER);
+        awaitSent(next, 2);
+        assertEquals("tap", nextSink.actions.get(0));
+        assertEquals("swipe", nextSink.actions.get(1));
+        assertTrue(sink.actions.isEmpty());
+        next.shutdown();
+        queue.shutdown();
+    }
+
+    @Test
+    public void unsentBatchesAreSentByTheNextProcess() throws Exception {
+        File spool = new File(folder.getRoot(), "events.spool");
+        RecordingSink sink = new RecordingSink();
+        sink.failing = true;
+        EventQueue queue = new EventQueue(spool, sink, 100, NEVER);
+        queue.add("tap", null);
+        queue.add("swipe", "left");
+        queue.flush();
+        awaitSpooled(queue, 2);
+        assertTrue(sink.actions.isEmpty());
+        // The process dies here, a later one sends what the first left behind
+        RecordingSink nextSink = new RecordingSink();
+        EventQueue next = new EventQueue(spool, nextSink, 100, NEVER);
+        next.shutdown();
+        awaitSent(next, 2);
+        assertEquals(2, nextSink.actions.size());
+        assertEquals("tap", nextSink.actions.get(0));
+        assertFalse(spool.exists());
+        queue.shutdown();
+    }
+
+    @Test
+    public void aFullBatchIsSpooledInOneGoAndSent() throws Exception {
+        File spool = new File(folder.getRoot(), "events.spool");
+        RecordingSink sink = new RecordingSink();
+        EventQueue queue = new EventQueue(spool, sink, 3, NEVER);
+        queue.add("one", null);
+        queue.add("two", null);
+        queue.add("three", null);
+        awaitSent(queue, 3);
+        assertEquals(3, queue.getSpooledCount());
+        assertEquals(0, queue.getQueuedCount());
+        assertFalse(spool.exists());
+        queue.shutdown();
+    }
+
+    @Test
+    public void sentEventsAreNotSentAgain() throws Exception {
+        File spool = new File(folder.getRoot(), "events.spool");
+        RecordingSink sink = new RecordingSink();
+        EventQueue queue = new EventQueue(spool, sink, 2, NEVER);
+        queue.add("one", null);
+        queue.add("two", null);
+        awaitSent(queue, 2);
+        queue.add("three", null);
+        queue.flush();
+        awaitSent(queue, 3);
+        assertEquals(3, sink.actions.size());
+        assertEquals("three", sink.actions.get(2));
+        queue.shutdown();
+    }
+
+    @Test
+    public void failedBatchesStayInTheSpool() throws Exception {
+        File spool = new File(folder.getRoot(), "events.spool");
+        RecordingSink sink = new RecordingSink();
+        sink.failing = true;
+        EventQueue queue = new EventQueue(spool, sink, 2, NEVER);
+        queue.add("one", null);
+        queue.add("two", null);
+        queue.add("three", null);
+        queue.flush();
+        awaitSpooled(queue, 3);
+        for (int i = 0; i < 200 && (sink.failures < 1 || queue.getQueuedCount() < 3); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, queue.getQueuedCount());
+        sink.failing = false;
+        queue.add("four", null);
+        queue.flush();
+        awaitSent(queue, 4);
+        assertEquals(4, sink.actions.size());
+        queue.shutdown();
+    }
+
+    @Test
+    public void sendsWhatIsQueuedOnceTheUiIsHidden() throws Exception {
+        File spool = new File(folder.getRoot(), "events.spool");
+        RecordingSink sink = new RecordingSink();
+        EventQueue queue = new EventQueue(spool, sink, 100, NEVER);
+        MemoryPressure memoryPressure = new MemoryPressure();
+        memoryPressure.register(queue);
+        // Past the flush every queue starts with
+        Thread.sleep(50);
+        queue.add("tap", null);
+        memoryPressure.trim(MemoryPressure.TRIM_RUNNING_CRITICAL);
+        Thread.sleep(50);
+        assertEquals(0, queue.getSentCount());
+        memoryPressure.trim(MemoryPressure.TRIM_UI_HIDDEN);
+        awaitSent(queue, 1);
+        queue.shutdown();
+    }
+
+    private static void awaitSpooled(EventQueue queue, long count) throws InterruptedException {
+        for (int i = 0; i < 200 && queue.getSpooledCount() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, queue.getSpooledCount());
+    }
+
+    private static void awaitSent(EventQueue queue, long count) throws InterruptedException {
+        for (int i = 0; i < 200 && queue.getSentCount() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, queue.getSentCount());
+    }
+}
@@ -0,0 +1,69 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FavoritesStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "favorites.log");
+    }
+
+    @Test
+    public void restoresPutsAndRemovesOnReopen() throws IOException {
+        FavoritesStore store = new FavoritesStore(file);
+        store.add(UsernameCacheTest.model("Quaxel", true));
+        store.add(UsernameCacheTest.model("frobnik", false));
+        store.add(UsernameCacheTest.model("zorp", false));
+        assertTrue(store.remove("ZORP"));
+        store.close();
+
+        FavoritesStore reopened = new FavoritesStore(file);
+        assertEquals(2, reopened.size());
+        assertFalse(reopened.contains("zorp"));
+        List<FavoritesStore.Favorite> page = reopened.list(0, 10);
+        assertEquals("frobnik", page.get(0).getUsername());
+        assertEquals("Quaxel", page.get(1).getUsername());
+        assertTrue(page.get(1).isAvailable(ServiceRegistry.TWITTER));
+        reopened.close();
+    }
+
+    @Test
+    public void compactsSupersededRecords() throws IOException {
+        FavoritesStore store = new FavoritesStore(file);
+        UsernameModel usernameModel = UsernameCacheTest.model("frobnik", false);
+        store.add(usernameModel);
+        long oneRecord = store.getSizeBytes();
+        for (int i = 0; i < 3000; i++) {
+            usernameModel.setAvailable(ServiceRegistry.TWITTER, i % 2 == 0);
+            store.update(usernameModel);
+        }
+        store.close();
+        // Bounded by the compaction threshold rather than the number of updates
+        assertTrue(file.length() < oneRecord * 2048);
+
+        FavoritesStore reopened = new FavoritesStore(file);
+        assertEquals(1, reopened.size());
+        assertFalse(reopened.get("frobnik").isAvailable(ServiceRegistry.TWITTER));
+        reopened.close();
+    }
+}
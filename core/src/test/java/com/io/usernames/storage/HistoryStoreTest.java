@@ -0,0 +1,216 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HistoryStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("history");
+    }
+
+    @Test
+    public void keepsEntriesAcrossReopens() throws IOException {
+        HistoryStore store = new HistoryStore(directory);
+        for (int i = 0; i < 5; i++) {
+            store.append(model("name" + i));
+        }
+        store.close();
+
+        store = new HistoryStore(directory);
+        assertEquals(5, store.size());
+        store.append(model("name5"));
+        List<UsernameModel> read = store.read(3, 10);
+        assertEquals(3, read.size());
+        assertEquals("name5", read.get(2).getUsername());
+        store.close();
+    }
+
+    @Test
+    public void dropsWhatATornWriteLeftBehind() throws IOException {
+        HistoryStore store = new HistoryStore(directory);
+        store.append(model("alpha"));
+        store.append(model("beta"));
+        store.close();
+
+        // Data for an entry whose index entry was only half written
+        RandomAccessFile data = new RandomAccessFile(new File(directory, "history.dat"), "rw");
+        data.seek(data.length());
+        data.write(new byte[]{1, 2, 3});
+        data.close();
+        RandomAccessFile index = new RandomAccessFile(new File(directory, "history.idx"), "rw");
+        index.seek(index.length());
+        index.write(new byte[]{0, 0, 0});
+        index.close();
+
+        store = new HistoryStore(directory);
+        assertEquals(2, store.size());
+        store.append(model("gamma"));
+        List<UsernameModel> read = store.read(0, 3);
+        assertEquals("alpha", read.get(0).getUsername());
+        assertEquals("gamma", read.get(2).getUsername());
+        store.close();
+    }
+
+    @Test
+    public void dropsEntriesWhoseDataIsMissing() throws IOException {
+        HistoryStore store = new HistoryStore(directory);
+        store.append(model("alpha"));
+        store.append(model("beta"));
+        store.close();
+
+        RandomAccessFile data = new RandomAccessFile(new File(directory, "history.dat"), "rw");
+        data.setLength(data.length() - 1);
+        data.close();
+
+        store = new HistoryStore(directory);
+        assertEquals(1, store.size());
+        assertEquals("alpha", store.read(0, 1).get(0).getUsername());
+        store.close();
+    }
+
+    @Test
+    public void trimsTheOldestEntriesOnOpen() throws IOException {
+        HistoryStore store = new HistoryStore(directory, 4);
+        for (int i = 0; i < 10; i++) {
+            store.append(model("name" + i));
+        }
+        store.close();
+        long untrimmedLength = new File(directory, "history.dat").length();
+
+        store = new HistoryStore(directory, 4);
+        // Positions stay where they were, only the oldest are gone
+        assertEquals(6, store.getFirst());
+        assertEquals(10, store.size());
+        assertEquals("name6", store.read(6, 1).get(0).getUsername());
+        try {
+            store.read(5, 1);
+            fail("Trimmed entries should be gone");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        store.append(model("name10"));
+        store.close();
+        assertTrue(new File(directory, "history.dat").length() < untrimmedLength);
+
+        store = new HistoryStore(directory, 4);
+        assertEquals(6, store.getFirst());
+        List<UsernameModel> read = store.read(6, 10);
+        assertEquals(5, read.size());
+        assertEquals("name6", read.get(0).getUsername());
+        assertEquals("name10", read.get(4).getUsername());
+        store.close();
+    }
+
+    @Test
+    public void keepsUpToAQuarterMoreBeforeTrimming() throws IOException {
+        HistoryStore store = new HistoryStore(directory, 8);
+        for (int i = 0; i < 10; i++) {
+            store.append(model("name" + i));
+        }
+        store.close();
+
+        store = new HistoryStore(directory, 8);
+        assertEquals(0, store.getFirst());
+        store.close();
+    }
+
+    @Test
+    public void finishesATrimCutShortAfterTheDataWasReplaced() throws IOException {
+        HistoryStore store = new HistoryStore(directory, 4);
+        for (int i = 0; i < 10; i++) {
+            store.append(model("name" + i));
+        }
+        store.close();
+        store = new HistoryStore(directory, 4);
+        store.close();
+
+        // As if the process died between the two renames: new data, the new index not in place
+        File index = new File(directory, "history.idx");
+        assertTrue(index.renameTo(new File(directory, "history.idx.tmp")));
+        RandomAccessFile stale = new RandomAccessFile(index, "rw");
+        stale.write(new byte[64]);
+        stale.close();
+
+        store = new HistoryStore(directory, 4);
+        assertEquals(6, store.getFirst());
+        assertEquals(10, store.size());
+        assertEquals("name9", store.read(9, 1).get(0).getUsername());
+        store.close();
+    }
+
+    @Test
+    public void opensAStoreWrittenBeforeTrimmingExisted() throws IOException {
+        // No header in the index, the ends of each entry straight away
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        RandomAccessFile index = new RandomAccessFile(new File(directory, "history.idx"), "rw");
+        for (int i = 0; i < 3; i++) {
+            UsernameModelCodec.write(out, model("name" + i));
+            index.writeLong(bytes.size());
+        }
+        index.close();
+        FileOutputStream data = new FileOutputStream(new File(directory, "history.dat"));
+        data.write(bytes.toByteArray());
+        data.close();
+
+        HistoryStore store = new HistoryStore(directory);
+        assertEquals(0, store.getFirst());
+        assertEquals(3, store.size());
+        store.append(model("name3"));
+        store.close();
+
+        store = new HistoryStore(directory);
+        List<UsernameModel> read = store.read(0, 4);
+        assertEquals("name0", read.get(0).getUsername());
+        assertEquals("name3", read.get(3).getUsername());
+        store.close();
+    }
+
+    @Test
+    public void readsAndUpdatesSeeEntriesStillQueued() throws IOException {
+        HistoryStore store = new HistoryStore(directory);
+        for (int i = 0; i < 50; i++) {
+            store.append(model("name" + i));
+            UsernameModel updated = model("name" + i);
+            updated.setAvailable(ServiceRegistry.GITHUB, true);
+            store.update(i, updated);
+            // Wherever the entry is by now, queued or written
+            UsernameModel read = store.read(i, 1).get(0);
+            assertEquals("name" + i, read.getUsername());
+            assertTrue(read.isAvailable(ServiceRegistry.GITHUB));
+        }
+        store.close();
+        store = new HistoryStore(directory);
+        assertTrue(store.read(49, 1).get(0).isAvailable(ServiceRegistry.GITHUB));
+        store.close();
+    }
+
+    private static UsernameModel model(String username) {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername(username);
+        return usernameModel;
+    }
+}
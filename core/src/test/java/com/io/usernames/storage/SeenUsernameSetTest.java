@@ -0,0 +1,115 @@
+package com.io.usernames.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeenUsernameSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "seen.set");
+    }
+
+    @Test
+    public void variantsOfANameCountAsSeen() {
+        SeenUsernameSet seen = SeenUsernameSet.open(file, 16);
+        assertTrue(seen.add("frobnik"));
+        assertTrue(seen.contains("Frobnik"));
+        assertTrue(seen.contains("  FROBNIK \t"));
+        assertFalse(seen.add(" FrobNik"));
+        assertFalse(seen.contains("frobnik2"));
+        assertFalse(seen.contains(null));
+        assertEquals(1, seen.size());
+    }
+
+    @Test
+    public void keepsItsContentsWhenReopened() throws IOException {
+        SeenUsernameSet seen = SeenUsernameSet.open(file, 16);
+        seen.add("alpha");
+        seen.add("beta");
+        seen.save();
+
+        SeenUsernameSet reopened = SeenUsernameSet.open(file, 16);
+        assertEquals(2, reopened.size());
+        assertTrue(reopened.contains("alpha"));
+        assertTrue(reopened.contains("beta"));
+        assertFalse(reopened.contains("gamma"));
+    }
+
+    @Test
+    public void forgetsTheOldestNamesAtTheCap() throws IOException {
+        SeenUsernameSet seen = SeenUsernameSet.open(file, 3);
+        for (String username : new String[]{"alpha", "beta", "gamma", "delta"}) {
+            seen.add(username);
+        }
+        assertEquals(3, seen.size());
+        assertFalse(seen.contains("alpha"));
+        assertTrue(seen.contains("beta"));
+        assertTrue(seen.contains("delta"));
+        seen.save();
+
+        // A smaller cap keeps the newest of what was saved
+        SeenUsernameSet reopened = SeenUsernameSet.open(file, 2);
+        assertEquals(2, reopened.size());
+        assertFalse(reopened.contains("beta"));
+        assertTrue(reopened.contains("gamma"));
+        assertTrue(reopened.contains("delta"));
+    }
+
+    @Test
+    public void keepsWhatWasWrittenBeforeATornWrite() throws IOException {
+        SeenUsernameSet seen = SeenUsernameSet.open(file, 16);
+        seen.add("alpha");
+        seen.add("beta");
+        seen.add("gamma");
+        seen.save();
+        // Cut the last hash in half
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 4);
+        } finally {
+            raf.close();
+        }
+
+        SeenUsernameSet reopened = SeenUsernameSet.open(file, 16);
+        assertEquals(2, reopened.size());
+        assertTrue(reopened.contains("alpha"));
+        assertTrue(reopened.contains("beta"));
+        assertFalse(reopened.contains("gamma"));
+        // Still usable, and saved whole again
+        reopened.add("gamma");
+        reopened.save();
+        assertEquals(3, SeenUsernameSet.open(file, 16).size());
+    }
+
+    @Test
+    public void startsEmptyFromAFileCutInItsHeaderOrOfAnotherKind() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{0x55, 0x4e});
+        out.close();
+        assertEquals(0, SeenUsernameSet.open(file, 16).size());
+
+        out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3, 4, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 1});
+        out.close();
+        SeenUsernameSet seen = SeenUsernameSet.open(file, 16);
+        assertEquals(0, seen.size());
+        assertTrue(seen.add("alpha"));
+    }
+}
@@ -0,0 +1,136 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.util.BloomFilter;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TakenUsernameFilterTest {
+
+    private static final int EXPECTED_INSERTIONS = 1000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MAX_BYTES = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "taken.bloom");
+    }
+
+    @Test
+    public void rejectsNamesTakenEverywhere() {
+        TakenUsernameFilter filter = open();
+        assertTrue(filter.reject(taken("frobnik")));
+        // Seen before, so an unchecked candidate of that name is dropped too
+        assertTrue(filter.reject(unchecked("FROBNIK")));
+        assertFalse(filter.reject(unchecked("quaxel")));
+        assertEquals(3, filter.getCheckedCount());
+        assertEquals(2, filter.getFilteredCount());
+    }
+
+    @Test
+    public void freshResultsWithAFreeServiceWinOverTheFilter() {
+        TakenUsernameFilter filter = open();
+        filter.record(taken("frobnik"));
+        UsernameModel usernameModel = unchecked("frobnik");
+        usernameModel.setAvailable(ServiceRegistry.GITHUB, true);
+        assertFalse(filter.reject(usernameModel));
+    }
+
+    @Test
+    public void partlyCheckedNamesAreNotRecorded() {
+        TakenUsernameFilter filter = open();
+        UsernameModel usernameModel = unchecked("frobnik");
+        usernameModel.setAvailable(ServiceRegistry.TWITTER, false);
+        filter.record(usernameModel);
+        assertFalse(filter.mightBeTaken("frobnik"));
+    }
+
+    @Test
+    public void keepsTheFilterAcrossSessions() throws IOException {
+        TakenUsernameFilter filter = open();
+        filter.record(taken("frobnik"));
+        filter.save();
+
+        assertTrue(open().mightBeTaken("frobnik"));
+        // Other parameters start over
+        assertFalse(TakenUsernameFilter.open(file, EXPECTED_INSERTIONS * 4, FALSE_POSITIVE_RATE, MAX_BYTES * 4)
+                .mightBeTaken("frobnik"));
+    }
+
+    @Test
+    public void aFailedSaveIsTriedAgain() throws IOException {
+        File directory = new File(folder.getRoot(), "later");
+        File inDirectory = new File(directory, "taken.bloom");
+        TakenUsernameFilter filter = TakenUsernameFilter.open(inDirectory, EXPECTED_INSERTIONS,
+                FALSE_POSITIVE_RATE, MAX_BYTES);
+        filter.record(taken("frobnik"));
+        try {
+            filter.save();
+            fail("Saved into a directory that does not exist");
+        } catch (IOException expected) {
+        }
+        assertTrue(directory.mkdir());
+        filter.save();
+        assertTrue(TakenUsernameFilter.open(inDirectory, EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE, MAX_BYTES)
+                .mightBeTaken("frobnik"));
+    }
+
+    @Test
+    public void mergesCompatibleSnapshots() throws IOException {
+        BloomFilter seed = BloomFilter.create(EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE, MAX_BYTES);
+        seed.put("zorp");
+        TakenUsernameFilter filter = open();
+        filter.seed(snapshot(seed));
+        assertTrue(filter.mightBeTaken("zorp"));
+
+        try {
+            filter.seed(snapshot(BloomFilter.create(10, FALSE_POSITIVE_RATE, 64)));
+            fail("Seeded from a snapshot with other parameters");
+        } catch (IOException expected) {
+        }
+    }
+
+    private TakenUsernameFilter open() {
+        return TakenUsernameFilter.open(file, EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE, MAX_BYTES);
+    }
+
+    private static ByteArrayInputStream snapshot(BloomFilter filter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(bytes));
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private static UsernameModel unchecked(String username) {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername(username);
+        return usernameModel;
+    }
+
+    private static UsernameModel taken(String username) {
+        UsernameModel usernameModel = unchecked(username);
+        for (int id = 0; id < ServiceRegistry.COUNT; id++) {
+            usernameModel.setAvailable(id, false);
+        }
+        return usernameModel;
+    }
+}
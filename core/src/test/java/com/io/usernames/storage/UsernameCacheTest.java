@@ -0,0 +1,170 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UsernameCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "usernames.cache");
+    }
+
+    @Test
+    public void startsEmpty() throws IOException {
+        UsernameCache cache = new UsernameCache(file, UsernameCache.DEFAULT_MAX_BYTES);
+        assertNull(cache.getLastShown());
+        assertEquals(0, cache.getUnseenCount());
+        cache.close();
+    }
+
+    @Test
+    public void restoresStateOnReopen() throws IOException {
+        UsernameCache cache = new UsernameCache(file, UsernameCache.DEFAULT_MAX_BYTES);
+        cache.putFetched(model("frobnik", true));
+        cache.putFetched(model("quaxel", false));
+        cache.markShown(model("frobnik", true));
+        cache.close();
+
+        UsernameCache reopened = new UsernameCache(file, UsernameCache.DEFAULT_MAX_BYTES);
+        assertEquals("frobnik", reopened.getLastShown().getUsername());
+        assertTrue(reopened.getLastShown().isAvailable(ServiceRegistry.TWITTER));
+        List<UsernameModel> unseen = reopened.takeUnseen(10);
+        assertEquals(1, unseen.size());
+        assertEquals("quaxel", unseen.get(0).getUsername());
+        reopened.close();
+    }
+
+    @Test
+    public void dropsTornTail() throws IOException {
+        writeThree();
+        long length = file.length();
+        truncate(length - 3);
+
+        UsernameCache reopened = new UsernameCache(file, UsernameCache.DEFAULT_MAX_BYTES);
+        assertEquals(names("alpha", "beta"), unseenNames(reopened));
+        // The torn bytes are gone, so the next append lands on a record boundary
+        reopened.putFetched(model("delta", false));
+        reopened.close();
+
+        UsernameCache again = new UsernameCache(file, UsernameCache.DEFAULT_MAX_BYTES);
+        assertEquals(names("alpha", "beta", "delta"), unseenNames(again));
+        again.close();
+    }
+
+    @Test
+    public void dropsRecordWithBadChecksum() throws IOException {
+        writeThree();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        UsernameCache reopened = new UsernameCache(file, UsernameCache.DEFAULT_MAX_BYTES);
+        assertEquals(names("alpha", "beta"), unseenNames(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void ignoresFileWithoutMagic() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeInt(0x12345678);
+            raf.writeInt(99);
+        } finally {
+            raf.close();
+        }
+        UsernameCache cache = new UsernameCache(file, UsernameCache.DEFAULT_MAX_BYTES);
+        assertEquals(0, cache.getUnseenCount());
+        cache.close();
+    }
+
+    @Test
+    public void compactsOnceLogOutgrowsMaxBytes() throws IOException {
+        long maxBytes = 512;
+        UsernameCache cache = new UsernameCache(file, maxBytes);
+        for (int i = 0; i < 100; i++) {
+            cache.putFetched(model("name" + i, i % 2 == 0));
+        }
+        cache.markShown(model("name99", false));
+        assertTrue(cache.getSizeBytes() <= maxBytes);
+        int unseenCount = cache.getUnseenCount();
+        assertTrue(unseenCount > 0 && unseenCount < 99);
+        cache.close();
+        assertTrue(file.length() <= maxBytes);
+        assertTrue(!new File(file.getPath() + ".tmp").exists());
+
+        // Compaction keeps the last shown name and the newest of the unseen ones
+        UsernameCache reopened = new UsernameCache(file, maxBytes);
+        assertEquals("name99", reopened.getLastShown().getUsername());
+        List<UsernameModel> unseen = reopened.takeUnseen(Integer.MAX_VALUE);
+        assertEquals(unseenCount, unseen.size());
+        assertEquals("name98", unseen.get(unseen.size() - 1).getUsername());
+        assertTrue(unseen.get(unseen.size() - 1).isAvailable(ServiceRegistry.TWITTER));
+        reopened.close();
+    }
+
+    private void writeThree() throws IOException {
+        UsernameCache cache = new UsernameCache(file, UsernameCache.DEFAULT_MAX_BYTES);
+        cache.putFetched(model("alpha", false));
+        cache.putFetched(model("beta", false));
+        cache.putFetched(model("gamma", false));
+        cache.close();
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String names(String... names) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            builder.append(name).append(' ');
+        }
+        return builder.toString();
+    }
+
+    private static String unseenNames(UsernameCache cache) {
+        StringBuilder builder = new StringBuilder();
+        for (UsernameModel usernameModel : cache.takeUnseen(Integer.MAX_VALUE)) {
+            builder.append(usernameModel.getUsername()).append(' ');
+        }
+        return builder.toString();
+    }
+
+    static UsernameModel model(String username, boolean twitterAvailable) {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername(username);
+        usernameModel.setAvailable(ServiceRegistry.TWITTER, twitterAvailable);
+        return usernameModel;
+    }
+}
@@ -0,0 +1,142 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class UsernameExporterTest {
+
+    private static final String UNKNOWN_SERVICES = ",,,,,";
+    private static final String JSON_UNKNOWN_SERVICES =
+            ",\"url\":null,\"facebook\":null,\"twitter\":null,\"github\":null,\"linkedin\":null}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void quotesCsvFieldsThatNeedIt() throws IOException {
+        assertEquals("plain,history" + UNKNOWN_SERVICES + "\n"
+                        + "\"a,b\",history" + UNKNOWN_SERVICES + "\n"
+                        + "\"say \"\"hi\"\"\",history" + UNKNOWN_SERVICES + "\n"
+                        + "\"two\nlines\",history" + UNKNOWN_SERVICES + "\n",
+                exportRecords(UsernameExporter.Format.CSV, "plain", "a,b", "say \"hi\"", "two\nlines"));
+    }
+
+    @Test
+    public void writesTheCsvHeaderAndAvailability() throws IOException {
+        UsernameModel usernameModel = model("frobnik");
+        usernameModel.setAvailable(ServiceRegistry.URL, true);
+        usernameModel.setAvailable(ServiceRegistry.FACEBOOK, false);
+        File file = folder.newFile();
+        UsernameExporter exporter = open(file, UsernameExporter.Format.CSV, 1024);
+        exporter.writeHeader();
+        exporter.write(usernameModel, UsernameExporter.SOURCE_FAVORITE);
+        exporter.flush();
+        assertEquals("username,source,url,facebook,twitter,github,linkedin\n"
+                + "frobnik,favorite,available,taken,,,\n", read(file));
+    }
+
+    @Test
+    public void escapesJsonControlCharacters() throws IOException {
+        assertEquals("{\"username\":\"tab\\u0009nul\\u0000\\\"q\\\"\\\\\",\"source\":\"history\""
+                        + JSON_UNKNOWN_SERVICES + "\n",
+                exportRecords(UsernameExporter.Format.NDJSON, "tab\tnul\u0000\"q\"\\"));
+    }
+
+    @Test
+    public void encodesSurrogatePairsAsOneCodePoint() throws IOException {
+        File file = folder.newFile();
+        UsernameExporter exporter = open(file, UsernameExporter.Format.CSV, 1024);
+        exporter.write(model("a\uD83D\uDE00\u00e9\u20ac"), UsernameExporter.SOURCE_HISTORY);
+        // A lone half of a pair has no encoding
+        exporter.write(model("b\uD83D"), UsernameExporter.SOURCE_HISTORY);
+        exporter.flush();
+        assertArrayEquals(("a\uD83D\uDE00\u00e9\u20ac,history" + UNKNOWN_SERVICES + "\n"
+                + "b?,history" + UNKNOWN_SERVICES + "\n").getBytes("UTF-8"), bytes(file));
+    }
+
+    @Test
+    public void recordsStraddlingTheBufferComeOutWhole() throws IOException {
+        String[] usernames = new String[500];
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < usernames.length; i++) {
+            // Multi-byte chars land on every offset of the 1024 byte buffer sooner or later
+            usernames[i] = "n\u00e9\uD83D\uDE00" + i;
+            expected.append("{\"username\":\"").append(usernames[i]).append("\",\"source\":\"history\"")
+                    .append(JSON_UNKNOWN_SERVICES).append('\n');
+        }
+        assertEquals(expected.toString(), exportRecords(UsernameExporter.Format.NDJSON, usernames));
+    }
+
+    @Test
+    public void exportsTheHistoryThenTheFavorites() throws IOException {
+        List<UsernameModel> history = new ArrayList<UsernameModel>();
+        for (int i = 0; i < 600; i++) {
+            history.add(model("name" + i));
+        }
+        FavoritesStore favorites = new FavoritesStore(folder.newFile());
+        favorites.add(model("kept"));
+        File file = folder.newFile();
+        try {
+            int count = UsernameExporter.export(file, UsernameExporter.Format.CSV,
+                    new UsernameHistory.Snapshot(null, 0, 0, history), favorites);
+            assertEquals(601, count);
+        } finally {
+            favorites.close();
+        }
+        String[] lines = read(file).split("\n");
+        assertEquals(602, lines.length);
+        assertEquals("name599,history" + UNKNOWN_SERVICES, lines[600]);
+        assertEquals("kept,favorite" + UNKNOWN_SERVICES, lines[601]);
+    }
+
+    private String exportRecords(UsernameExporter.Format format, String... usernames) throws IOException {
+        File file = folder.newFile();
+        UsernameExporter exporter = open(file, format, 1024);
+        for (String username : usernames) {
+            exporter.write(model(username), UsernameExporter.SOURCE_HISTORY);
+        }
+        exporter.flush();
+        assertEquals(usernames.length, exporter.getRecordCount());
+        return read(file);
+    }
+
+    private static UsernameExporter open(File file, UsernameExporter.Format format, int bufferSize)
+            throws IOException {
+        return new UsernameExporter(new FileOutputStream(file).getChannel(), format, bufferSize);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(bytes(file), "UTF-8");
+    }
+
+    private static byte[] bytes(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static UsernameModel model(String username) {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername(username);
+        return usernameModel;
+    }
+}
@@ -0,0 +1,223 @@
+package com.io.usernames.storage;
+
+import com.io.usernames.models.ServiceRegistry;
+import com.io.usernames.models.UsernameModel;
+import com.io.usernames.util.MemoryPressure;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UsernameHistoryTest {
+
+    private static final int WINDOW_SIZE = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private UsernameHistory history;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("history");
+        history = new UsernameHistory(new HistoryStore(directory), WINDOW_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        history.close();
+    }
+
+    @Test
+    public void pagesOutOlderEntriesAndReadsThemBack() {
+        addNames(20);
+        assertEquals(20, history.size());
+        assertEquals(WINDOW_SIZE, history.getWindowCount());
+        assertEquals(16, history.getPagedCount());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("name" + i, history.get(i).getUsername());
+        }
+    }
+
+    @Test
+    public void snapshotReadsAcrossTheStoreAndTheWindow() throws IOException {
+        addNames(20);
+        UsernameHistory.Snapshot snapshot = history.snapshot();
+        addNames(20, 30);
+        assertEquals(20, snapshot.size());
+        List<String> read = new ArrayList<String>();
+        for (int position = 0; position < snapshot.size(); ) {
+            List<UsernameModel> chunk = snapshot.read(position, 5);
+            for (UsernameModel usernameModel : chunk) {
+                read.add(usernameModel.getUsername());
+            }
+            position += chunk.size();
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals("name" + i, read.get(i));
+        }
+    }
+
+    @Test
+    public void snapshotKeepsTheStoreOpenAfterTheHistoryIsClosed() throws IOException {
+        addNames(20);
+        UsernameHistory.Snapshot snapshot = history.snapshot();
+        history.close();
+        assertEquals("name0", snapshot.read(0, 1).get(0).getUsername());
+        snapshot.close();
+        try {
+            snapshot.read(0, 1);
+            fail("The store should be closed once the snapshot let go of it");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void entriesCannotBeRemoved() {
+        addNames(2);
+        history.remove(0);
+    }
+
+    @Test
+    public void persistsUpdatesForPagedOutEntries() {
+        UsernameModel first = model("name0");
+        history.add(first);
+        history.startCheck(first);
+        addNames(1, 12);
+        assertTrue(history.getPagedCount() > 0);
+        assertNotSame(first, history.get(0));
+
+        // A check that finishes after its entry was paged out
+        first.setAvailable(ServiceRegistry.GITHUB, true);
+        UsernameModel shown = history.update(first);
+        assertSame(history.get(0), shown);
+        assertTrue(shown.isAvailable(ServiceRegistry.GITHUB));
+        history.finishCheck(first);
+
+        history.trim(MemoryPressure.TRIM_COMPLETE);
+        assertTrue(history.get(0).isAvailable(ServiceRegistry.GITHUB));
+    }
+
+    @Test
+    public void updatesInsideTheWindowAreStoredToo() throws IOException {
+        addNames(10);
+        UsernameModel last = history.get(9);
+        history.startCheck(last);
+        last.setAvailable(ServiceRegistry.GITHUB, true);
+        // No copy to refresh, the window holds the instance itself
+        assertNull(history.update(last));
+        // Never checked through the history, e.g. a looked up name
+        assertNull(history.update(model("elsewhere")));
+
+        history.close();
+        history = new UsernameHistory(new HistoryStore(directory), 0, WINDOW_SIZE);
+        assertTrue(history.get(9).isAvailable(ServiceRegistry.GITHUB));
+    }
+
+    @Test
+    public void laterSessionsStartAfterEarlierOnes() throws IOException {
+        addNames(10);
+        history.close();
+        history = new UsernameHistory(new HistoryStore(directory), WINDOW_SIZE);
+        assertEquals(0, history.size());
+        addNames(10, 15);
+        assertEquals("name10", history.get(0).getUsername());
+
+        // The snapshot covers both sessions
+        UsernameHistory.Snapshot snapshot = history.snapshot();
+        assertEquals(15, snapshot.size());
+        assertEquals("name0", snapshot.read(0, 1).get(0).getUsername());
+        assertEquals("name14", snapshot.read(14, 1).get(0).getUsername());
+    }
+
+    @Test
+    public void continuesASessionAfterTheProcessDied() throws Exception {
+        addNames(3);
+        history.close();
+        HistoryStore store = new HistoryStore(directory);
+        history = new UsernameHistory(store, WINDOW_SIZE);
+        addNames(3, 20);
+        int storeBase = history.getStoreBase();
+        assertEquals(3, storeBase);
+        for (int i = 0; i < 200 && store.getUnwrittenCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        // Written, but never closed, as when the process is killed
+        history = new UsernameHistory(new HistoryStore(directory), storeBase, WINDOW_SIZE);
+        assertEquals(17, history.size());
+        assertEquals("name3", history.get(0).getUsername());
+        assertEquals("name19", history.get(16).getUsername());
+        history.add(model("name20"));
+        assertEquals("name20", history.get(17).getUsername());
+    }
+
+    @Test
+    public void backgroundTrimKeepsTheVisibleEntryAndItsNeighbours() throws IOException {
+        useWindowSize(16);
+        addNames(16);
+        history.setVisiblePosition(10);
+        history.trim(MemoryPressure.TRIM_BACKGROUND);
+        // Everything before the neighbour on the left is paged out
+        assertEquals(9, history.getPagedCount());
+        assertEquals(7, history.getWindowCount());
+        assertEquals("name9", history.get(9).getUsername());
+        assertEquals("name10", history.get(10).getUsername());
+        assertEquals("name11", history.get(11).getUsername());
+    }
+
+    @Test
+    public void backgroundTrimWithoutAVisiblePositionKeepsTheLastEntries() throws IOException {
+        useWindowSize(16);
+        addNames(16);
+        history.trim(MemoryPressure.TRIM_BACKGROUND);
+        assertEquals(14, history.getPagedCount());
+        assertEquals(2, history.getWindowCount());
+    }
+
+    @Test
+    public void moderateTrimKeepsOnlyThePageOnScreen() {
+        addNames(40);
+        history.setVisiblePosition(3);
+        UsernameModel visible = history.get(3);
+        history.get(20);
+        history.trim(MemoryPressure.TRIM_RUNNING_MODERATE);
+        // Still the instance the pager is showing, not a copy read back again
+        assertSame(visible, history.get(3));
+    }
+
+    private void useWindowSize(int windowSize) throws IOException {
+        history.close();
+        history = new UsernameHistory(new HistoryStore(folder.newFolder()), windowSize);
+    }
+
+    private void addNames(int count) {
+        addNames(0, count);
+    }
+
+    private void addNames(int from, int to) {
+        for (int i = from; i < to; i++) {
+            history.add(model("name" + i));
+        }
+    }
+
+    private static UsernameModel model(String username) {
+        UsernameModel usernameModel = new UsernameModel();
+        usernameModel.setUsername(username);
+        return usernameModel;
+    }
+}
@@ -0,0 +1,105 @@
+package com.io.usernames.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BloomFilterTest {
+
+    @Test
+    public void containsEverythingPutIgnoringCase() {
+        BloomFilter filter = BloomFilter.create(1000, 0.01, 64 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            filter.put("Name" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain("name" + i));
+            assertTrue(filter.mightContain("NAME" + i));
+        }
+        assertEquals(1000, filter.getInsertions());
+    }
+
+    @Test
+    public void falsePositivesStayNearTheRequestedRate() {
+        BloomFilter filter = BloomFilter.create(10000, 0.01, 64 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("taken" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("free" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives " + falsePositives, falsePositives < 2000);
+        assertEquals(0.01, filter.getExpectedFalsePositiveRate(), 0.005);
+    }
+
+    @Test
+    public void sizeIsCappedAtMaxBytes() {
+        BloomFilter filter = BloomFilter.create(1000000, 0.001, 1024);
+        assertEquals(1024, filter.getSizeBytes());
+        assertTrue(filter.getHashCount() >= 1);
+    }
+
+    @Test
+    public void copiesDoNotShareBits() {
+        BloomFilter filter = BloomFilter.create(100, 0.01, 1024);
+        filter.put("alpha");
+        BloomFilter copy = filter.copy();
+        filter.put("beta");
+        assertTrue(copy.mightContain("alpha"));
+        assertFalse(copy.mightContain("beta"));
+        assertEquals(1, copy.getInsertions());
+        assertTrue(copy.isCompatible(filter));
+    }
+
+    @Test
+    public void mergesCompatibleFiltersOnly() {
+        BloomFilter a = BloomFilter.create(100, 0.01, 1024);
+        BloomFilter b = BloomFilter.create(100, 0.01, 1024);
+        a.put("alpha");
+        b.put("beta");
+        a.merge(b);
+        assertTrue(a.mightContain("alpha"));
+        assertTrue(a.mightContain("beta"));
+        assertEquals(2, a.getInsertions());
+        try {
+            a.merge(BloomFilter.create(10000, 0.01, 64 * 1024));
+            fail("Merged filters of different sizes");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void readsBackWhatItWrote() throws IOException {
+        BloomFilter filter = BloomFilter.create(100, 0.01, 1024);
+        filter.put("frobnik");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(bytes));
+
+        BloomFilter read = BloomFilter.readFrom(input(bytes), 1024);
+        assertTrue(read.isCompatible(filter));
+        assertTrue(read.mightContain("frobnik"));
+        assertEquals(1, read.getInsertions());
+
+        try {
+            BloomFilter.readFrom(input(bytes), 8);
+            fail("Read a filter larger than the cap");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static DataInputStream input(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,107 @@
+package com.io.usernames.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsBoundTheirValuesWithinAnEighth() {
+        int previous = -1;
+        for (long micros = 0; micros < (1L << 37); micros = micros < 100 ? micros + 1 : micros + micros / 7) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue("Bucket of " + micros, bucket >= previous);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(upper + " below " + micros, upper >= micros);
+            assertTrue(upper + " too far above " + micros, upper - micros <= micros / 8);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void valuesPastTheRangeLandInTheLastBucket() {
+        assertEquals(LatencyHistogram.bucketOf(1L << 40), LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesComeFromTheBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxMicros());
+        assertEquals(500500, histogram.getMeanMicros());
+        assertNear(500000, histogram.getPercentileMicros(50));
+        assertNear(900000, histogram.getPercentileMicros(90));
+        assertNear(990000, histogram.getPercentileMicros(99));
+        // Never past the largest value recorded
+        assertEquals(1000000, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(-5);
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(50));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(1234);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getPercentileMicros(99));
+    }
+
+    @Test
+    public void summarizesOnOneLine() {
+        LatencyHistogram histogram = new LatencyHistogram("network_rtt");
+        histogram.record(12);
+        StringBuilder builder = new StringBuilder();
+        histogram.appendTo(builder);
+        assertEquals("network_rtt n=1 p50=0.0ms p90=0.0ms p99=0.0ms max=0.0ms", builder.toString());
+    }
+
+    @Test
+    public void countsEveryRecordFromManyThreads() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i + offset);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(10002, histogram.getMaxMicros());
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("Expected about " + expected + ", got " + actual,
+                actual >= expected && actual - expected <= expected / 8);
+    }
+}
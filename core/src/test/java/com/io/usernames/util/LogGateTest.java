@@ -0,0 +1,99 @@
+package com.io.usernames.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogGateTest {
+
+    private static final int DEBUG = 3;
+    private static final int INFO = 4;
+    private static final int WARN = 5;
+
+    @Test
+    public void fillsInThePlaceholders() {
+        assertEquals("a 1 b x", LogGate.format("a {} b {}", 1, "x", 2));
+        assertEquals("only {}", LogGate.format("only {}", null, null, 0));
+        assertEquals("no placeholders", LogGate.format("no placeholders", 1, 2, 2));
+        assertEquals("null", LogGate.format(null, 1, 2, 2));
+    }
+
+    @Test
+    public void writesAtAndAboveTheLevel() {
+        RecordingGate gate = new RecordingGate(INFO);
+        gate.log(DEBUG, "t", "dropped {}", 1L, 0, 1);
+        gate.log(INFO, "t", "took {} ms for {}", 12L, 3L, 2);
+        gate.log(WARN, "t", "name {}", "frobnik", null, 1);
+        assertEquals(2, gate.messages.size());
+        assertEquals("took 12 ms for 3", gate.messages.get(0));
+        assertEquals("name frobnik", gate.messages.get(1));
+
+        gate.setLevel(DEBUG);
+        gate.log(DEBUG, "t", "kept");
+        assertEquals("kept", gate.messages.get(2));
+    }
+
+    @Test
+    public void disabledLevelsDoNotFormat() {
+        RecordingGate gate = new RecordingGate(WARN);
+        Object argument = new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("Formatted below the level");
+            }
+        };
+        gate.log(DEBUG, "t", "{}", argument, null, 1);
+        gate.log(INFO, "t", "{} {}", argument, argument, 2);
+        assertTrue(gate.messages.isEmpty());
+    }
+
+    @Test
+    public void disabledLevelsDoNotAllocate() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        RecordingGate gate = new RecordingGate(WARN);
+        String name = "frobnik";
+        // Warm up so the measured loop is compiled and nothing is loaded lazily inside it
+        logDisabled(gate, name, 20000);
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        logDisabled(gate, name, 100000);
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(gate.messages.isEmpty());
+        // A single boxed long or builder per call would be megabytes, this leaves room for the
+        // measurement itself
+        assertTrue("Allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    private static void logDisabled(LogGate gate, String name, int count) {
+        for (int i = 0; i < count; i++) {
+            gate.log(DEBUG, "t", "took {} ms for {}", i, 1000L + i, 2);
+            gate.log(INFO, "t", "name {}", name, null, 1);
+            gate.log(DEBUG, "t", "count {}", i, 0, 1);
+        }
+    }
+
+    private static class RecordingGate extends LogGate {
+        final List<String> messages = new ArrayList<String>();
+
+        RecordingGate(int level) {
+            super(level);
+        }
+
+        @Override
+        protected void write(int priority, String tag, String message) {
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.io.usernames.util;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashSetTest {
+
+    @Test
+    public void addsAndFindsKeys() {
+        LongHashSet set = new LongHashSet(8);
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void storesZero() {
+        LongHashSet set = new LongHashSet(8);
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertTrue(set.contains(0));
+        assertFalse(set.add(0));
+    }
+
+    @Test
+    public void evictsOldestFirst() {
+        LongHashSet set = new LongHashSet(3);
+        set.add(1);
+        set.add(2);
+        set.add(3);
+        // Adding a key again does not make it younger
+        set.add(1);
+        set.add(4);
+        assertFalse(set.contains(1));
+        assertTrue(set.contains(2));
+        assertTrue(set.contains(4));
+        assertEquals(3, set.size());
+
+        long[] keys = new long[3];
+        assertEquals(3, set.toArray(keys));
+        assertArrayEquals(new long[]{2, 3, 4}, keys);
+    }
+
+    @Test
+    public void keepsProbeRunsIntactAcrossEvictions() {
+        // Keys sharing their low bits all land in one probe run, evicting from its middle
+        // must move the later ones back
+        LongHashSet set = new LongHashSet(4);
+        long[] colliding = new long[12];
+        for (int i = 0; i < colliding.length; i++) {
+            colliding[i] = ((long) (i + 1) << 40) | 5;
+        }
+        for (int i = 0; i < colliding.length; i++) {
+            set.add(colliding[i]);
+            for (int j = 0; j <= i; j++) {
+                assertEquals("key " + j + " after adding " + i, j > i - 4, set.contains(colliding[j]));
+            }
+        }
+    }
+
+    @Test
+    public void matchesReferenceSet() {
+        Random random = new Random(7);
+        for (int maxSize : new int[]{1, 5, 64, 1000}) {
+            LongHashSet set = new LongHashSet(maxSize);
+            ArrayDeque<Long> order = new ArrayDeque<Long>();
+            HashSet<Long> reference = new HashSet<Long>();
+            for (int i = 0; i < 50000; i++) {
+                long key = random.nextInt(maxSize * 3) * 0xbf58476d1ce4e5b9L;
+                boolean expected = !reference.contains(key);
+                assertEquals(expected, set.add(key));
+                if (expected) {
+                    if (order.size() == maxSize) {
+                        reference.remove(order.poll());
+                    }
+                    order.add(key);
+                    reference.add(key);
+                }
+                long probe = random.nextInt(maxSize * 3) * 0xbf58476d1ce4e5b9L;
+                assertEquals(reference.contains(probe), set.contains(probe));
+            }
+            assertEquals(reference.size(), set.size());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.io.usernames.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryPressureTest {
+
+    static class RecordingTrimmable implements MemoryPressure.Trimmable {
+        final List<Integer> levels = new ArrayList<Integer>();
+
+        @Override
+        public void trim(int level) {
+            levels.add(level);
+        }
+    }
+
+    @Test
+    public void passesEveryLevelToEveryRegistrant() {
+        MemoryPressure memoryPressure = new MemoryPressure();
+        RecordingTrimmable first = new RecordingTrimmable();
+        RecordingTrimmable second = new RecordingTrimmable();
+        memoryPressure.register(first);
+        memoryPressure.register(second);
+        memoryPressure.trim(MemoryPressure.TRIM_RUNNING_MODERATE);
+        memoryPressure.trim(MemoryPressure.TRIM_BACKGROUND);
+        List<Integer> expected = Arrays.asList(MemoryPressure.TRIM_RUNNING_MODERATE, MemoryPressure.TRIM_BACKGROUND);
+        assertEquals(expected, first.levels);
+        assertEquals(expected, second.levels);
+    }
+
+    @Test
+    public void registersOnceAndStopsAfterUnregister() {
+        MemoryPressure memoryPressure = new MemoryPressure();
+        RecordingTrimmable trimmable = new RecordingTrimmable();
+        memoryPressure.register(trimmable);
+        memoryPressure.register(trimmable);
+        assertEquals(1, memoryPressure.getRegisteredCount());
+        memoryPressure.trim(MemoryPressure.TRIM_UI_HIDDEN);
+        assertEquals(1, trimmable.levels.size());
+
+        memoryPressure.unregister(trimmable);
+        assertEquals(0, memoryPressure.getRegisteredCount());
+        memoryPressure.trim(MemoryPressure.TRIM_COMPLETE);
+        assertEquals(1, trimmable.levels.size());
+    }
+
+    @Test
+    public void lowMemoryIsTheMostSevereTrim() {
+        MemoryPressure memoryPressure = new MemoryPressure();
+        RecordingTrimmable trimmable = new RecordingTrimmable();
+        memoryPressure.register(trimmable);
+        memoryPressure.lowMemory();
+        assertEquals(Arrays.asList(MemoryPressure.TRIM_COMPLETE), trimmable.levels);
+        assertEquals(MemoryPressure.TRIM_COMPLETE, memoryPressure.getLastLevel());
+    }
+
+    @Test
+    public void countsTrimsAndKeepsTheLastLevel() {
+        MemoryPressure memoryPressure = new MemoryPressure();
+        assertEquals(0, memoryPressure.getLastLevel());
+        assertEquals(0, memoryPressure.getTrimCount());
+        // Counted with nothing registered too
+        memoryPressure.trim(MemoryPressure.TRIM_BACKGROUND);
+        memoryPressure.trim(MemoryPressure.TRIM_RUNNING_LOW);
+        assertEquals(MemoryPressure.TRIM_RUNNING_LOW, memoryPressure.getLastLevel());
+        assertEquals(2, memoryPressure.getTrimCount());
+    }
+
+    @Test
+    public void aPoolLetsGoOnceMemoryRunsLow() {
+        MemoryPressure memoryPressure = new MemoryPressure();
+        Pool<Object> pool = new Pool<Object>(2);
+        memoryPressure.register(pool);
+        assertTrue(pool.offer(new Object()));
+        assertTrue(pool.offer(new Object()));
+        // Full
+        assertFalse(pool.offer(new Object()));
+
+        memoryPressure.trim(MemoryPressure.TRIM_RUNNING_MODERATE);
+        assertEquals(2, pool.size());
+        memoryPressure.trim(MemoryPressure.TRIM_RUNNING_LOW);
+        assertEquals(0, pool.size());
+        assertNull(pool.poll());
+    }
+}